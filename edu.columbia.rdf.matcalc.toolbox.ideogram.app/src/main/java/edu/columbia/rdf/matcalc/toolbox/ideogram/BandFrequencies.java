@@ -0,0 +1,396 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.ChromosomeService;
+import org.jebtk.math.matrix.DataFrame;
+
+/**
+ * How many samples gain or lose each cytoband of a genome. A sample is
+ * counted once per band however many of its segments overlap the band.
+ * 
+ * Segments are grouped by chromosome, sign and sample with a counting sort
+ * and each group is merge joined in start order against the bands of its
+ * chromosome, which are also sorted by start. Both pointers only move
+ * forward within a group so the join is linear in the number of segments
+ * and band overlaps, rather than segments times bands.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class BandFrequencies {
+  /**
+   * Columns of the table created by {@link #toDataFrame()}.
+   */
+  public static final String[] COLUMNS = { "chr", "start", "end", "band",
+      "stain", "gain samples", "gain frequency", "loss samples",
+      "loss frequency" };
+
+  private final GenomeAnnotation mAnnotation;
+
+  private final Chromosome[] mChromosomes;
+
+  /**
+   * Bands of chromosome c, sorted by start, are mBands[mOffsets[c]] until
+   * mBands[mOffsets[c + 1]].
+   */
+  private final int[] mOffsets;
+  private final int[] mBands;
+
+  private final int[] mGains;
+  private final int[] mLosses;
+
+  private int mSamples = 1;
+
+  private BandFrequencies(GenomeAnnotation annotation,
+      Chromosome[] chromosomes) {
+    mAnnotation = annotation;
+    mChromosomes = chromosomes;
+
+    Map<Chromosome, Integer> ordinals = new HashMap<Chromosome, Integer>();
+
+    for (int i = 0; i < chromosomes.length; ++i) {
+      ordinals.put(chromosomes[i], i);
+    }
+
+    int n = annotation.getBandCount();
+
+    // Chromosome ordinal and start of each band so they can be sorted
+    // together
+    long[] keys = new long[n];
+    int placed = 0;
+
+    Map<String, Integer> chrCodes = new HashMap<String, Integer>();
+
+    for (int i = 0; i < n; ++i) {
+      String name = annotation.getBandChr(i);
+
+      Integer chr = chrCodes.get(name);
+
+      if (chr == null) {
+        Integer ordinal = ordinals.get(ChromosomeService.getInstance()
+            .chr(annotation.getGenome(), name));
+
+        chr = ordinal != null ? ordinal : -1;
+
+        chrCodes.put(name, chr);
+      }
+
+      if (chr != -1) {
+        keys[placed++] = ((long) chr << 32) | i;
+      }
+    }
+
+    // Bands are listed in order in the annotation so sorting by chromosome
+    // and then index is enough
+    Arrays.sort(keys, 0, placed);
+
+    mOffsets = new int[chromosomes.length + 1];
+    mBands = new int[placed];
+
+    for (int k = 0; k < placed; ++k) {
+      ++mOffsets[(int) (keys[k] >>> 32) + 1];
+
+      mBands[k] = (int) keys[k];
+    }
+
+    for (int c = 0; c < chromosomes.length; ++c) {
+      mOffsets[c + 1] += mOffsets[c];
+
+      sortByStart(mOffsets[c], mOffsets[c + 1]);
+    }
+
+    mGains = new int[n];
+    mLosses = new int[n];
+  }
+
+  /**
+   * Returns the number of bands in the genome.
+   * 
+   * @return
+   */
+  public int getBandCount() {
+    return mGains.length;
+  }
+
+  public int getSampleCount() {
+    return mSamples;
+  }
+
+  /**
+   * Returns how many samples gain band i.
+   * 
+   * @param i
+   * @return
+   */
+  public int getGains(int i) {
+    return mGains[i];
+  }
+
+  public int getLosses(int i) {
+    return mLosses[i];
+  }
+
+  public double getGainFrequency(int i) {
+    return (double) mGains[i] / mSamples;
+  }
+
+  public double getLossFrequency(int i) {
+    return (double) mLosses[i] / mSamples;
+  }
+
+  /**
+   * Returns the annotation band indices of a chromosome in start order.
+   * 
+   * @param chr
+   * @return
+   */
+  public int[] getBands(Chromosome chr) {
+    for (int c = 0; c < mChromosomes.length; ++c) {
+      if (mChromosomes[c].equals(chr)) {
+        return Arrays.copyOfRange(mBands, mOffsets[c], mOffsets[c + 1]);
+      }
+    }
+
+    return new int[0];
+  }
+
+  public GenomeAnnotation getAnnotation() {
+    return mAnnotation;
+  }
+
+  /**
+   * Create a table with a row for each band in genome order.
+   * 
+   * @return
+   */
+  public DataFrame toDataFrame() {
+    int n = getBandCount();
+
+    DataFrame ret = DataFrame.createDataFrame(n, COLUMNS.length);
+
+    for (int c = 0; c < COLUMNS.length; ++c) {
+      ret.setColumnName(c, COLUMNS[c]);
+    }
+
+    for (int i = 0; i < n; ++i) {
+      ret.set(i, 0, mAnnotation.getBandChr(i));
+      ret.set(i, 1, mAnnotation.getBandStart(i));
+      ret.set(i, 2, mAnnotation.getBandEnd(i));
+      ret.set(i, 3, mAnnotation.getBandName(i));
+      ret.set(i, 4, mAnnotation.getBandStain(i));
+      ret.set(i, 5, mGains[i]);
+      ret.set(i, 6, getGainFrequency(i));
+      ret.set(i, 7, mLosses[i]);
+      ret.set(i, 8, getLossFrequency(i));
+    }
+
+    return ret;
+  }
+
+  /**
+   * Count the samples gaining and losing each band.
+   * 
+   * @param annotation
+   * @param segments
+   * @return
+   */
+  public static BandFrequencies create(GenomeAnnotation annotation,
+      final Segments segments) {
+    BandFrequencies ret = new BandFrequencies(annotation,
+        segments.getChromosomes());
+
+    ret.mSamples = Math.max(1, segments.getSampleCount());
+
+    ret.join(segments);
+
+    return ret;
+  }
+
+  /**
+   * Count the samples gaining and losing each band of spilled segments. Only
+   * one partition is loaded at a time.
+   * 
+   * @param annotation
+   * @param spill
+   * @return
+   * @throws IOException
+   */
+  public static BandFrequencies create(GenomeAnnotation annotation,
+      final SegmentSpill spill) throws IOException {
+    BandFrequencies ret = new BandFrequencies(annotation,
+        spill.getChromosomes());
+
+    ret.mSamples = Math.max(1, spill.getSampleCount());
+
+    for (int p = 0; p < spill.getChromosomes().length * 2; ++p) {
+      if (spill.getCount(p) > 0) {
+        ret.join(spill.load(p));
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * Merge join segments against the bands. Each partition of a chromosome and
+   * sign must only be joined once.
+   * 
+   * @param segments
+   */
+  private void join(final Segments segments) {
+    int n = segments.size();
+    int samples = segments.getSampleCount();
+    int groups = mChromosomes.length * 2 * samples;
+
+    //
+    // Group by partition and then sample
+    //
+
+    int[] offsets = new int[groups + 1];
+
+    for (int i = 0; i < n; ++i) {
+      int p = PartitionIndex.partition(segments, i);
+
+      if (p != -1) {
+        ++offsets[p * samples + segments.mSample[i] + 1];
+      }
+    }
+
+    for (int g = 0; g < groups; ++g) {
+      offsets[g + 1] += offsets[g];
+    }
+
+    int[] order = new int[offsets[groups]];
+    int[] next = Arrays.copyOf(offsets, groups);
+
+    for (int i = 0; i < n; ++i) {
+      int p = PartitionIndex.partition(segments, i);
+
+      if (p != -1) {
+        order[next[p * samples + segments.mSample[i]]++] = i;
+      }
+    }
+
+    //
+    // Join each group in start order
+    //
+
+    long[] keys = null;
+
+    for (int g = 0; g < groups; ++g) {
+      int s = offsets[g];
+      int e = offsets[g + 1];
+
+      if (s == e) {
+        continue;
+      }
+
+      int p = g / samples;
+      int chr = PartitionIndex.getChr(p);
+      int[] counts = PartitionIndex.isGain(p) ? mGains : mLosses;
+
+      if (!isSorted(segments, order, s, e)) {
+        if (keys == null || keys.length < e - s) {
+          keys = new long[e - s];
+        }
+
+        for (int k = s; k < e; ++k) {
+          keys[k - s] = ((long) segments.mStart[order[k]] << 32) | order[k];
+        }
+
+        Arrays.sort(keys, 0, e - s);
+
+        for (int k = s; k < e; ++k) {
+          order[k] = (int) keys[k - s];
+        }
+      }
+
+      int b = mOffsets[chr];
+      int last = mOffsets[chr + 1];
+
+      // The furthest band already counted for this sample so overlapping
+      // segments do not count a band twice
+      int counted = b;
+
+      for (int k = s; k < e; ++k) {
+        int i = order[k];
+
+        int start = segments.mStart[i];
+        int end = segments.mEnd[i];
+
+        // Skip the bands that end before the segment. Segment ends are
+        // inclusive and band ends exclusive
+        while (b < last && mAnnotation.getBandEnd(mBands[b]) <= start) {
+          ++b;
+        }
+
+        for (int j = Math.max(b, counted); j < last
+            && mAnnotation.getBandStart(mBands[j]) <= end; ++j) {
+          ++counts[mBands[j]];
+
+          counted = j + 1;
+        }
+      }
+    }
+  }
+
+  private void sortByStart(int s, int e) {
+    long[] keys = new long[e - s];
+
+    for (int k = s; k < e; ++k) {
+      keys[k - s] = ((long) mAnnotation.getBandStart(mBands[k]) << 32)
+          | mBands[k];
+    }
+
+    Arrays.sort(keys);
+
+    for (int k = s; k < e; ++k) {
+      mBands[k] = (int) keys[k - s];
+    }
+  }
+
+  private static boolean isSorted(final Segments segments,
+      int[] order,
+      int s,
+      int e) {
+    for (int k = s + 1; k < e; ++k) {
+      if (segments.mStart[order[k]] < segments.mStart[order[k - 1]]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+}
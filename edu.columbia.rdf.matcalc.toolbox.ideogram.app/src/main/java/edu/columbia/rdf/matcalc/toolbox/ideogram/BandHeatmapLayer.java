@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.graphplot.figure.Axes;
+import org.jebtk.graphplot.figure.AxesClippedLayer;
+import org.jebtk.graphplot.figure.Figure;
+import org.jebtk.graphplot.figure.SubFigure;
+import org.jebtk.modern.graphics.DrawingContext;
+
+/**
+ * Colors the cytobands of a chromosome by how often they are gained or lost.
+ * Each band is shaded from white towards the gain color by its gain
+ * frequency, or towards the loss color if losses are more frequent.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class BandHeatmapLayer extends AxesClippedLayer {
+  private final int[] mStarts;
+  private final int[] mEnds;
+  private final Color[] mColors;
+
+  public BandHeatmapLayer(BandFrequencies frequencies, Chromosome chr,
+      Color gainColor, Color lossColor) {
+    int[] bands = frequencies.getBands(chr);
+
+    GenomeAnnotation annotation = frequencies.getAnnotation();
+
+    mStarts = new int[bands.length];
+    mEnds = new int[bands.length];
+    mColors = new Color[bands.length];
+
+    for (int k = 0; k < bands.length; ++k) {
+      int i = bands[k];
+
+      mStarts[k] = annotation.getBandStart(i);
+      mEnds[k] = annotation.getBandEnd(i);
+
+      double gain = frequencies.getGainFrequency(i);
+      double loss = frequencies.getLossFrequency(i);
+
+      mColors[k] = gain >= loss ? blend(gainColor, gain)
+          : blend(lossColor, loss);
+    }
+  }
+
+  @Override
+  public void plotClipped(Graphics2D g2,
+      DrawingContext context,
+      Figure figure,
+      SubFigure subFigure,
+      Axes axes) {
+    int n = mStarts.length;
+
+    if (n == 0) {
+      return;
+    }
+
+    int y1 = axes.toPlotY1(1);
+    int y2 = axes.toPlotY1(0);
+
+    for (int k = 0; k < n; ++k) {
+      int x1 = axes.toPlotX1(mStarts[k]);
+      int x2 = axes.toPlotX1(mEnds[k]);
+
+      g2.setColor(mColors[k]);
+      g2.fillRect(x1, y1, Math.max(1, x2 - x1), y2 - y1);
+    }
+
+    int x1 = axes.toPlotX1(mStarts[0]);
+    int x2 = axes.toPlotX1(mEnds[n - 1]);
+
+    g2.setColor(Color.BLACK);
+    g2.drawRect(x1, y1, x2 - x1, y2 - y1);
+  }
+
+  /**
+   * Mix white and a color.
+   * 
+   * @param color
+   * @param f The fraction of the color, between 0 and 1.
+   * @return
+   */
+  private static Color blend(Color color, double f) {
+    f = Math.max(0, Math.min(1, f));
+
+    return new Color(mix(color.getRed(), f),
+        mix(color.getGreen(), f),
+        mix(color.getBlue(), f));
+  }
+
+  private static int mix(int c, double f) {
+    return (int) Math.round(255 + (c - 255) * f);
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.Arrays;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.graphplot.figure.Axes;
+import org.jebtk.graphplot.figure.AxesClippedLayer;
+import org.jebtk.graphplot.figure.Figure;
+import org.jebtk.graphplot.figure.SubFigure;
+import org.jebtk.modern.graphics.DrawingContext;
+
+/**
+ * Draws the cytobands of a chromosome straight from the band columns of a
+ * {@link GenomeAnnotation}, colored by Giemsa stain, so the annotation never
+ * has to be turned back into cytoband text to be drawn.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class BandsLayer extends AxesClippedLayer {
+
+  /**
+   * Giemsa stains in the order they are drawn.
+   */
+  static final String[] STAINS = { "gneg", "gpos25", "gpos33", "gpos50",
+      "gpos66", "gpos75", "gpos100", "gvar", "stalk", "acen" };
+
+  private static final Color OUTLINE = Color.BLACK;
+
+  private final int[] mStarts;
+  private final int[] mEnds;
+  private final Color[] mColors;
+
+  public BandsLayer(GenomeAnnotation annotation, Chromosome chr) {
+    String name = chr.toString();
+
+    // Bands packed as start and index so sorting orders by start
+    long[] keys = new long[annotation.getBandCount()];
+    int n = 0;
+
+    for (int i = 0; i < annotation.getBandCount(); ++i) {
+      if (annotation.getBandChr(i).equals(name)) {
+        keys[n++] = ((long) annotation.getBandStart(i) << 32) | i;
+      }
+    }
+
+    Arrays.sort(keys, 0, n);
+
+    mStarts = new int[n];
+    mEnds = new int[n];
+    mColors = new Color[n];
+
+    for (int k = 0; k < n; ++k) {
+      int i = (int) keys[k];
+
+      mStarts[k] = annotation.getBandStart(i);
+      mEnds[k] = annotation.getBandEnd(i);
+      mColors[k] = getStainColor(annotation.getBandStain(i));
+    }
+  }
+
+  @Override
+  public void plotClipped(Graphics2D g2,
+      DrawingContext context,
+      Figure figure,
+      SubFigure subFigure,
+      Axes axes) {
+    int n = mStarts.length;
+
+    if (n == 0) {
+      return;
+    }
+
+    int y1 = axes.toPlotY1(1);
+    int y2 = axes.toPlotY1(0);
+
+    for (int k = 0; k < n; ++k) {
+      int x1 = axes.toPlotX1(mStarts[k]);
+      int x2 = axes.toPlotX1(mEnds[k]);
+
+      g2.setColor(mColors[k]);
+      g2.fillRect(x1, y1, Math.max(1, x2 - x1), y2 - y1);
+    }
+
+    int x1 = axes.toPlotX1(mStarts[0]);
+    int x2 = axes.toPlotX1(mEnds[n - 1]);
+
+    g2.setColor(OUTLINE);
+    g2.drawRect(x1, y1, x2 - x1, y2 - y1);
+  }
+
+  static Color getStainColor(String stain) {
+    switch (stain) {
+    case "gpos25":
+      return new Color(192, 192, 192);
+    case "gpos33":
+      return new Color(170, 170, 170);
+    case "gpos50":
+      return new Color(128, 128, 128);
+    case "gpos66":
+      return new Color(85, 85, 85);
+    case "gpos75":
+      return new Color(64, 64, 64);
+    case "gpos100":
+      return Color.BLACK;
+    case "gvar":
+      return new Color(220, 220, 220);
+    case "stalk":
+      return new Color(100, 127, 164);
+    case "acen":
+      return new Color(141, 64, 52);
+    default:
+      return Color.WHITE;
+    }
+  }
+}
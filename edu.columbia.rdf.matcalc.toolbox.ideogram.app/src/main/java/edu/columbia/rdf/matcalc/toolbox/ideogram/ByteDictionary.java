@@ -0,0 +1,192 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Dictionary that encodes byte strings, such as the sample ids and
+ * chromosome names of a segment file, as dense int codes in order of first
+ * appearance. Lookups hash and compare the bytes in place so no String is
+ * created for values that have already been seen.
+ * 
+ * @author Antony Holmes
+ *
+ */
+class ByteDictionary {
+  private static final int INITIAL_CAPACITY = 64;
+
+  /**
+   * Open addressing table of code + 1, with 0 marking an empty slot.
+   */
+  private int[] mTable = new int[INITIAL_CAPACITY * 2];
+
+  /**
+   * The bytes of every value, back to back.
+   */
+  private byte[] mBytes = new byte[INITIAL_CAPACITY * 16];
+
+  private int mBytesSize = 0;
+
+  /**
+   * Start of each value in mBytes. Value i ends at mOffsets[i + 1].
+   */
+  private int[] mOffsets = new int[INITIAL_CAPACITY + 1];
+
+  private int[] mHashes = new int[INITIAL_CAPACITY];
+
+  private String[] mValues = new String[INITIAL_CAPACITY];
+
+  private int mSize = 0;
+
+  /**
+   * Returns the code of the bytes b[s, e), adding them to the dictionary if
+   * they have not been seen before.
+   * 
+   * @param b
+   * @param s
+   * @param e
+   * @return
+   */
+  public int encode(byte[] b, int s, int e) {
+    int hash = hash(b, s, e);
+
+    int mask = mTable.length - 1;
+
+    int slot = hash & mask;
+
+    while (mTable[slot] != 0) {
+      int code = mTable[slot] - 1;
+
+      if (mHashes[code] == hash && equals(code, b, s, e)) {
+        return code;
+      }
+
+      slot = (slot + 1) & mask;
+    }
+
+    return add(b, s, e, hash, slot);
+  }
+
+  /**
+   * Returns the value of a code.
+   * 
+   * @param code
+   * @return
+   */
+  public String get(int code) {
+    if (mValues[code] == null) {
+      mValues[code] = new String(mBytes, mOffsets[code],
+          mOffsets[code + 1] - mOffsets[code], StandardCharsets.UTF_8);
+    }
+
+    return mValues[code];
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  private int add(byte[] b, int s, int e, int hash, int slot) {
+    int code = mSize++;
+
+    if (code == mHashes.length) {
+      mHashes = Arrays.copyOf(mHashes, code * 2);
+      mValues = Arrays.copyOf(mValues, code * 2);
+      mOffsets = Arrays.copyOf(mOffsets, code * 2 + 1);
+    }
+
+    int l = e - s;
+
+    if (mBytesSize + l > mBytes.length) {
+      mBytes = Arrays.copyOf(mBytes,
+          Math.max(mBytes.length * 2, mBytesSize + l));
+    }
+
+    System.arraycopy(b, s, mBytes, mBytesSize, l);
+    mBytesSize += l;
+
+    mOffsets[code + 1] = mBytesSize;
+    mHashes[code] = hash;
+
+    mTable[slot] = code + 1;
+
+    // Keep the table at most half full
+    if (mSize * 2 > mTable.length) {
+      rehash();
+    }
+
+    return code;
+  }
+
+  private void rehash() {
+    int[] table = new int[mTable.length * 2];
+
+    int mask = table.length - 1;
+
+    for (int code = 0; code < mSize; ++code) {
+      int slot = mHashes[code] & mask;
+
+      while (table[slot] != 0) {
+        slot = (slot + 1) & mask;
+      }
+
+      table[slot] = code + 1;
+    }
+
+    mTable = table;
+  }
+
+  private boolean equals(int code, byte[] b, int s, int e) {
+    int o = mOffsets[code];
+
+    if (mOffsets[code + 1] - o != e - s) {
+      return false;
+    }
+
+    for (int i = s; i < e; ++i) {
+      if (mBytes[o++] != b[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static int hash(byte[] b, int s, int e) {
+    int h = 0;
+
+    for (int i = s; i < e; ++i) {
+      h = 31 * h + b[i];
+    }
+
+    // Spread the low bits since the table size is a power of two
+    return h ^ (h >>> 16);
+  }
+}
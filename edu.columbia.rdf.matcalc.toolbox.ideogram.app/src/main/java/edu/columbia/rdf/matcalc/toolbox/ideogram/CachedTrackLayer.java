@@ -0,0 +1,262 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.ref.SoftReference;
+
+import org.jebtk.graphplot.figure.Axes;
+import org.jebtk.graphplot.figure.AxesClippedLayer;
+import org.jebtk.graphplot.figure.Figure;
+import org.jebtk.graphplot.figure.SubFigure;
+import org.jebtk.modern.graphics.DrawingContext;
+
+/**
+ * Draws a static track layer, such as the cytobands or the segments of a
+ * chromosome, from an off-screen image held in the {@link TrackImageCache}
+ * so repaints are a single blit. The track is only rendered again when its
+ * size on screen changes or it is invalidated. Printing and export always
+ * draw the wrapped layer directly so vector output is unaffected.
+ * 
+ * Tracks outside the clip, for example chromosomes scrolled out of view, are
+ * skipped. A track created from a {@link TrackLayerFactory} is not built
+ * until it is first drawn and is only softly held afterwards, so tracks
+ * whose images are cached can be released under memory pressure and built
+ * again if needed. Call {@link #dispose()} when the track is no longer shown
+ * so its images can be removed from the cache.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class CachedTrackLayer extends AxesClippedLayer {
+
+  /**
+   * Extra pixels around the track for strokes drawn on its edges.
+   */
+  private static final int PAD = 2;
+
+  /**
+   * The wrapped layer if it was supplied up front.
+   */
+  private final AxesClippedLayer mLayer;
+
+  private final TrackLayerFactory mFactory;
+
+  private SoftReference<AxesClippedLayer> mRef = null;
+
+  private final Color mColor;
+
+  private final double mXMin;
+  private final double mXMax;
+  private final double mYMin;
+  private final double mYMax;
+
+  /**
+   * Identifies the data of the track in the cache.
+   */
+  private long mTrack;
+
+  private boolean mDisposed = false;
+
+  /**
+   * Wrap a layer.
+   * 
+   * @param layer The layer to draw.
+   * @param track Identifies the data drawn by the layer. Tracks with equal
+   *          ids share cached images.
+   * @param color The color of the track or null.
+   * @param xMin The x limits of the axes.
+   * @param xMax
+   * @param yMin The y limits of the axes.
+   * @param yMax
+   */
+  public CachedTrackLayer(AxesClippedLayer layer, Object track, Color color,
+      double xMin, double xMax, double yMin, double yMax) {
+    this(layer, null, track, color, xMin, xMax, yMin, yMax);
+  }
+
+  /**
+   * Create a track whose layer is built when it is first drawn.
+   * 
+   * @param factory Creates the layer to draw.
+   * @param track Identifies the data drawn by the layer.
+   * @param color The color of the track or null.
+   * @param xMin The x limits of the axes.
+   * @param xMax
+   * @param yMin The y limits of the axes.
+   * @param yMax
+   */
+  public CachedTrackLayer(TrackLayerFactory factory, Object track,
+      Color color, double xMin, double xMax, double yMin, double yMax) {
+    this(null, factory, track, color, xMin, xMax, yMin, yMax);
+  }
+
+  private CachedTrackLayer(AxesClippedLayer layer, TrackLayerFactory factory,
+      Object track, Color color, double xMin, double xMax, double yMin,
+      double yMax) {
+    mLayer = layer;
+    mFactory = factory;
+    mTrack = TrackImageCache.getInstance().acquire(track);
+    mColor = color;
+    mXMin = xMin;
+    mXMax = xMax;
+    mYMin = yMin;
+    mYMax = yMax;
+  }
+
+  /**
+   * Discard the cached images of this track so it is rendered again on the
+   * next repaint.
+   */
+  public synchronized void invalidate() {
+    if (mDisposed) {
+      return;
+    }
+
+    TrackImageCache.getInstance().invalidate(mTrack);
+    TrackImageCache.getInstance().release(mTrack);
+
+    mTrack = TrackImageCache.getInstance().acquire(null);
+  }
+
+  /**
+   * Release the cached images of this track. Images shared with tracks that
+   * are still shown are kept.
+   */
+  public synchronized void dispose() {
+    if (mDisposed) {
+      return;
+    }
+
+    TrackImageCache.getInstance().release(mTrack);
+
+    mDisposed = true;
+  }
+
+  /**
+   * Returns whether the layer that draws the track is currently in memory.
+   * 
+   * @return
+   */
+  public synchronized boolean isMaterialized() {
+    return mLayer != null || (mRef != null && mRef.get() != null);
+  }
+
+  /**
+   * Returns the layer that draws the track, building it if necessary.
+   * 
+   * @return
+   */
+  private synchronized AxesClippedLayer getLayer() {
+    if (mLayer != null) {
+      return mLayer;
+    }
+
+    AxesClippedLayer layer = mRef != null ? mRef.get() : null;
+
+    if (layer == null) {
+      layer = mFactory.create();
+
+      mRef = new SoftReference<AxesClippedLayer>(layer);
+    }
+
+    return layer;
+  }
+
+  @Override
+  public void plotClipped(Graphics2D g2,
+      DrawingContext context,
+      Figure figure,
+      SubFigure subFigure,
+      Axes axes) {
+    if (context != DrawingContext.SCREEN) {
+      StageTimer timer = IdeogramMetrics.getInstance()
+          .start(MetricStage.PAINT);
+
+      getLayer().plotClipped(g2, context, figure, subFigure, axes);
+
+      timer.stop(1);
+
+      return;
+    }
+
+    int x1 = axes.toPlotX1(mXMin);
+    int x2 = axes.toPlotX1(mXMax);
+    int y1 = axes.toPlotY1(mYMin);
+    int y2 = axes.toPlotY1(mYMax);
+
+    int x = Math.min(x1, x2) - PAD;
+    int y = Math.min(y1, y2) - PAD;
+    int w = Math.abs(x2 - x1) + 2 * PAD + 1;
+    int h = Math.abs(y2 - y1) + 2 * PAD + 1;
+
+    Rectangle clip = g2.getClipBounds();
+
+    if (clip != null && !clip.intersects(x, y, w, h)) {
+      return;
+    }
+
+    // Render at device resolution on scaled (e.g. HiDPI) displays
+    double scale = g2.getTransform().getScaleX();
+
+    TrackImageCache.Key key = new TrackImageCache.Key(mTrack, mColor, x, y,
+        w, h, scale);
+
+    BufferedImage image = TrackImageCache.getInstance().get(key);
+
+    if (image == null) {
+      StageTimer timer = IdeogramMetrics.getInstance()
+          .start(MetricStage.PAINT);
+
+      image = new BufferedImage(Math.max(1, (int) Math.ceil(w * scale)),
+          Math.max(1, (int) Math.ceil(h * scale)),
+          BufferedImage.TYPE_INT_ARGB);
+
+      Graphics2D ig = image.createGraphics();
+
+      try {
+        ig.setRenderingHints(g2.getRenderingHints());
+        ig.scale(scale, scale);
+        ig.translate(-x, -y);
+
+        getLayer().plotClipped(ig, context, figure, subFigure, axes);
+      } finally {
+        ig.dispose();
+      }
+
+      TrackImageCache.getInstance().put(key, image);
+
+      timer.stop(1);
+    }
+
+    g2.drawImage(image, x, y, w, h, null);
+  }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.jebtk.math.matrix.DataFrame;
+
+/**
+ * A named set of segments to draw on an ideogram, either a segment matrix
+ * or a SEG/BED file that is streamed when the cohort is laid out.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class Cohort {
+  private final String mName;
+  private final DataFrame mM;
+  private final Map<String, Integer> mIdColumns;
+  private final Path mFile;
+
+  /**
+   * Create a cohort from a segment matrix.
+   * 
+   * @param name
+   * @param m The segment matrix.
+   * @param idColumns Map of the id, chr, start, end and mean column indices.
+   */
+  public Cohort(String name, DataFrame m, Map<String, Integer> idColumns) {
+    mName = name;
+    mM = m;
+    mIdColumns = idColumns;
+    mFile = null;
+  }
+
+  /**
+   * Create a cohort from a segment file.
+   * 
+   * @param name
+   * @param file
+   */
+  public Cohort(String name, Path file) {
+    mName = name;
+    mM = null;
+    mIdColumns = null;
+    mFile = file;
+  }
+
+  public String getName() {
+    return mName;
+  }
+
+  /**
+   * Returns the segment matrix or null if the cohort is read from file.
+   * 
+   * @return
+   */
+  public DataFrame getMatrix() {
+    return mM;
+  }
+
+  public Map<String, Integer> getIdColumns() {
+    return mIdColumns;
+  }
+
+  /**
+   * Returns the segment file or null if the cohort is a matrix.
+   * 
+   * @return
+   */
+  public Path getFile() {
+    return mFile;
+  }
+
+  @Override
+  public String toString() {
+    return mName;
+  }
+}
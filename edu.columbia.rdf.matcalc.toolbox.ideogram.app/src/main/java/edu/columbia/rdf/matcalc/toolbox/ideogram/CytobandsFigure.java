@@ -28,27 +28,24 @@
 package edu.columbia.rdf.matcalc.toolbox.ideogram;
 
 import java.awt.Color;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CancellationException;
 
-import org.jebtk.bioinformatics.ext.ucsc.Cytobands;
 import org.jebtk.bioinformatics.genomic.Chromosome;
-import org.jebtk.bioinformatics.genomic.Genome;
-import org.jebtk.bioinformatics.genomic.ChromosomeService;
-import org.jebtk.bioinformatics.genomic.Human;
-import org.jebtk.bioinformatics.ui.external.ucsc.CytobandsLayer;
 import org.jebtk.core.settings.SettingsService;
-import org.jebtk.graphplot.PlotFactory;
 import org.jebtk.graphplot.figure.Axes;
+import org.jebtk.graphplot.figure.AxesClippedLayer;
 import org.jebtk.graphplot.figure.Figure;
 import org.jebtk.graphplot.figure.FigureVertAlignment;
 import org.jebtk.graphplot.figure.LabelAxesLayer;
 import org.jebtk.graphplot.figure.SubFigure;
-import org.jebtk.graphplot.figure.series.XYSeries;
 import org.jebtk.graphplot.plotbox.PlotBoxGridLayout;
 import org.jebtk.math.matrix.DataFrame;
-import org.jebtk.math.matrix.DoubleMatrix;
 
 /**
  * Layout out peak plots in a column.
@@ -63,162 +60,619 @@ public class CytobandsFigure extends Figure {
    */
   private static final long serialVersionUID = 1L;
 
-  private static final double PLOT_WIDTH = SettingsService.getInstance()
+  static final double PLOT_WIDTH = SettingsService.getInstance()
       .getInt("ideogram.plot-width");
 
-  private static final int PLOT_ROW_HEIGHT = SettingsService.getInstance()
+  static final int PLOT_ROW_HEIGHT = SettingsService.getInstance()
       .getInt("ideogram.separation");
 
+  static final int FREQUENCY_HEIGHT = SettingsService.getInstance()
+      .getInt("ideogram.frequency.height");
+
+  static final int COLUMNS = Math.max(1,
+      SettingsService.getInstance().getInt("ideogram.columns"));
+
+  /**
+   * Whether the layers that draw each track are only built when the track is
+   * first scrolled into view.
+   */
+  static final boolean VIRTUAL = SettingsService.getInstance()
+      .getBool("ideogram.figure.virtual");
+
   private Axes axes;
 
+  private final GenomeAnnotation mAnnotation;
+
   // private static final Color GAINS_COLOR =
   // SettingsService.getInstance().getColor("ideogram.gains.color");
 
   // private static final Color LOSSES_COLOR =
   // SettingsService.getInstance().getColor("ideogram.losses.color");
 
-  private static final int OFFSET = 10;
+  static final int OFFSET = 10;
+
+  /**
+   * Left margin of each plot, which holds the chromosome and cohort labels.
+   */
+  static final int LEFT_MARGIN = 100;
+
+  static final int BAND_HEIGHT = 24;
+
+  private double mMaxFrequency = 1;
+
+  /**
+   * Index for querying the segments under the mouse, may be null.
+   */
+  private SegmentIndex mIndex;
+
+  private final List<SegmentQueryLayer> mQueryLayers = new ArrayList<SegmentQueryLayer>();
+
+  /**
+   * The image cached tracks of the figure.
+   */
+  private final List<CachedTrackLayer> mTracks = new ArrayList<CachedTrackLayer>();
+
+  /**
+   * The band axes of each chromosome.
+   */
+  private final Map<Chromosome, Axes> mBandAxes = new HashMap<Chromosome, Axes>();
 
   /**
    * Sets the view.
    *
    * @param view the new view
    */
-  public CytobandsFigure(Genome genome,
-      final Cytobands cytobands,
+  public CytobandsFigure(final GenomeAnnotation annotation,
       final Color gainColor,
       final Map<Chromosome, DataFrame> matrixMapGain, final Color lossColor,
       final Map<Chromosome, DataFrame> matrixMapLoss) {
-    super("Cytobands Figure", new PlotBoxGridLayout(36, 2));
+    this(annotation, gainColor, matrixMapGain, lossColor, matrixMapLoss,
+        IdeogramProgress.NONE);
+  }
 
-    // lets see which genome is longest
+  /**
+   * Create the figure, reporting each chromosome to a progress listener which
+   * may also cancel construction.
+   *
+   * @param annotation
+   * @param gainColor
+   * @param matrixMapGain
+   * @param lossColor
+   * @param matrixMapLoss
+   * @param progress
+   */
+  public CytobandsFigure(final GenomeAnnotation annotation,
+      final Color gainColor,
+      final Map<Chromosome, DataFrame> matrixMapGain, final Color lossColor,
+      final Map<Chromosome, DataFrame> matrixMapLoss,
+      IdeogramProgress progress) {
+    this(annotation, gainColor, lossColor,
+        SegmentLayout.of(matrixMapGain, matrixMapLoss), null, progress);
+  }
 
-    int maxLength = ChromosomeService.getInstance().size(genome, ChromosomeService.getInstance().chr(genome, "chr1"));
-    // Chromosome longestChr = Chromosome.CHR1;
+  /**
+   * Create the figure from a segment layout with an index of the segments
+   * so the gains and losses under the mouse can be queried.
+   *
+   * @param annotation
+   * @param gainColor
+   * @param lossColor
+   * @param layout
+   * @param index
+   * @param progress
+   */
+  public CytobandsFigure(final GenomeAnnotation annotation,
+      final Color gainColor,
+      final Color lossColor,
+      final SegmentLayout layout,
+      final SegmentIndex index,
+      IdeogramProgress progress) {
+    this(annotation, null, gainColor,
+        Collections.singletonList(layout.getGains()), lossColor,
+        Collections.singletonList(layout.getLosses()), null, index,
+        progress);
+  }
 
-    Chromosome chr;
+  /**
+   * Create a figure showing the frequency of gains and losses along each
+   * chromosome instead of individual segments, which is more readable and
+   * much cheaper to draw for large cohorts.
+   *
+   * @param annotation
+   * @param gainColor
+   * @param lossColor
+   * @param frequencies
+   * @param progress
+   */
+  public CytobandsFigure(final GenomeAnnotation annotation,
+      final Color gainColor,
+      final Color lossColor,
+      final FrequencyLayout frequencies,
+      IdeogramProgress progress) {
+    this(annotation, gainColor, lossColor, frequencies, null, progress);
+  }
 
-    for (int i = 0; i < 12; ++i) {
-      // Gains
-      chr = Human.CHROMOSOMES[i];
+  /**
+   * Create a frequency figure with an index of the segments so the samples
+   * under the mouse can be queried.
+   *
+   * @param annotation
+   * @param gainColor
+   * @param lossColor
+   * @param frequencies
+   * @param index
+   * @param progress
+   */
+  public CytobandsFigure(final GenomeAnnotation annotation,
+      final Color gainColor,
+      final Color lossColor,
+      final FrequencyLayout frequencies,
+      final SegmentIndex index,
+      IdeogramProgress progress) {
+    this(annotation, null, gainColor,
+        Collections.singletonList(
+            Collections.<Chromosome, SegmentView>emptyMap()),
+        lossColor,
+        Collections.singletonList(
+            Collections.<Chromosome, SegmentView>emptyMap()),
+        new FrequencyLayout[] { frequencies }, index, progress);
+  }
 
-      createGainPlot(cytobands,
-          genome,
-          chr,
-          maxLength,
-          gainColor,
-          matrixMapGain);
+  /**
+   * Create a figure comparing the segments of several cohorts. Each
+   * chromosome has one band track with the gains of every cohort stacked
+   * above it and the losses below it.
+   *
+   * @param annotation
+   * @param names The name of each cohort.
+   * @param gainColor
+   * @param lossColor
+   * @param layouts The layout of each cohort.
+   * @param progress
+   */
+  public CytobandsFigure(final GenomeAnnotation annotation,
+      final String[] names,
+      final Color gainColor,
+      final Color lossColor,
+      final SegmentLayout[] layouts,
+      IdeogramProgress progress) {
+    this(annotation, names, gainColor, gains(layouts), lossColor,
+        losses(layouts), null, null, progress);
+  }
 
-      chr = Human.CHROMOSOMES[i + 12];
+  /**
+   * Create a figure comparing the gain and loss frequencies of several
+   * cohorts. All cohorts share the same frequency scale.
+   *
+   * @param annotation
+   * @param names The name of each cohort.
+   * @param gainColor
+   * @param lossColor
+   * @param frequencies The frequency profiles of each cohort.
+   * @param progress
+   */
+  public CytobandsFigure(final GenomeAnnotation annotation,
+      final String[] names,
+      final Color gainColor,
+      final Color lossColor,
+      final FrequencyLayout[] frequencies,
+      IdeogramProgress progress) {
+    this(annotation, names, gainColor,
+        Collections.<Map<Chromosome, SegmentView>>nCopies(frequencies.length,
+            Collections.<Chromosome, SegmentView>emptyMap()),
+        lossColor,
+        Collections.<Map<Chromosome, SegmentView>>nCopies(frequencies.length,
+            Collections.<Chromosome, SegmentView>emptyMap()),
+        frequencies, null, progress);
+  }
 
-      createGainPlot(cytobands,
-          genome,
-          chr,
-          maxLength,
-          gainColor,
-          matrixMapGain);
+  /**
+   * Create the figure for one or more cohorts.
+   *
+   * @param annotation
+   * @param names The name of each cohort or null if there is only one.
+   * @param gainColor
+   * @param matrixMapGains The gains of each cohort.
+   * @param lossColor
+   * @param matrixMapLosses The losses of each cohort.
+   * @param frequencies If not null, the gains and losses of each cohort are
+   *          drawn as frequency profiles rather than as segments.
+   * @param index
+   * @param progress
+   */
+  private CytobandsFigure(final GenomeAnnotation annotation,
+      final String[] names,
+      final Color gainColor,
+      final List<Map<Chromosome, SegmentView>> matrixMapGains,
+      final Color lossColor,
+      final List<Map<Chromosome, SegmentView>> matrixMapLosses,
+      final FrequencyLayout[] frequencies,
+      final SegmentIndex index,
+      IdeogramProgress progress) {
+    super("Cytobands Figure",
+        new PlotBoxGridLayout((2 * matrixMapGains.size() + 1)
+            * getRowCount(annotation.getChromosomes().length), COLUMNS));
+
+    mAnnotation = annotation;
+    mIndex = index;
+
+    int cohorts = matrixMapGains.size();
+
+    if (frequencies != null) {
+      // Use the same scale for every chromosome and cohort so they can be
+      // compared
+      double max = 0;
+
+      for (FrequencyLayout layout : frequencies) {
+        for (FrequencyProfile profile : layout.getGains().values()) {
+          max = Math.max(max, profile.getMaxFrequency());
+        }
+
+        for (FrequencyProfile profile : layout.getLosses().values()) {
+          max = Math.max(max, profile.getMaxFrequency());
+        }
+      }
+
+      if (max > 0) {
+        mMaxFrequency = max;
+      }
+    }
+
+    // lets see which genome is longest
+
+    int maxLength = annotation.getMaxSize();
+
+    Chromosome[][] rows = packRows(annotation);
+
+    int done = 0;
+
+    for (Chromosome[] row : rows) {
+      if (progress.isCancelled()) {
+        throw new CancellationException();
+      }
 
       //
-      // Cytobands
+      // Gains, with the first cohort nearest the bands so the gains and
+      // losses of each cohort mirror each other
       //
 
-      chr = Human.CHROMOSOMES[i];
+      for (int k = cohorts - 1; k >= 0; --k) {
+        for (int c = 0; c < COLUMNS; ++c) {
+          if (c < row.length) {
+            createGainPlot(row[c],
+                maxLength,
+                gainColor,
+                matrixMapGains.get(k),
+                frequencies != null ? frequencies[k] : null,
+                names != null ? names[k] : null);
+          } else {
+            newSubFigure();
+          }
+        }
+      }
 
-      createBands(cytobands, genome, chr, maxLength);
-
-      chr = Human.CHROMOSOMES[i + 12];
+      //
+      // Cytobands
+      //
 
-      createBands(cytobands, genome, chr, maxLength);
+      for (int c = 0; c < COLUMNS; ++c) {
+        if (c < row.length) {
+          createBands(row[c], maxLength);
+        } else {
+          newSubFigure();
+        }
+      }
 
       //
       // Losses
       //
 
-      chr = Human.CHROMOSOMES[i];
+      for (int k = 0; k < cohorts; ++k) {
+        for (int c = 0; c < COLUMNS; ++c) {
+          if (c < row.length) {
+            createLossPlot(row[c],
+                maxLength,
+                lossColor,
+                matrixMapLosses.get(k),
+                frequencies != null ? frequencies[k] : null,
+                names != null ? names[k] : null,
+                k == cohorts - 1);
+          } else {
+            newSubFigure();
+          }
+        }
+      }
+
+      for (Chromosome chr : row) {
+        progress.progress(IdeogramStage.FIGURE,
+            chr,
+            ++done,
+            annotation.getChromosomes().length);
+      }
+    }
+  }
 
-      createLossPlot(cytobands,
-          genome,
-          chr,
-          maxLength,
-          lossColor,
-          matrixMapLoss);
+  /**
+   * Returns the segment index or null if the figure is not queryable.
+   * 
+   * @return
+   */
+  public SegmentIndex getIndex() {
+    return mIndex;
+  }
+
+  /**
+   * Returns the query layer of each gain and loss track.
+   * 
+   * @return
+   */
+  public List<SegmentQueryLayer> getQueryLayers() {
+    return Collections.unmodifiableList(mQueryLayers);
+  }
 
-      chr = Human.CHROMOSOMES[i + 12];
+  /**
+   * Release the cached images of the tracks once the figure is no longer
+   * shown, for example when its window closes.
+   */
+  public void dispose() {
+    for (CachedTrackLayer track : mTracks) {
+      track.dispose();
+    }
+  }
 
-      createLossPlot(cytobands,
-          genome,
-          chr,
-          maxLength,
-          lossColor,
-          matrixMapLoss);
+  /**
+   * Color the cytobands by how often each band is gained or lost.
+   * 
+   * @param frequencies
+   * @param gainColor
+   * @param lossColor
+   */
+  public void setBandHeatmap(final BandFrequencies frequencies,
+      Color gainColor,
+      Color lossColor) {
+    for (Chromosome chr : mBandAxes.keySet()) {
+      mBandAxes.get(chr).addChild(
+          new BandHeatmapLayer(frequencies, chr, gainColor, lossColor));
+    }
+  }
+
+  private void addQueryLayer(Axes axes,
+      Chromosome chr,
+      boolean gain,
+      double yMin,
+      double yMax) {
+    if (mIndex == null) {
+      return;
+    }
+
+    SegmentQueryLayer layer = new SegmentQueryLayer(chr, gain,
+        mAnnotation.getSize(chr), yMin, yMax);
+
+    axes.addChild(layer);
+
+    mQueryLayers.add(layer);
+  }
+
+  private static List<Map<Chromosome, SegmentView>> gains(
+      final SegmentLayout[] layouts) {
+    List<Map<Chromosome, SegmentView>> gains = new ArrayList<Map<Chromosome, SegmentView>>(
+        layouts.length);
+
+    for (SegmentLayout layout : layouts) {
+      gains.add(layout.getGains());
+    }
+
+    return gains;
+  }
+
+  private static List<Map<Chromosome, SegmentView>> losses(
+      final SegmentLayout[] layouts) {
+    List<Map<Chromosome, SegmentView>> losses = new ArrayList<Map<Chromosome, SegmentView>>(
+        layouts.length);
+
+    for (SegmentLayout layout : layouts) {
+      losses.add(layout.getLosses());
+    }
+
+    return losses;
+  }
+
+  private static int getRowCount(int chromosomes) {
+    return Math.max(1, (chromosomes + COLUMNS - 1) / COLUMNS);
+  }
+
+  /**
+   * Arrange the chromosomes of a genome into rows of at most COLUMNS
+   * chromosomes so that the total length of each row is as even as
+   * possible. Chromosomes are placed longest first, each into the row with
+   * the least total length that still has a free column. Rows and the
+   * chromosomes within them are then put back into karyotype order.
+   * 
+   * @param annotation
+   * @return
+   */
+  static Chromosome[][] packRows(final GenomeAnnotation annotation) {
+    final Chromosome[] chromosomes = annotation.getChromosomes();
+
+    int n = chromosomes.length;
+    int rowCount = getRowCount(n);
+
+    // Sort by length, longest first, keeping karyotype order for ties
+    long[] keys = new long[n];
+
+    for (int i = 0; i < n; ++i) {
+      keys[i] = (-(long) annotation.getSize(chromosomes[i]) << 32) | i;
+    }
+
+    Arrays.sort(keys);
+
+    long[] rowLength = new long[rowCount];
+    int[] rowSize = new int[rowCount];
+    int[] rowOf = new int[n];
+
+    for (long key : keys) {
+      int i = (int) key;
+
+      int best = -1;
+
+      for (int r = 0; r < rowCount; ++r) {
+        if (rowSize[r] < COLUMNS
+            && (best == -1 || rowLength[r] < rowLength[best])) {
+          best = r;
+        }
+      }
+
+      rowOf[i] = best;
+      rowLength[best] += annotation.getSize(chromosomes[i]);
+      ++rowSize[best];
     }
+
+    // Visiting chromosomes in karyotype order keeps both the rows and their
+    // contents in karyotype order.
+
+    int[] rowOrder = new int[rowCount];
+    Arrays.fill(rowOrder, -1);
+
+    int nextRow = 0;
+
+    Chromosome[][] rows = new Chromosome[rowCount][];
+
+    for (int i = 0; i < n; ++i) {
+      int r = rowOf[i];
+
+      if (rowOrder[r] == -1) {
+        rowOrder[r] = nextRow;
+        rows[nextRow] = new Chromosome[rowSize[r]];
+        rowSize[r] = 0;
+        ++nextRow;
+      }
+
+      rows[rowOrder[r]][rowSize[r]++] = chromosomes[i];
+    }
+
+    // Rows left empty when there are fewer chromosomes than rows
+    for (int r = nextRow; r < rowCount; ++r) {
+      rows[r] = new Chromosome[0];
+    }
+
+    return rows;
   }
 
-  private void createGainPlot(final Cytobands cytobands,
-      final Genome genome,
-      final Chromosome chr,
+  private void createGainPlot(final Chromosome chr,
       int maxLength,
       final Color gainColor,
-      final Map<Chromosome, DataFrame> matrixMap) {
+      final Map<Chromosome, SegmentView> matrixMap,
+      final FrequencyLayout frequencies,
+      final String name) {
+
+    if (frequencies != null) {
+      axes = createFrequencyPlot(chr,
+          maxLength,
+          frequencies.getGains().get(chr),
+          gainColor,
+          true);
+
+      addCohortLabel(axes, name, 0);
+
+      return;
+    }
+
+    SegmentView m = matrixMap.get(chr);
 
-    DataFrame m = matrixMap.get(chr);
+    double max = m != null ? m.getMaxY() + 1 : 1;
 
     axes = createPlot("Gains",
-        cytobands,
-        genome,
         chr,
         maxLength,
         matrixMap,
         gainColor,
-        FigureVertAlignment.BOTTOM);
+        FigureVertAlignment.BOTTOM,
+        0,
+        max);
 
-    if (matrixMap.containsKey(chr)) {
-      axes.getY1Axis().setLimits(0, DoubleMatrix.maxInColumn(m, 1) + 1);
-    }
+    addQueryLayer(axes, chr, true, 0, max);
+
+    addCohortLabel(axes, name, 0);
 
     // axes.getTitle().setText(chr.toString());
     // axes.getMargins().setTop(0);
     // axes.getMargins().setBottom(OFFSET);
   }
 
-  private void createLossPlot(final Cytobands cytobands,
-      final Genome genome,
-      final Chromosome chr,
+  private void createLossPlot(final Chromosome chr,
       int maxLength,
       final Color lossColor,
-      final Map<Chromosome, DataFrame> matrixMap) {
+      final Map<Chromosome, SegmentView> matrixMap,
+      final FrequencyLayout frequencies,
+      final String name,
+      boolean last) {
+
+    if (frequencies != null) {
+      axes = createFrequencyPlot(chr,
+          maxLength,
+          frequencies.getLosses().get(chr),
+          lossColor,
+          false);
+
+      addCohortLabel(axes, name, -mMaxFrequency);
 
-    DataFrame m = matrixMap.get(chr);
+      if (last) {
+        axes.setBottomMargin(OFFSET);
+      }
+
+      return;
+    }
+
+    SegmentView m = matrixMap.get(chr);
+
+    double min = m != null ? m.getMinY() - 1 : -1;
 
     axes = createPlot("Losses",
-        cytobands,
-        genome,
         chr,
         maxLength,
         matrixMap,
         lossColor,
-        FigureVertAlignment.TOP);
+        FigureVertAlignment.TOP,
+        min,
+        0);
+
+    addQueryLayer(axes, chr, false, min, 0);
+
+    addCohortLabel(axes, name, min);
 
     // Axes.enableAllFeatures(axes);
 
-    if (matrixMap.containsKey(chr)) {
-      axes.getY1Axis().setLimits(DoubleMatrix.minInColumn(m, 1) - 1, 0);
+    // axes.getMargins().setTop(OFFSET);
+
+    // Only the outermost losses are separated from the next row
+    if (last) {
+      axes.setBottomMargin(OFFSET);
     }
+  }
 
-    // axes.getMargins().setTop(OFFSET);
-    axes.setBottomMargin(OFFSET);
+  /**
+   * Label a cohort track in the left margin when comparing cohorts.
+   * 
+   * @param axes
+   * @param name The cohort name or null if there is only one cohort.
+   * @param y Where to place the label.
+   */
+  private static void addCohortLabel(Axes axes, String name, double y) {
+    if (name != null) {
+      axes.addChild(new LabelAxesLayer(name, 0, y, -60, -5));
+    }
   }
 
   private Axes createPlot(String name,
-      Cytobands cytobands,
-      Genome genome,
       Chromosome chr,
       int maxLength,
-      Map<Chromosome, DataFrame> matrixMap,
-      Color color,
-      FigureVertAlignment alignment) {
+      Map<Chromosome, SegmentView> matrixMap,
+      final Color color,
+      FigureVertAlignment alignment,
+      double yMin,
+      double yMax) {
 
-    int size = ChromosomeService.getInstance().size(genome, chr);
+    int size = mAnnotation.getSize(chr);
 
     //
     // Gains
@@ -231,19 +685,23 @@ public class CytobandsFigure extends Figure {
     Axes axes = subFigure.newAxes();
 
     if (matrixMap.containsKey(chr)) {
-      DataFrame m = matrixMap.get(chr);
-
-      XYSeries series = new XYSeries(name);
-
-      series.getStyle().getFillStyle().setColor(color);
-      series.getStyle().getLineStyle().setColor(color);
-      series.getStyle().getLineStyle().setStroke(2);
-
-      PlotFactory.createSegmentsPlot(m, axes, series);
+      final SegmentView m = matrixMap.get(chr);
+
+      // Segments are coalesced to the pixel scale when drawn so dense
+      // tracks do not paint thousands of overlapping sub-pixel lines. The
+      // track is cached as an image since it does not change between
+      // repaints.
+      axes.addChild(createTrack(new TrackLayerFactory() {
+        @Override
+        public AxesClippedLayer create() {
+          return new SegmentsLayer(m, color);
+        }
+      }, m.getTrack(), color, size, yMin, yMax));
 
       axes.getX1Axis().setLimits(0, size);
+      axes.getY1Axis().setLimits(yMin, yMax);
 
-      int h = getUniqueY(m);
+      int h = m.getLaneCount();
 
       axes.setInternalSize((int) (PLOT_WIDTH * (double) size / maxLength),
           PLOT_ROW_HEIGHT * h);
@@ -254,7 +712,7 @@ public class CytobandsFigure extends Figure {
 
     Axes.disableAllFeatures(axes);
 
-    axes.setMargins(0, 100, 0, OFFSET);
+    axes.setMargins(0, LEFT_MARGIN, 0, OFFSET);
 
     // getSubFigureZModel().setZ(figure);
 
@@ -262,27 +720,79 @@ public class CytobandsFigure extends Figure {
   }
 
   /**
-   * See how many unique y's and therefore rows we need.
-   * 
-   * @param m
-   * @return
+   * Create a fixed height plot of a frequency profile. Gains are aligned to
+   * the bottom of their subfigure and losses to the top so both sit against
+   * the cytobands.
    */
-  private static int getUniqueY(final DataFrame m) {
-    Set<Double> set = new HashSet<Double>();
+  private Axes createFrequencyPlot(Chromosome chr,
+      int maxLength,
+      final FrequencyProfile profile,
+      final Color color,
+      final boolean gain) {
+    int size = mAnnotation.getSize(chr);
+
+    SubFigure subFigure = newSubFigure();
+
+    subFigure.setVertAlignment(
+        gain ? FigureVertAlignment.BOTTOM : FigureVertAlignment.TOP);
+
+    Axes axes = subFigure.newAxes();
+
+    double yMin = gain ? 0 : -mMaxFrequency;
+    double yMax = gain ? mMaxFrequency : 0;
+
+    if (profile != null) {
+      axes.addChild(createTrack(new TrackLayerFactory() {
+        @Override
+        public AxesClippedLayer create() {
+          return new FrequencyLayer(profile, color, gain);
+        }
+      }, profile, color, size, yMin, yMax));
+    }
+
+    axes.getX1Axis().setLimits(0, size);
+    axes.getY1Axis().setLimits(yMin, yMax);
+
+    addQueryLayer(axes, chr, gain, yMin, yMax);
+
+    axes.setInternalSize((int) (PLOT_WIDTH * (double) size / maxLength),
+        FREQUENCY_HEIGHT);
 
-    for (int i = 0; i < m.getRows(); ++i) {
-      set.add(m.getValue(i, 1));
+    Axes.disableAllFeatures(axes);
+
+    axes.setMargins(0, LEFT_MARGIN, 0, OFFSET);
+
+    return axes;
+  }
+
+  /**
+   * Wrap the layer of a track so it is drawn from a cached image. In virtual
+   * mode the layer is only built once the track is drawn.
+   */
+  private CachedTrackLayer createTrack(TrackLayerFactory factory,
+      Object track,
+      Color color,
+      int size,
+      double yMin,
+      double yMax) {
+    CachedTrackLayer layer;
+
+    if (VIRTUAL) {
+      layer = new CachedTrackLayer(factory, track, color, 0, size, yMin,
+          yMax);
+    } else {
+      layer = new CachedTrackLayer(factory.create(), track, color, 0, size,
+          yMin, yMax);
     }
 
-    return set.size();
+    mTracks.add(layer);
+
+    return layer;
   }
 
-  private void createBands(Cytobands cytobands,
-      Genome genome,
-      Chromosome chr,
-      int maxLength) {
+  private void createBands(final Chromosome chr, int maxLength) {
 
-    int size = ChromosomeService.getInstance().size(genome, chr);
+    int size = mAnnotation.getSize(chr);
 
     //
     // Cytobands
@@ -292,16 +802,26 @@ public class CytobandsFigure extends Figure {
 
     Axes axes = figure.newAxes();
 
-    CytobandsLayer layer = new CytobandsLayer(cytobands);
+    // Bands never change so every figure of a genome shares the same cached
+    // images
+    CachedTrackLayer layer = createTrack(new TrackLayerFactory() {
+      @Override
+      public AxesClippedLayer create() {
+        return new BandsLayer(mAnnotation, chr);
+      }
+    }, mAnnotation.getGenome().getAssembly() + ":" + chr, null, size, 0, 1);
 
     axes.addChild(layer);
     axes.getX1Axis().setLimits(0, size);
     axes.getY1Axis().setLimits(0, 1);
-    axes.setMargins(0, 100, 0, OFFSET);
+    axes.setMargins(0, LEFT_MARGIN, 0, OFFSET);
 
     axes.addChild(new LabelAxesLayer(chr.toString(), 0, 0, -60, -5));
 
-    axes.setInternalSize((int) (PLOT_WIDTH * (double) size / maxLength), 24);
+    mBandAxes.put(chr, axes);
+
+    axes.setInternalSize((int) (PLOT_WIDTH * (double) size / maxLength),
+        BAND_HEIGHT);
 
     Axes.disableAllFeatures(axes);
 
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.GeneralPath;
+
+import org.jebtk.graphplot.figure.Axes;
+import org.jebtk.graphplot.figure.AxesClippedLayer;
+import org.jebtk.graphplot.figure.Figure;
+import org.jebtk.graphplot.figure.SubFigure;
+import org.jebtk.modern.graphics.DrawingContext;
+
+/**
+ * Draws a frequency profile as a filled area. Gains are drawn upwards from
+ * zero and losses downwards.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class FrequencyLayer extends AxesClippedLayer {
+
+  private final FrequencyProfile mProfile;
+  private final Color mColor;
+  private final int mSign;
+
+  public FrequencyLayer(FrequencyProfile profile, Color color, boolean gain) {
+    mProfile = profile;
+    mColor = color;
+    mSign = gain ? 1 : -1;
+  }
+
+  @Override
+  public void plotClipped(Graphics2D g2,
+      DrawingContext context,
+      Figure figure,
+      SubFigure subFigure,
+      Axes axes) {
+    int steps = mProfile.getStepCount();
+
+    if (steps == 0) {
+      return;
+    }
+
+    int y0 = axes.toPlotY1(0);
+
+    GeneralPath path = new GeneralPath();
+
+    path.moveTo(axes.toPlotX1(mProfile.getPosition(0)), y0);
+
+    for (int k = 0; k < steps - 1; ++k) {
+      int y = axes.toPlotY1(mSign * mProfile.getFrequency(k));
+
+      path.lineTo(axes.toPlotX1(mProfile.getPosition(k)), y);
+      path.lineTo(axes.toPlotX1(mProfile.getPosition(k + 1)), y);
+    }
+
+    path.lineTo(axes.toPlotX1(mProfile.getPosition(steps - 1)), y0);
+    path.closePath();
+
+    g2.setColor(mColor);
+    g2.fill(path);
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+
+/**
+ * The per chromosome gain and loss frequency profiles of a cohort, used to
+ * draw aggregated tracks instead of individual segments.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class FrequencyLayout {
+  private final Map<Chromosome, FrequencyProfile> mGains = new HashMap<Chromosome, FrequencyProfile>();
+
+  private final Map<Chromosome, FrequencyProfile> mLosses = new HashMap<Chromosome, FrequencyProfile>();
+
+  void setGains(Chromosome chr, FrequencyProfile profile) {
+    mGains.put(chr, profile);
+  }
+
+  void setLosses(Chromosome chr, FrequencyProfile profile) {
+    mLosses.put(chr, profile);
+  }
+
+  public Map<Chromosome, FrequencyProfile> getGains() {
+    return mGains;
+  }
+
+  public Map<Chromosome, FrequencyProfile> getLosses() {
+    return mLosses;
+  }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.Arrays;
+
+/**
+ * Step function giving how many samples have a gain (or loss) covering
+ * each position of a chromosome. Step k covers
+ * [getPosition(k), getPosition(k + 1)) and the last step, which always has
+ * a count of zero, runs to the end of the chromosome.
+ * 
+ * The segments of each sample are merged into their union before the sweep
+ * so a sample with overlapping or duplicated segments is counted once. The
+ * count is therefore the number of samples with a gain (or loss) at a
+ * position and dividing by the cohort size gives the frequency, as
+ * {@link BandFrequencies} counts each sample once per band.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class FrequencyProfile {
+  private final int[] mPositions;
+  private final int[] mCounts;
+  private final int mSamples;
+  private final int mMaxCount;
+
+  private FrequencyProfile(int[] positions, int[] counts, int samples) {
+    mPositions = positions;
+    mCounts = counts;
+    mSamples = Math.max(1, samples);
+
+    int max = 0;
+
+    for (int c : counts) {
+      max = Math.max(max, c);
+    }
+
+    mMaxCount = max;
+  }
+
+  public int getStepCount() {
+    return mPositions.length;
+  }
+
+  public int getPosition(int k) {
+    return mPositions[k];
+  }
+
+  public int getCount(int k) {
+    return mCounts[k];
+  }
+
+  /**
+   * Returns the fraction of samples covered by step k.
+   * 
+   * @param k
+   * @return
+   */
+  public double getFrequency(int k) {
+    return (double) mCounts[k] / mSamples;
+  }
+
+  public double getMaxFrequency() {
+    return (double) mMaxCount / mSamples;
+  }
+
+  /**
+   * Sweep over the segments of a partition, counting each sample at most
+   * once at any position.
+   * 
+   * @param sampleIds The sample code of each segment.
+   * @param starts Segment starts, overwritten with the union of each sample.
+   * @param ends Segment ends (inclusive), overwritten likewise.
+   * @param n The number of segments.
+   * @param samples The number of samples in the cohort.
+   * @return
+   */
+  public static FrequencyProfile sweep(int[] sampleIds,
+      int[] starts,
+      int[] ends,
+      int n,
+      int samples) {
+    return sweep(starts, ends, union(sampleIds, starts, ends, n, samples),
+        samples);
+  }
+
+  /**
+   * Replace the segments of each sample by their union. Segments are
+   * grouped by sample with a counting sort and each group is merged in
+   * start order.
+   * 
+   * @param sampleIds
+   * @param starts
+   * @param ends
+   * @param n
+   * @param samples
+   * @return The number of merged segments, which are written to the front
+   *         of starts and ends.
+   */
+  static int union(int[] sampleIds,
+      int[] starts,
+      int[] ends,
+      int n,
+      int samples) {
+    int[] offsets = new int[samples + 1];
+
+    for (int i = 0; i < n; ++i) {
+      ++offsets[sampleIds[i] + 1];
+    }
+
+    for (int s = 0; s < samples; ++s) {
+      offsets[s + 1] += offsets[s];
+    }
+
+    // Segment starts packed with their index so sorting orders by start
+    long[] keys = new long[n];
+    int[] next = Arrays.copyOf(offsets, samples);
+
+    for (int i = 0; i < n; ++i) {
+      keys[next[sampleIds[i]]++] = ((long) starts[i] << 32) | i;
+    }
+
+    int[] sourceEnds = Arrays.copyOf(ends, n);
+
+    int m = 0;
+
+    for (int s = 0; s < samples; ++s) {
+      int b = offsets[s];
+      int e = offsets[s + 1];
+
+      if (b == e) {
+        continue;
+      }
+
+      Arrays.sort(keys, b, e);
+
+      int start = (int) (keys[b] >> 32);
+      int end = sourceEnds[(int) keys[b]];
+
+      for (int k = b + 1; k < e; ++k) {
+        int nextStart = (int) (keys[k] >> 32);
+        int nextEnd = sourceEnds[(int) keys[k]];
+
+        if (nextStart <= end) {
+          end = Math.max(end, nextEnd);
+        } else {
+          starts[m] = start;
+          ends[m++] = end;
+
+          start = nextStart;
+          end = nextEnd;
+        }
+      }
+
+      starts[m] = start;
+      ends[m++] = end;
+    }
+
+    return m;
+  }
+
+  /**
+   * Sweep over the sorted breakpoints of a set of segments. The start and
+   * end arrays are sorted in place and the sweep itself allocates only the
+   * output steps, so a profile costs O(n log n) time for n segments and
+   * has O(breakpoints) steps.
+   * 
+   * @param starts Segment starts.
+   * @param ends Segment ends (inclusive).
+   * @param n The number of segments.
+   * @param samples The number of samples in the cohort.
+   * @return
+   */
+  public static FrequencyProfile sweep(int[] starts,
+      int[] ends,
+      int n,
+      int samples) {
+    Arrays.sort(starts, 0, n);
+    Arrays.sort(ends, 0, n);
+
+    int[] positions = new int[2 * n];
+    int[] counts = new int[2 * n];
+
+    int steps = 0;
+    int depth = 0;
+    int i = 0;
+    int j = 0;
+
+    while (i < n || j < n) {
+      // Ends are inclusive so coverage drops at the base after the end
+      int pos = j < n ? ends[j] + 1 : Integer.MAX_VALUE;
+
+      if (i < n) {
+        pos = Math.min(pos, starts[i]);
+      }
+
+      while (i < n && starts[i] == pos) {
+        ++depth;
+        ++i;
+      }
+
+      while (j < n && ends[j] + 1 == pos) {
+        --depth;
+        ++j;
+      }
+
+      // Merge breakpoints that do not change the coverage
+      if (steps > 0 && counts[steps - 1] == depth) {
+        continue;
+      }
+
+      positions[steps] = pos;
+      counts[steps] = depth;
+      ++steps;
+    }
+
+    return new FrequencyProfile(Arrays.copyOf(positions, steps),
+        Arrays.copyOf(counts, steps), samples);
+  }
+}
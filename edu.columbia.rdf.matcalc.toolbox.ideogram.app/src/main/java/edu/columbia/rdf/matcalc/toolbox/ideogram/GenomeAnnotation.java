@@ -0,0 +1,273 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.jebtk.bioinformatics.ext.ucsc.Cytobands;
+import org.jebtk.bioinformatics.ext.ucsc.CytobandsService;
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.ChromosomeService;
+import org.jebtk.bioinformatics.genomic.Genome;
+
+/**
+ * The parsed cytobands and chromosome sizes of a genome. Instances are
+ * created and shared by {@link GenomeAnnotationCache}.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class GenomeAnnotation {
+  private final Genome mGenome;
+
+  private final String[] mChrNames;
+  private final int[] mChrSizes;
+
+  private final Map<String, Integer> mSizeMap = new HashMap<String, Integer>();
+
+  private final String mBandHeader;
+  private final String[] mBandChrs;
+  private final int[] mBandStarts;
+  private final int[] mBandEnds;
+  private final String[] mBandNames;
+  private final String[] mBandStains;
+
+  private Cytobands mCytobands;
+
+  private Chromosome[] mChromosomes;
+
+  private final Map<Chromosome, Integer> mChrSizeMap = new HashMap<Chromosome, Integer>();
+
+  GenomeAnnotation(Genome genome, String[] chrNames, int[] chrSizes,
+      String bandHeader, String[] bandChrs, int[] bandStarts, int[] bandEnds,
+      String[] bandNames, String[] bandStains) {
+    mGenome = genome;
+    mChrNames = chrNames;
+    mChrSizes = chrSizes;
+    mBandHeader = bandHeader;
+    mBandChrs = bandChrs;
+    mBandStarts = bandStarts;
+    mBandEnds = bandEnds;
+    mBandNames = bandNames;
+    mBandStains = bandStains;
+
+    for (int i = 0; i < chrNames.length; ++i) {
+      mSizeMap.put(chrNames[i], chrSizes[i]);
+    }
+  }
+
+  public Genome getGenome() {
+    return mGenome;
+  }
+
+  /**
+   * Returns the number of chromosomes in the chromosome sizes file.
+   * 
+   * @return
+   */
+  public int getChromosomeCount() {
+    return mChrNames.length;
+  }
+
+  public String getChromosomeName(int i) {
+    return mChrNames[i];
+  }
+
+  public int getChromosomeSize(int i) {
+    return mChrSizes[i];
+  }
+
+  /**
+   * Returns the size of a chromosome or -1 if the chromosome is not in the
+   * chromosome sizes file.
+   * 
+   * @param chr The chromosome name, e.g. chr1.
+   * @return
+   */
+  public int getSize(String chr) {
+    Integer size = mSizeMap.get(chr);
+
+    return size != null ? size : -1;
+  }
+
+  /**
+   * Returns the chromosomes to draw in karyotype order. These are the
+   * chromosomes in the chromosome sizes file that have cytobands, which
+   * excludes unplaced contigs and alternate haplotypes. If the genome has no
+   * cytobands, every chromosome in the sizes file is used and if there is
+   * no sizes file, chromosome sizes are taken from the cytobands.
+   * 
+   * @return
+   */
+  public synchronized Chromosome[] getChromosomes() {
+    if (mChromosomes == null) {
+      Map<String, Integer> sizes = new HashMap<String, Integer>(mSizeMap);
+
+      if (sizes.isEmpty()) {
+        for (int i = 0; i < mBandChrs.length; ++i) {
+          Integer size = sizes.get(mBandChrs[i]);
+
+          if (size == null || size < mBandEnds[i]) {
+            sizes.put(mBandChrs[i], mBandEnds[i]);
+          }
+        }
+      }
+
+      Set<String> banded = new HashSet<String>(Arrays.asList(mBandChrs));
+
+      List<Chromosome> chrs = new ArrayList<Chromosome>(sizes.size());
+
+      for (String name : sizes.keySet()) {
+        if (!banded.isEmpty() && !banded.contains(name)) {
+          continue;
+        }
+
+        Chromosome chr = ChromosomeService.getInstance().chr(mGenome, name);
+
+        chrs.add(chr);
+        mChrSizeMap.put(chr, sizes.get(name));
+      }
+
+      Collections.sort(chrs);
+
+      mChromosomes = chrs.toArray(new Chromosome[chrs.size()]);
+    }
+
+    return mChromosomes;
+  }
+
+  /**
+   * Returns the size of one of the chromosomes returned by
+   * {@link #getChromosomes()} or -1 if the chromosome is not part of the
+   * genome.
+   * 
+   * @param chr
+   * @return
+   */
+  public int getSize(Chromosome chr) {
+    getChromosomes();
+
+    Integer size = mChrSizeMap.get(chr);
+
+    return size != null ? size : -1;
+  }
+
+  /**
+   * Returns the length of the longest chromosome.
+   * 
+   * @return
+   */
+  public int getMaxSize() {
+    int max = 0;
+
+    for (Chromosome chr : getChromosomes()) {
+      max = Math.max(max, getSize(chr));
+    }
+
+    return max;
+  }
+
+  public int getBandCount() {
+    return mBandStarts.length;
+  }
+
+  public String getBandChr(int i) {
+    return mBandChrs[i];
+  }
+
+  public int getBandStart(int i) {
+    return mBandStarts[i];
+  }
+
+  public int getBandEnd(int i) {
+    return mBandEnds[i];
+  }
+
+  public String getBandName(int i) {
+    return mBandNames[i];
+  }
+
+  public String getBandStain(int i) {
+    return mBandStains[i];
+  }
+
+  String getBandHeader() {
+    return mBandHeader;
+  }
+
+  /**
+   * Returns the bands as a cytobands object for code that needs one. The
+   * ideogram itself draws the band columns directly, so the bands are only
+   * loaded into the cytobands service the first time this is called.
+   * 
+   * @return
+   * @throws IOException
+   */
+  public synchronized Cytobands getCytobands() throws IOException {
+    if (mCytobands == null) {
+      CytobandsService.getInstance().load(mGenome, toReader());
+
+      mCytobands = CytobandsService.getInstance().getCytobands(mGenome);
+    }
+
+    return mCytobands;
+  }
+
+  /**
+   * Recreate the cytobands text so that it can be loaded by the cytobands
+   * service.
+   * 
+   * @return
+   */
+  private BufferedReader toReader() {
+    StringBuilder buffer = new StringBuilder();
+
+    if (mBandHeader != null) {
+      buffer.append(mBandHeader).append('\n');
+    }
+
+    for (int i = 0; i < mBandStarts.length; ++i) {
+      buffer.append(mBandChrs[i]).append('\t').append(mBandStarts[i])
+          .append('\t').append(mBandEnds[i]).append('\t')
+          .append(mBandNames[i]).append('\t').append(mBandStains[i])
+          .append('\n');
+    }
+
+    return new BufferedReader(new StringReader(buffer.toString()));
+  }
+}
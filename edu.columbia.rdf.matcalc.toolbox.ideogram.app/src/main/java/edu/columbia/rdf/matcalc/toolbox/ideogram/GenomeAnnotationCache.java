@@ -0,0 +1,454 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.core.Resources;
+
+/**
+ * Caches the parsed cytobands and chromosome sizes of each genome so that the
+ * gzipped annotation files are only parsed once. Entries are keyed by the
+ * path of the cytobands file and are reloaded if either annotation file is
+ * modified.
+ * 
+ * A compact binary copy of the annotation is written next to the gzip files
+ * the first time they are parsed. Later runs memory map the binary copy
+ * instead of decompressing and parsing the text.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class GenomeAnnotationCache {
+  private static class GenomeAnnotationCacheLoader {
+    private static final GenomeAnnotationCache INSTANCE = new GenomeAnnotationCache();
+  }
+
+  public static GenomeAnnotationCache getInstance() {
+    return GenomeAnnotationCacheLoader.INSTANCE;
+  }
+
+  /**
+   * Identifies binary annotation files ("IDGA").
+   */
+  private static final int MAGIC = 0x49444741;
+
+  private static final int VERSION = 1;
+
+  private static class Entry {
+    private final long mCytobandsModified;
+    private final long mSizesModified;
+    private final GenomeAnnotation mAnnotation;
+
+    public Entry(long cytobandsModified, long sizesModified,
+        GenomeAnnotation annotation) {
+      mCytobandsModified = cytobandsModified;
+      mSizesModified = sizesModified;
+      mAnnotation = annotation;
+    }
+  }
+
+  private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+  private final AtomicLong mHits = new AtomicLong(0);
+  private final AtomicLong mMisses = new AtomicLong(0);
+  private final AtomicLong mBinaryLoads = new AtomicLong(0);
+  private final AtomicLong mLoadTime = new AtomicLong(0);
+
+  private GenomeAnnotationCache() {
+    // Do nothing
+  }
+
+  /**
+   * Returns the annotation of a genome, parsing it only if it is not cached
+   * or the annotation files have changed since it was cached.
+   * 
+   * @param genome
+   * @return
+   * @throws IOException
+   */
+  public synchronized GenomeAnnotation get(Genome genome) throws IOException {
+    File dir = new File(IdeogramModule.RES_DIR, genome.getAssembly());
+
+    File cytobandsFile = GenomeCatalog.getCytobandsFile(dir,
+        genome.toString());
+    File sizesFile = GenomeCatalog.getSizesFile(dir, genome.toString());
+
+    String key = cytobandsFile.getAbsolutePath();
+
+    long cytobandsModified = cytobandsFile.lastModified();
+    long sizesModified = sizesFile.lastModified();
+
+    Entry entry = mEntries.get(key);
+
+    if (entry != null && entry.mCytobandsModified == cytobandsModified
+        && entry.mSizesModified == sizesModified) {
+      mHits.incrementAndGet();
+
+      return entry.mAnnotation;
+    }
+
+    mMisses.incrementAndGet();
+
+    long start = System.nanoTime();
+
+    File binFile = new File(dir, "ucsc_cytobands_" + genome + ".bin");
+
+    GenomeAnnotation annotation = readBinary(genome,
+        binFile,
+        cytobandsModified,
+        sizesModified);
+
+    if (annotation != null) {
+      mBinaryLoads.incrementAndGet();
+    } else {
+      annotation = parse(genome, cytobandsFile, sizesFile);
+
+      try {
+        writeBinary(annotation, binFile, cytobandsModified, sizesModified);
+      } catch (IOException e) {
+        // The resource directory may be read only in which case the text
+        // files will be parsed again next session.
+        e.printStackTrace();
+      }
+    }
+
+    mLoadTime.addAndGet(System.nanoTime() - start);
+
+    mEntries.put(key,
+        new Entry(cytobandsModified, sizesModified, annotation));
+
+    return annotation;
+  }
+
+  /**
+   * Returns how many requests were served from memory.
+   * 
+   * @return
+   */
+  public long getHits() {
+    return mHits.get();
+  }
+
+  /**
+   * Returns how many requests had to load annotation from disk.
+   * 
+   * @return
+   */
+  public long getMisses() {
+    return mMisses.get();
+  }
+
+  /**
+   * Returns how many misses were loaded from a binary annotation file rather
+   * than by parsing the gzip files.
+   * 
+   * @return
+   */
+  public long getBinaryLoads() {
+    return mBinaryLoads.get();
+  }
+
+  /**
+   * Returns the total time in milliseconds spent loading annotation.
+   * 
+   * @return
+   */
+  public long getLoadTime() {
+    return mLoadTime.get() / 1000000;
+  }
+
+  /**
+   * Remove all cached annotation.
+   */
+  public synchronized void clear() {
+    mEntries.clear();
+  }
+
+  private static GenomeAnnotation parse(Genome genome,
+      File cytobandsFile,
+      File sizesFile) throws IOException {
+    List<String> chrNames = new ArrayList<String>();
+    List<Integer> chrSizes = new ArrayList<Integer>();
+
+    if (sizesFile.exists()) {
+      BufferedReader reader = Resources.getGzipReader(sizesFile);
+
+      try {
+        String line;
+
+        while ((line = reader.readLine()) != null) {
+          String[] tokens = line.split("\t");
+
+          // Skips the header
+          if (tokens.length < 2 || !isInt(tokens[1])) {
+            continue;
+          }
+
+          chrNames.add(tokens[0]);
+          chrSizes.add(Integer.parseInt(tokens[1]));
+        }
+      } finally {
+        reader.close();
+      }
+    }
+
+    String header = null;
+    List<String[]> bands = new ArrayList<String[]>();
+
+    BufferedReader reader = Resources.getGzipReader(cytobandsFile);
+
+    try {
+      String line;
+
+      while ((line = reader.readLine()) != null) {
+        String[] tokens = line.split("\t");
+
+        if (tokens.length < 5 || !isInt(tokens[1])) {
+          if (header == null) {
+            header = line;
+          }
+
+          continue;
+        }
+
+        bands.add(tokens);
+      }
+    } finally {
+      reader.close();
+    }
+
+    int n = bands.size();
+
+    String[] bandChrs = new String[n];
+    int[] bandStarts = new int[n];
+    int[] bandEnds = new int[n];
+    String[] bandNames = new String[n];
+    String[] bandStains = new String[n];
+
+    for (int i = 0; i < n; ++i) {
+      String[] tokens = bands.get(i);
+
+      bandChrs[i] = tokens[0].intern();
+      bandStarts[i] = Integer.parseInt(tokens[1]);
+      bandEnds[i] = Integer.parseInt(tokens[2]);
+      bandNames[i] = tokens[3];
+      bandStains[i] = tokens[4].intern();
+    }
+
+    return new GenomeAnnotation(genome,
+        chrNames.toArray(new String[chrNames.size()]), toArray(chrSizes),
+        header, bandChrs, bandStarts, bandEnds, bandNames, bandStains);
+  }
+
+  /**
+   * Write the annotation in binary form. The file is written to a temporary
+   * file first so a partially written file is never read, and the temporary
+   * file is removed if the write fails.
+   * 
+   * @param annotation
+   * @param file
+   * @param cytobandsModified
+   * @param sizesModified
+   * @throws IOException
+   */
+  private static void writeBinary(GenomeAnnotation annotation,
+      File file,
+      long cytobandsModified,
+      long sizesModified) throws IOException {
+    File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+
+    try {
+      DataOutputStream out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(tmp)));
+
+      try {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(cytobandsModified);
+        out.writeLong(sizesModified);
+
+        out.writeInt(annotation.getChromosomeCount());
+
+        for (int i = 0; i < annotation.getChromosomeCount(); ++i) {
+          writeString(out, annotation.getChromosomeName(i));
+          out.writeInt(annotation.getChromosomeSize(i));
+        }
+
+        writeString(out,
+            annotation.getBandHeader() != null ? annotation.getBandHeader()
+                : "");
+
+        out.writeInt(annotation.getBandCount());
+
+        for (int i = 0; i < annotation.getBandCount(); ++i) {
+          writeString(out, annotation.getBandChr(i));
+          out.writeInt(annotation.getBandStart(i));
+          out.writeInt(annotation.getBandEnd(i));
+          writeString(out, annotation.getBandName(i));
+          writeString(out, annotation.getBandStain(i));
+        }
+      } finally {
+        out.close();
+      }
+
+      Files.move(tmp.toPath(),
+          file.toPath(),
+          StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      // Only left behind if the write or move failed
+      Files.deleteIfExists(tmp.toPath());
+    }
+  }
+
+  /**
+   * Memory map a binary annotation file. Returns null if the file does not
+   * exist, is not a binary annotation file or was created from a different
+   * version of the annotation files.
+   * 
+   * @param genome
+   * @param file
+   * @param cytobandsModified
+   * @param sizesModified
+   * @return
+   * @throws IOException
+   */
+  private static GenomeAnnotation readBinary(Genome genome,
+      File file,
+      long cytobandsModified,
+      long sizesModified) throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+
+    FileChannel channel = FileChannel.open(file.toPath(),
+        StandardOpenOption.READ);
+
+    try {
+      MappedByteBuffer buffer = channel
+          .map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+      if (buffer.remaining() < 24 || buffer.getInt() != MAGIC
+          || buffer.getInt() != VERSION
+          || buffer.getLong() != cytobandsModified
+          || buffer.getLong() != sizesModified) {
+        return null;
+      }
+
+      int n = buffer.getInt();
+
+      String[] chrNames = new String[n];
+      int[] chrSizes = new int[n];
+
+      for (int i = 0; i < n; ++i) {
+        chrNames[i] = readString(buffer);
+        chrSizes[i] = buffer.getInt();
+      }
+
+      String header = readString(buffer);
+
+      n = buffer.getInt();
+
+      String[] bandChrs = new String[n];
+      int[] bandStarts = new int[n];
+      int[] bandEnds = new int[n];
+      String[] bandNames = new String[n];
+      String[] bandStains = new String[n];
+
+      for (int i = 0; i < n; ++i) {
+        bandChrs[i] = readString(buffer).intern();
+        bandStarts[i] = buffer.getInt();
+        bandEnds[i] = buffer.getInt();
+        bandNames[i] = readString(buffer);
+        bandStains[i] = readString(buffer).intern();
+      }
+
+      return new GenomeAnnotation(genome, chrNames, chrSizes,
+          header.length() > 0 ? header : null, bandChrs, bandStarts, bandEnds,
+          bandNames, bandStains);
+    } catch (RuntimeException e) {
+      // A truncated or corrupt file is treated as missing
+      return null;
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static void writeString(DataOutputStream out, String s)
+      throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(MappedByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getInt()];
+
+    buffer.get(bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static boolean isInt(String s) {
+    try {
+      Integer.parseInt(s);
+
+      return true;
+    } catch (NumberFormatException e) {
+      return false;
+    }
+  }
+
+  private static int[] toArray(List<Integer> values) {
+    int[] ret = new int[values.size()];
+
+    for (int i = 0; i < ret.length; ++i) {
+      ret[i] = values.get(i);
+    }
+
+    return ret;
+  }
+}
@@ -0,0 +1,372 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.jebtk.bioinformatics.genomic.GenomeService;
+import org.jebtk.core.settings.SettingsService;
+
+/**
+ * Keeps an index of the genomes in {@link IdeogramModule#RES_DIR} so the
+ * ideogram dialog does not have to scan the disk each time it opens. A genome
+ * is only listed if its directory has both a cytobands and a chromosome sizes
+ * file.
+ * 
+ * The index is built on a background thread, which then loads the annotation
+ * of the most recently used genome into the {@link GenomeAnnotationCache} so
+ * the first ideogram does not wait for it. Finally the thread watches the
+ * genomes directory so genomes that are added or removed while the
+ * application is running are picked up.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class GenomeCatalog {
+  private static class GenomeCatalogLoader {
+    private static final GenomeCatalog INSTANCE = new GenomeCatalog();
+  }
+
+  public static GenomeCatalog getInstance() {
+    return GenomeCatalogLoader.INSTANCE;
+  }
+
+  /**
+   * The setting holding the most recently used genome.
+   */
+  public static final String GENOME_SETTING = "ideogram.genome";
+
+  /**
+   * Valid genomes and their directories, sorted by name.
+   */
+  private final Map<String, File> mGenomes = new TreeMap<String, File>();
+
+  private final CountDownLatch mIndexed = new CountDownLatch(1);
+
+  private Thread mThread = null;
+
+  private GenomeCatalog() {
+    // Do nothing
+  }
+
+  /**
+   * Start indexing the genomes in the background. Calling this more than
+   * once has no effect.
+   */
+  public synchronized void start() {
+    if (mThread != null) {
+      return;
+    }
+
+    mThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          index();
+        } finally {
+          mIndexed.countDown();
+        }
+
+        prefetch();
+
+        watch();
+      }
+    }, "ideogram-genome-catalog");
+
+    // Never keep the application alive just to watch the directory
+    mThread.setDaemon(true);
+
+    mThread.start();
+  }
+
+  /**
+   * Returns the names of the valid genomes in alphabetical order. If the
+   * index is still being built, this waits for it to finish.
+   * 
+   * @return
+   */
+  public List<String> getGenomes() {
+    awaitIndex();
+
+    synchronized (mGenomes) {
+      return new ArrayList<String>(mGenomes.keySet());
+    }
+  }
+
+  /**
+   * Returns whether a genome is in the catalog.
+   * 
+   * @param genome
+   * @return
+   */
+  public boolean contains(String genome) {
+    awaitIndex();
+
+    synchronized (mGenomes) {
+      return mGenomes.containsKey(genome);
+    }
+  }
+
+  /**
+   * Returns the most recently used genome or null if it is not in the
+   * catalog.
+   * 
+   * @return
+   */
+  public String getRecentGenome() {
+    String genome = SettingsService.getInstance().getString(GENOME_SETTING);
+
+    if (genome == null || !contains(genome)) {
+      return null;
+    }
+
+    return genome;
+  }
+
+  /**
+   * Record the genome the user chose so it is selected and prefetched next
+   * time.
+   * 
+   * @param genome
+   */
+  public void setRecentGenome(String genome) {
+    SettingsService.getInstance().update(GENOME_SETTING, genome);
+  }
+
+  private void awaitIndex() {
+    start();
+
+    try {
+      mIndexed.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Index every genome directory. The new index replaces the old one in one
+   * step so the catalog never appears empty while it is rebuilt.
+   */
+  private void index() {
+    Map<String, File> genomes = new TreeMap<String, File>();
+
+    File[] files = IdeogramModule.RES_DIR.listFiles();
+
+    if (files != null) {
+      for (File file : files) {
+        if (isGenome(file)) {
+          genomes.put(file.getName(), file);
+        }
+      }
+    }
+
+    synchronized (mGenomes) {
+      mGenomes.clear();
+      mGenomes.putAll(genomes);
+    }
+  }
+
+  /**
+   * Add a directory to the catalog if it is a valid genome, otherwise
+   * remove it.
+   * 
+   * @param dir
+   */
+  private void update(File dir) {
+    String name = dir.getName();
+
+    boolean valid = isGenome(dir);
+
+    synchronized (mGenomes) {
+      if (valid) {
+        mGenomes.put(name, dir);
+      } else {
+        mGenomes.remove(name);
+      }
+    }
+  }
+
+  /**
+   * Returns whether a directory has the annotation files of the genome it is
+   * named after.
+   * 
+   * @param dir
+   * @return
+   */
+  public static boolean isGenome(File dir) {
+    if (!dir.isDirectory()) {
+      return false;
+    }
+
+    String name = dir.getName();
+
+    return isFile(getCytobandsFile(dir, name))
+        && isFile(getSizesFile(dir, name));
+  }
+
+  private static boolean isFile(File file) {
+    return file.isFile() && file.length() > 0;
+  }
+
+  public static File getCytobandsFile(File dir, String genome) {
+    return new File(dir, "ucsc_cytobands_" + genome + ".txt.gz");
+  }
+
+  public static File getSizesFile(File dir, String genome) {
+    return new File(dir, "ucsc_chromosome_sizes_" + genome + ".txt.gz");
+  }
+
+  /**
+   * Load the annotation of the most recently used genome.
+   */
+  private void prefetch() {
+    String genome = getRecentGenome();
+
+    if (genome == null) {
+      return;
+    }
+
+    try {
+      GenomeAnnotationCache.getInstance()
+          .get(GenomeService.getInstance().guessGenome(genome));
+    } catch (IOException e) {
+      // The annotation will be loaded, and the error reported, when the
+      // genome is used
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Watch the genomes directory, and each genome directory within it, until
+   * the thread is interrupted. Files are usually copied into a genome
+   * directory after it is created so a directory is checked again each time
+   * its contents change.
+   */
+  private void watch() {
+    Path root = IdeogramModule.RES_DIR.toPath();
+
+    if (!Files.isDirectory(root)) {
+      return;
+    }
+
+    WatchService watcher;
+
+    try {
+      watcher = FileSystems.getDefault().newWatchService();
+    } catch (IOException e) {
+      e.printStackTrace();
+
+      return;
+    }
+
+    Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+
+    try {
+      register(watcher, root, keys);
+
+      File[] files = root.toFile().listFiles();
+
+      if (files != null) {
+        for (File file : files) {
+          if (file.isDirectory()) {
+            register(watcher, file.toPath(), keys);
+          }
+        }
+      }
+
+      while (!Thread.currentThread().isInterrupted()) {
+        WatchKey key = watcher.take();
+
+        Path dir = keys.get(key);
+
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            index();
+
+            continue;
+          }
+
+          if (dir == null) {
+            continue;
+          }
+
+          if (dir.equals(root)) {
+            Path child = root.resolve((Path) event.context());
+
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                && Files.isDirectory(child)) {
+              register(watcher, child, keys);
+            }
+
+            update(child.toFile());
+          } else {
+            update(dir.toFile());
+          }
+        }
+
+        // Keys of deleted directories become invalid
+        if (!key.reset()) {
+          keys.remove(key);
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (IOException e) {
+      e.printStackTrace();
+    } finally {
+      try {
+        watcher.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static void register(WatchService watcher,
+      Path dir,
+      Map<WatchKey, Path> keys) throws IOException {
+    keys.put(dir.register(watcher,
+        StandardWatchEventKinds.ENTRY_CREATE,
+        StandardWatchEventKinds.ENTRY_DELETE,
+        StandardWatchEventKinds.ENTRY_MODIFY), dir);
+  }
+}
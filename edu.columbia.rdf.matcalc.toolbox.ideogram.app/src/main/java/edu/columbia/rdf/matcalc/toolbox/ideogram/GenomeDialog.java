@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.swing.Box;
+
+import org.jebtk.modern.UI;
+import org.jebtk.modern.button.ModernButtonGroup;
+import org.jebtk.modern.button.ModernRadioButton;
+import org.jebtk.modern.dialog.ModernDialogHelpWindow;
+import org.jebtk.modern.event.ModernClickListener;
+import org.jebtk.modern.panel.VBox;
+import org.jebtk.modern.window.ModernWindow;
+import org.jebtk.modern.window.WindowWidgetFocusEvents;
+
+/**
+ * Asks only for the reference genome, for tools such as exporting segments
+ * that do not draw an ideogram.
+ *
+ * @author Antony Holmes
+ */
+public class GenomeDialog extends ModernDialogHelpWindow
+    implements ModernClickListener {
+
+  /**
+   * The constant serialVersionUID.
+   */
+  private static final long serialVersionUID = 1L;
+
+  private Map<String, ModernRadioButton> mGenomeMap = new TreeMap<String, ModernRadioButton>();
+
+  public GenomeDialog(ModernWindow parent, String title) {
+    super(parent, "ideogram.help.url");
+
+    setTitle(title);
+
+    createUi();
+
+    setup();
+  }
+
+  private void setup() {
+    String genome = GenomeCatalog.getInstance().getRecentGenome();
+
+    if (genome != null) {
+      mGenomeMap.get(genome).setSelected(true);
+    } else if (!mGenomeMap.isEmpty()) {
+      mGenomeMap.get(mGenomeMap.keySet().iterator().next()).setSelected(true);
+    }
+
+    setSize(360, 320);
+
+    addWindowFocusListener(new WindowWidgetFocusEvents(mOkButton));
+
+    UI.centerWindowToScreen(this);
+  }
+
+  private final void createUi() {
+    Box box = VBox.create();
+
+    sectionHeader("Reference Genome", box);
+
+    ModernButtonGroup group = new ModernButtonGroup();
+
+    for (String genome : GenomeCatalog.getInstance().getGenomes()) {
+      ModernRadioButton button = new ModernRadioButton(genome);
+
+      box.add(button);
+      box.add(UI.createVGap(5));
+
+      mGenomeMap.put(genome, button);
+
+      group.add(button);
+    }
+
+    setCard(box);
+  }
+
+  public final String getGenome() {
+    for (String genome : mGenomeMap.keySet()) {
+      if (mGenomeMap.get(genome).isSelected()) {
+        return genome;
+      }
+    }
+
+    return null;
+  }
+}
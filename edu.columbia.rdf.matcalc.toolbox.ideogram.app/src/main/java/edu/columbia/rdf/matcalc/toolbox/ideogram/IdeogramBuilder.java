@@ -0,0 +1,1031 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.core.settings.SettingsService;
+import org.jebtk.math.matrix.DataFrame;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds ideograms without any user interface so that the data preparation
+ * and figure stages can run on a background thread or headlessly.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class IdeogramBuilder {
+  /**
+   * One stage of the preparation of a cohort.
+   */
+  private interface CohortTask<T> {
+    public T run(IdeogramBuilder builder, Cohort cohort) throws IOException;
+  }
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(IdeogramBuilder.class);
+
+  private static final boolean COALESCE = SettingsService.getInstance()
+      .getBool("ideogram.coalesce.enabled");
+
+  private static final int PARALLELISM = SettingsService.getInstance()
+      .getInt("ideogram.layout.parallelism");
+
+  private static final long HEAP_LIMIT = SettingsService.getInstance()
+      .getInt("ideogram.layout.heap.mb") * 1024L * 1024L;
+
+  /**
+   * Approximate heap used by each row of a {@link Segments} store.
+   */
+  private static final int SEGMENT_BYTES = 24;
+
+  private final Genome mGenome;
+
+  private IdeogramProgress mProgress = IdeogramProgress.NONE;
+
+  private LaneMode mLaneMode = LaneMode.SAMPLE;
+
+  private int mParallelism = PARALLELISM;
+
+  private long mHeapLimit = HEAP_LIMIT;
+
+  private GenomeAnnotation mAnnotation;
+
+  private PartitionCache<SegmentView> mLayoutCache;
+
+  private boolean mIndexed = false;
+
+  private SegmentIndex mIndex;
+
+  private boolean mBanded = false;
+
+  private BandFrequencies mBandFrequencies;
+
+  private PartitionCache<FrequencyProfile> mFrequencyCache;
+
+  private SegmentCoalescer mCoalescer = COALESCE ? new SegmentCoalescer()
+      : null;
+
+  private long mCoalesced = 0;
+
+  public IdeogramBuilder(Genome genome) {
+    mGenome = genome;
+  }
+
+  public IdeogramBuilder setProgress(IdeogramProgress progress) {
+    mProgress = progress;
+
+    return this;
+  }
+
+  public IdeogramBuilder setLaneMode(LaneMode mode) {
+    mLaneMode = mode;
+
+    return this;
+  }
+
+  /**
+   * Reuse the partition layouts and frequency profiles of a previous run
+   * wherever the segments are unchanged.
+   * 
+   * @param layoutCache
+   * @param frequencyCache
+   * @return
+   */
+  public IdeogramBuilder setCaches(PartitionCache<SegmentView> layoutCache,
+      PartitionCache<FrequencyProfile> frequencyCache) {
+    mLayoutCache = layoutCache;
+    mFrequencyCache = frequencyCache;
+
+    return this;
+  }
+
+  /**
+   * Set whether to build a {@link SegmentIndex} alongside the layout so the
+   * figure can be queried interactively.
+   * 
+   * @param indexed
+   * @return
+   */
+  public IdeogramBuilder setIndexed(boolean indexed) {
+    mIndexed = indexed;
+
+    return this;
+  }
+
+  /**
+   * Set whether to count the samples gaining and losing each cytoband from
+   * the same segments as the layout, so the bands can be colored without
+   * reading the input again.
+   * 
+   * @param banded
+   * @return
+   */
+  public IdeogramBuilder setBanded(boolean banded) {
+    mBanded = banded;
+
+    return this;
+  }
+
+  /**
+   * Returns the band frequencies of the last layout or frequency profiles
+   * of a single cohort, or null if they were not requested.
+   * 
+   * @return
+   */
+  public BandFrequencies getBandFrequencies() {
+    return mBandFrequencies;
+  }
+
+  /**
+   * Set how many threads lay out chromosome partitions. Values less than 1
+   * use all available processors. Batch jobs that already run one builder
+   * per worker should set this to 1.
+   * 
+   * @param parallelism
+   * @return
+   */
+  public IdeogramBuilder setParallelism(int parallelism) {
+    mParallelism = parallelism;
+
+    return this;
+  }
+
+  /**
+   * Set the heap the segments of a cohort may occupy. Larger cohorts are
+   * spilled to disk by chromosome and laid out one chromosome at a time.
+   * Spilled cohorts are not indexed or cached. A limit of 0 keeps all
+   * segments in memory.
+   * 
+   * @param bytes
+   * @return
+   */
+  public IdeogramBuilder setHeapLimit(long bytes) {
+    mHeapLimit = bytes;
+
+    return this;
+  }
+
+  /**
+   * Merge runs of adjacent segments of each sample before they are laid
+   * out. Matrices and files written with {@link #write(DataFrame, Map, Path)}
+   * are never coalesced.
+   * 
+   * @param coalescer The coalescer or null to lay out every segment.
+   * @return
+   */
+  public IdeogramBuilder setCoalescer(SegmentCoalescer coalescer) {
+    mCoalescer = coalescer;
+
+    return this;
+  }
+
+  /**
+   * Returns how many segments the last layout removed by coalescing. For a
+   * comparison this is the total over the cohorts.
+   * 
+   * @return
+   */
+  public long getCoalesced() {
+    return mCoalesced;
+  }
+
+  /**
+   * Stream a SEG, BED or binary segment file directly into segments,
+   * bypassing the matrix.
+   * 
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public Segments read(Path file) throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+
+    if (!SegmentFile.isSegmentFile(file)) {
+      return new SegmentTableReader(mGenome, mAnnotation.getChromosomes())
+          .setProgress(mProgress).read(file);
+    }
+
+    SegmentFile segmentFile = SegmentFile.open(file);
+
+    try {
+      SegmentsBuilder builder = new SegmentsBuilder(mGenome,
+          mAnnotation.getChromosomes(),
+          (int) Math.min(segmentFile.size(), Integer.MAX_VALUE - 8));
+
+      segmentFile.read(builder);
+
+      return builder.build();
+    } finally {
+      segmentFile.close();
+    }
+  }
+
+  /**
+   * Save the segments of a matrix as a binary segment file that can be
+   * reloaded with {@link #read(Path)} without parsing text.
+   * 
+   * @param m The segment matrix.
+   * @param idColumns Map of the id, chr, start, end and mean column indices.
+   * @param file
+   * @throws IOException
+   */
+  public void write(final DataFrame m,
+      final Map<String, Integer> idColumns,
+      Path file) throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+
+    SegmentFile.write(createEngine().read(m, idColumns), file);
+  }
+
+  /**
+   * Returns whether a SEG or BED file is larger than the heap limit and
+   * will be spilled to disk when it is laid out.
+   * 
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public boolean spills(Path file) throws IOException {
+    return exceedsHeap(Files.size(file));
+  }
+
+  /**
+   * Read and lay out a SEG or BED file, spilling to disk if the file is
+   * larger than the heap limit.
+   * 
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public SegmentLayout layout(Path file) throws IOException {
+    if (!spills(file)) {
+      return layout(read(file));
+    }
+
+    SegmentSpill spill = spill(file);
+
+    try {
+      SegmentLayout layout = createEngine().layout(spill, mHeapLimit);
+
+      bands(spill);
+
+      return layout;
+    } finally {
+      spill.close();
+    }
+  }
+
+  /**
+   * Read a SEG or BED file and create its frequency profiles, spilling to
+   * disk if the file is larger than the heap limit.
+   * 
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public FrequencyLayout frequencies(Path file) throws IOException {
+    if (!spills(file)) {
+      return frequencies(read(file));
+    }
+
+    SegmentSpill spill = spill(file);
+
+    try {
+      FrequencyLayout frequencies = createEngine().frequencies(spill);
+
+      bands(spill);
+
+      return frequencies;
+    } finally {
+      spill.close();
+    }
+  }
+
+  /**
+   * Data preparation stage. Loads the genome annotation and lays out the
+   * segments of a matrix.
+   * 
+   * @param m The segment matrix.
+   * @param idColumns Map of the id, chr, start, end and mean column indices.
+   * @return
+   * @throws IOException
+   */
+  public SegmentLayout layout(final DataFrame m,
+      final Map<String, Integer> idColumns) throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+
+    if (exceedsHeap((long) m.getRows() * SEGMENT_BYTES)) {
+      SegmentSpill spill = spill(m, idColumns);
+
+      try {
+        SegmentLayout layout = createEngine().layout(spill, mHeapLimit);
+
+        bands(spill);
+
+        return layout;
+      } finally {
+        spill.close();
+      }
+    }
+
+    return layout(createEngine().read(m, idColumns));
+  }
+
+  /**
+   * Lay out segments that have already been read.
+   * 
+   * @param segments
+   * @return
+   * @throws IOException
+   */
+  public SegmentLayout layout(final Segments segments) throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+
+    // Index the segments as read so query results are rows of the source
+    // rather than merged runs
+    index(segments);
+
+    Segments coalesced = coalesce(segments);
+
+    bands(coalesced);
+
+    return createEngine().layout(coalesced);
+  }
+
+  /**
+   * Data preparation stage for frequency tracks. Loads the genome annotation
+   * and creates the gain and loss frequency profiles of a matrix.
+   * 
+   * @param m The segment matrix.
+   * @param idColumns Map of the id, chr, start, end and mean column indices.
+   * @return
+   * @throws IOException
+   */
+  public FrequencyLayout frequencies(final DataFrame m,
+      final Map<String, Integer> idColumns) throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+
+    if (exceedsHeap((long) m.getRows() * SEGMENT_BYTES)) {
+      SegmentSpill spill = spill(m, idColumns);
+
+      try {
+        FrequencyLayout frequencies = createEngine().frequencies(spill);
+
+        bands(spill);
+
+        return frequencies;
+      } finally {
+        spill.close();
+      }
+    }
+
+    return frequencies(createEngine().read(m, idColumns));
+  }
+
+  /**
+   * Create frequency profiles from segments that have already been read.
+   * 
+   * @param segments
+   * @return
+   * @throws IOException
+   */
+  public FrequencyLayout frequencies(final Segments segments)
+      throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+
+    // Index the segments as read so query results are rows of the source
+    // rather than merged runs
+    index(segments);
+
+    Segments coalesced = coalesce(segments);
+
+    bands(coalesced);
+
+    return createEngine().frequencies(coalesced);
+  }
+
+  /**
+   * Lay out a cohort from its matrix or file.
+   * 
+   * @param cohort
+   * @return
+   * @throws IOException
+   */
+  public SegmentLayout layout(final Cohort cohort) throws IOException {
+    if (cohort.getFile() != null) {
+      return layout(cohort.getFile());
+    }
+
+    return layout(cohort.getMatrix(), cohort.getIdColumns());
+  }
+
+  /**
+   * Create the frequency profiles of a cohort from its matrix or file.
+   * 
+   * @param cohort
+   * @return
+   * @throws IOException
+   */
+  public FrequencyLayout frequencies(final Cohort cohort) throws IOException {
+    if (cohort.getFile() != null) {
+      return frequencies(cohort.getFile());
+    }
+
+    return frequencies(cohort.getMatrix(), cohort.getIdColumns());
+  }
+
+  /**
+   * Count how many samples gain and lose each cytoband of a matrix.
+   * 
+   * @param m The segment matrix.
+   * @param idColumns Map of the id, chr, start, end and mean column indices.
+   * @return
+   * @throws IOException
+   */
+  public BandFrequencies bandFrequencies(final DataFrame m,
+      final Map<String, Integer> idColumns) throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+
+    if (exceedsHeap((long) m.getRows() * SEGMENT_BYTES)) {
+      SegmentSpill spill = spill(m, idColumns);
+
+      try {
+        return BandFrequencies.create(mAnnotation, spill);
+      } finally {
+        spill.close();
+      }
+    }
+
+    return bandFrequencies(createEngine().read(m, idColumns));
+  }
+
+  /**
+   * Count how many samples gain and lose each cytoband of a SEG, BED or
+   * binary segment file, spilling to disk if the file is larger than the
+   * heap limit.
+   * 
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public BandFrequencies bandFrequencies(Path file) throws IOException {
+    if (!spills(file)) {
+      return bandFrequencies(read(file));
+    }
+
+    SegmentSpill spill = spill(file);
+
+    try {
+      return BandFrequencies.create(mAnnotation, spill);
+    } finally {
+      spill.close();
+    }
+  }
+
+  /**
+   * Count how many samples gain and lose each cytoband. If coalescing is on
+   * the merged segments are counted so the table matches the figure.
+   * 
+   * @param segments
+   * @return
+   * @throws IOException
+   */
+  public BandFrequencies bandFrequencies(final Segments segments)
+      throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+
+    Segments coalesced = coalesce(segments);
+
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.FILL);
+
+    BandFrequencies ret = BandFrequencies.create(mAnnotation, coalesced);
+
+    timer.stop(coalesced.size());
+
+    return ret;
+  }
+
+  public BandFrequencies bandFrequencies(final Cohort cohort)
+      throws IOException {
+    if (cohort.getFile() != null) {
+      return bandFrequencies(cohort.getFile());
+    }
+
+    return bandFrequencies(cohort.getMatrix(), cohort.getIdColumns());
+  }
+
+  /**
+   * Lay out several cohorts concurrently for a comparison figure.
+   * 
+   * @param cohorts
+   * @return The layout of each cohort in the order given.
+   * @throws IOException
+   */
+  public SegmentLayout[] layout(final List<Cohort> cohorts)
+      throws IOException {
+    List<SegmentLayout> layouts = compare(cohorts,
+        new CohortTask<SegmentLayout>() {
+          @Override
+          public SegmentLayout run(IdeogramBuilder builder, Cohort cohort)
+              throws IOException {
+            return builder.layout(cohort);
+          }
+        });
+
+    return layouts.toArray(new SegmentLayout[layouts.size()]);
+  }
+
+  /**
+   * Create the frequency profiles of several cohorts concurrently for a
+   * comparison figure.
+   * 
+   * @param cohorts
+   * @return The frequency profiles of each cohort in the order given.
+   * @throws IOException
+   */
+  public FrequencyLayout[] frequencies(final List<Cohort> cohorts)
+      throws IOException {
+    List<FrequencyLayout> frequencies = compare(cohorts,
+        new CohortTask<FrequencyLayout>() {
+          @Override
+          public FrequencyLayout run(IdeogramBuilder builder, Cohort cohort)
+              throws IOException {
+            return builder.frequencies(cohort);
+          }
+        });
+
+    return frequencies.toArray(new FrequencyLayout[frequencies.size()]);
+  }
+
+  /**
+   * Run a task for each cohort on its own thread. The genome annotation is
+   * loaded once up front so every cohort shares it. Cohorts are neither
+   * indexed nor cached since the caches hold a single cohort.
+   * 
+   * @param cohorts
+   * @param task
+   * @return
+   * @throws IOException
+   */
+  private <T> List<T> compare(final List<Cohort> cohorts,
+      final CohortTask<T> task) throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+    mIndex = null;
+    mBandFrequencies = null;
+    mCoalesced = 0;
+
+    int threads = mParallelism < 1
+        ? Runtime.getRuntime().availableProcessors() : mParallelism;
+
+    // Split any threads left over from the cohorts between their layouts
+    final int parallelism = Math.max(1, threads / cohorts.size());
+
+    // Cohorts report to a shared count so progress covers all of them
+    final int total = cohorts.size() * mAnnotation.getChromosomes().length;
+    final AtomicInteger done = new AtomicInteger(0);
+
+    final AtomicLong coalesced = new AtomicLong(0);
+
+    final IdeogramProgress progress = new IdeogramProgress() {
+      @Override
+      public void progress(IdeogramStage stage,
+          Chromosome chr,
+          int chrDone,
+          int chrTotal) {
+        mProgress.progress(stage, chr, done.incrementAndGet(), total);
+      }
+
+      @Override
+      public boolean isCancelled() {
+        return mProgress.isCancelled();
+      }
+    };
+
+    List<Callable<T>> tasks = new ArrayList<Callable<T>>(cohorts.size());
+
+    for (final Cohort cohort : cohorts) {
+      tasks.add(new Callable<T>() {
+        @Override
+        public T call() throws IOException {
+          IdeogramBuilder builder = new IdeogramBuilder(mGenome)
+              .setLaneMode(mLaneMode).setParallelism(parallelism)
+              .setHeapLimit(mHeapLimit).setCoalescer(mCoalescer)
+              .setProgress(progress);
+
+          T ret = task.run(builder, cohort);
+
+          coalesced.addAndGet(builder.getCoalesced());
+
+          return ret;
+        }
+      });
+    }
+
+    ExecutorService pool = Executors
+        .newFixedThreadPool(Math.max(1, Math.min(cohorts.size(), threads)));
+
+    List<T> results = new ArrayList<T>(cohorts.size());
+
+    try {
+      for (Future<T> future : pool.invokeAll(tasks)) {
+        results.add(future.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new CancellationException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof IOException) {
+        throw (IOException) e.getCause();
+      }
+
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+
+    mCoalesced = coalesced.get();
+
+    return results;
+  }
+
+  private boolean exceedsHeap(long bytes) {
+    return mHeapLimit > 0 && bytes > mHeapLimit;
+  }
+
+  private SegmentSpill spill(Path file) throws IOException {
+    mAnnotation = loadGenomeData(mGenome);
+    mIndex = null;
+
+    SegmentSpillWriter writer =
+        new SegmentSpillWriter(mGenome, mAnnotation.getChromosomes())
+            .setCoalescer(mCoalescer);
+
+    try {
+      if (SegmentFile.isSegmentFile(file)) {
+        SegmentFile segmentFile = SegmentFile.open(file);
+
+        try {
+          segmentFile.read(writer);
+        } finally {
+          segmentFile.close();
+        }
+      } else {
+        new SegmentTableReader(mGenome, mAnnotation.getChromosomes())
+            .setProgress(mProgress).read(file, writer);
+      }
+
+      SegmentSpill spill = writer.spill();
+
+      mCoalesced = writer.getAdded() - spill.size();
+
+      return spill;
+    } catch (IOException | RuntimeException e) {
+      writer.discard();
+
+      throw e;
+    }
+  }
+
+  private SegmentSpill spill(final DataFrame m,
+      final Map<String, Integer> idColumns) throws IOException {
+    mIndex = null;
+
+    SegmentSpillWriter writer =
+        new SegmentSpillWriter(mGenome, mAnnotation.getChromosomes())
+            .setCoalescer(mCoalescer);
+
+    try {
+      createEngine().read(m, idColumns, writer);
+
+      SegmentSpill spill = writer.spill();
+
+      mCoalesced = writer.getAdded() - spill.size();
+
+      return spill;
+    } catch (IOException | RuntimeException e) {
+      writer.discard();
+
+      throw e;
+    }
+  }
+
+  /**
+   * Coalescing stage. Returns the segments with runs merged or the segments
+   * themselves if coalescing is off.
+   */
+  private Segments coalesce(final Segments segments) {
+    mCoalesced = 0;
+
+    if (mCoalescer == null) {
+      return segments;
+    }
+
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.COALESCE);
+
+    Segments ret = mCoalescer.coalesce(segments);
+
+    timer.stop(segments.size());
+
+    mCoalesced = segments.size() - ret.size();
+
+    LOG.info("Coalesced {} of {} segments", mCoalesced, segments.size());
+
+    return ret;
+  }
+
+  private void index(final Segments segments) {
+    mIndex = mIndexed ? SegmentIndex.create(segments) : null;
+  }
+
+  /**
+   * Band stage. Counts the samples gaining and losing each band of the
+   * segments being laid out if band frequencies were requested.
+   */
+  private void bands(final Segments segments) {
+    mBandFrequencies = null;
+
+    if (mBanded) {
+      StageTimer timer = IdeogramMetrics.getInstance()
+          .start(MetricStage.FILL);
+
+      mBandFrequencies = BandFrequencies.create(mAnnotation, segments);
+
+      timer.stop(segments.size());
+    }
+  }
+
+  private void bands(final SegmentSpill spill) throws IOException {
+    mBandFrequencies = mBanded ? BandFrequencies.create(mAnnotation, spill)
+        : null;
+  }
+
+  private SegmentLayoutEngine createEngine() {
+    return new SegmentLayoutEngine(mGenome, mAnnotation.getChromosomes())
+        .setParallelism(mParallelism).setLaneMode(mLaneMode)
+        .setLayoutCache(mLayoutCache).setFrequencyCache(mFrequencyCache)
+        .setProgress(mProgress);
+  }
+
+  /**
+   * Figure stage. Creates the cytobands figure from a layout.
+   * 
+   * @param layout
+   * @param gainColor
+   * @param lossColor
+   * @return
+   * @throws IOException
+   */
+  public CytobandsFigure createFigure(final SegmentLayout layout,
+      Color gainColor,
+      Color lossColor) throws IOException {
+    if (mAnnotation == null) {
+      mAnnotation = loadGenomeData(mGenome);
+    }
+
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.FIGURE);
+
+    CytobandsFigure figure = new CytobandsFigure(mAnnotation, gainColor,
+        lossColor, layout, mIndex, mProgress);
+
+    timer.stop(mAnnotation.getChromosomes().length);
+
+    IdeogramMetrics.getInstance().endRun();
+
+    return figure;
+  }
+
+  /**
+   * Figure stage. Creates a cytobands figure showing frequency tracks.
+   * 
+   * @param frequencies
+   * @param gainColor
+   * @param lossColor
+   * @return
+   * @throws IOException
+   */
+  public CytobandsFigure createFigure(final FrequencyLayout frequencies,
+      Color gainColor,
+      Color lossColor) throws IOException {
+    if (mAnnotation == null) {
+      mAnnotation = loadGenomeData(mGenome);
+    }
+
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.FIGURE);
+
+    CytobandsFigure figure = new CytobandsFigure(mAnnotation, gainColor,
+        lossColor, frequencies, mIndex, mProgress);
+
+    timer.stop(mAnnotation.getChromosomes().length);
+
+    IdeogramMetrics.getInstance().endRun();
+
+    return figure;
+  }
+
+  /**
+   * Figure stage. Writes the segments of a layout straight to an SVG or PDF
+   * file without creating the figure, which is much cheaper for large
+   * cohorts.
+   * 
+   * @param layout
+   * @param gainColor
+   * @param lossColor
+   * @param file
+   * @throws IOException
+   */
+  public void export(final SegmentLayout layout,
+      Color gainColor,
+      Color lossColor,
+      Path file) throws IOException {
+    if (mAnnotation == null) {
+      mAnnotation = loadGenomeData(mGenome);
+    }
+
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.FIGURE);
+
+    new IdeogramExporter(mAnnotation, gainColor, lossColor).write(layout,
+        file);
+
+    timer.stop(mAnnotation.getChromosomes().length);
+
+    IdeogramMetrics.getInstance().endRun();
+  }
+
+  /**
+   * Figure stage. Writes the frequency tracks of a layout straight to an SVG
+   * or PDF file.
+   * 
+   * @param frequencies
+   * @param gainColor
+   * @param lossColor
+   * @param file
+   * @throws IOException
+   */
+  public void export(final FrequencyLayout frequencies,
+      Color gainColor,
+      Color lossColor,
+      Path file) throws IOException {
+    if (mAnnotation == null) {
+      mAnnotation = loadGenomeData(mGenome);
+    }
+
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.FIGURE);
+
+    new IdeogramExporter(mAnnotation, gainColor, lossColor)
+        .write(frequencies, file);
+
+    timer.stop(mAnnotation.getChromosomes().length);
+
+    IdeogramMetrics.getInstance().endRun();
+  }
+
+  /**
+   * Figure stage. Creates a figure comparing the segments of several
+   * cohorts around a single band track per chromosome.
+   * 
+   * @param cohorts
+   * @param layouts
+   * @param gainColor
+   * @param lossColor
+   * @return
+   * @throws IOException
+   */
+  public CytobandsFigure createFigure(final List<Cohort> cohorts,
+      final SegmentLayout[] layouts,
+      Color gainColor,
+      Color lossColor) throws IOException {
+    if (mAnnotation == null) {
+      mAnnotation = loadGenomeData(mGenome);
+    }
+
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.FIGURE);
+
+    CytobandsFigure figure = new CytobandsFigure(mAnnotation, names(cohorts),
+        gainColor, lossColor, layouts, mProgress);
+
+    timer.stop(mAnnotation.getChromosomes().length);
+
+    IdeogramMetrics.getInstance().endRun();
+
+    return figure;
+  }
+
+  /**
+   * Figure stage. Creates a figure comparing the gain and loss frequencies
+   * of several cohorts.
+   * 
+   * @param cohorts
+   * @param frequencies
+   * @param gainColor
+   * @param lossColor
+   * @return
+   * @throws IOException
+   */
+  public CytobandsFigure createFigure(final List<Cohort> cohorts,
+      final FrequencyLayout[] frequencies,
+      Color gainColor,
+      Color lossColor) throws IOException {
+    if (mAnnotation == null) {
+      mAnnotation = loadGenomeData(mGenome);
+    }
+
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.FIGURE);
+
+    CytobandsFigure figure = new CytobandsFigure(mAnnotation, names(cohorts),
+        gainColor, lossColor, frequencies, mProgress);
+
+    timer.stop(mAnnotation.getChromosomes().length);
+
+    IdeogramMetrics.getInstance().endRun();
+
+    return figure;
+  }
+
+  private static String[] names(final List<Cohort> cohorts) {
+    String[] names = new String[cohorts.size()];
+
+    for (int i = 0; i < names.length; ++i) {
+      names[i] = cohorts.get(i).getName();
+    }
+
+    return names;
+  }
+
+  /**
+   * Returns the cytobands and chromosome sizes of a genome. Annotation is
+   * cached so this is cheap after the first call for a genome.
+   * 
+   * @param genome
+   * @return
+   * @throws IOException
+   */
+  public static GenomeAnnotation loadGenomeData(Genome genome)
+      throws IOException {
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.GENOME_DATA);
+
+    GenomeAnnotation annotation = GenomeAnnotationCache.getInstance()
+        .get(genome);
+
+    timer.stop(annotation.getChromosomes().length);
+
+    return annotation;
+  }
+}
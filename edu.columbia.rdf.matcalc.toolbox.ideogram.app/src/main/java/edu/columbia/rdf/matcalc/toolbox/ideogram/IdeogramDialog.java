@@ -28,9 +28,6 @@
 package edu.columbia.rdf.matcalc.toolbox.ideogram;
 
 import java.awt.Color;
-import java.io.File;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -39,6 +36,7 @@ import javax.swing.Box;
 
 import org.jebtk.modern.UI;
 import org.jebtk.modern.button.ModernButtonGroup;
+import org.jebtk.modern.button.ModernCheckBox;
 import org.jebtk.modern.button.ModernRadioButton;
 import org.jebtk.modern.dialog.ModernDialogHelpWindow;
 import org.jebtk.modern.event.ModernClickListener;
@@ -63,6 +61,21 @@ public class IdeogramDialog extends ModernDialogHelpWindow
 
   private Map<String, ModernRadioButton> mGenomeMap = new TreeMap<String, ModernRadioButton>();
 
+  private ModernRadioButton mSampleRowsButton = new ModernRadioButton(
+      "Sample rows", true);
+
+  private ModernRadioButton mPackedLanesButton = new ModernRadioButton(
+      "Packed lanes");
+
+  private ModernRadioButton mSegmentsButton = new ModernRadioButton(
+      "Segments", true);
+
+  private ModernRadioButton mFrequencyButton = new ModernRadioButton(
+      "Frequency");
+
+  private ModernCheckBox mHeatmapCheck = new ModernCheckBox(
+      "Color bands by frequency");
+
   private ColorSwatchButton mGainsButton;
 
   private ColorSwatchButton mLossesButton;
@@ -87,9 +100,15 @@ public class IdeogramDialog extends ModernDialogHelpWindow
    * Setup.
    */
   private void setup() {
-    mGenomeMap.get(mGenomeMap.keySet().iterator().next()).setSelected(true);
+    String genome = GenomeCatalog.getInstance().getRecentGenome();
 
-    setSize(480, 360);
+    if (genome != null) {
+      mGenomeMap.get(genome).setSelected(true);
+    } else if (!mGenomeMap.isEmpty()) {
+      mGenomeMap.get(mGenomeMap.keySet().iterator().next()).setSelected(true);
+    }
+
+    setSize(480, 520);
 
     addWindowFocusListener(new WindowWidgetFocusEvents(mOkButton));
 
@@ -110,21 +129,10 @@ public class IdeogramDialog extends ModernDialogHelpWindow
 
     ModernButtonGroup group = new ModernButtonGroup();
 
-    // create a list of the genomes
-
-    File[] files = IdeogramModule.RES_DIR.listFiles();
+    // The catalog is indexed in the background when the module loads so
+    // opening the dialog does not touch the disk
 
-    List<String> genomes = new ArrayList<String>();
-
-    for (File file : files) {
-      if (!file.isDirectory()) {
-        continue;
-      }
-
-      genomes.add(file.getName());
-    }
-
-    Collections.sort(genomes);
+    List<String> genomes = GenomeCatalog.getInstance().getGenomes();
 
     for (String genome : genomes) {
 
@@ -138,6 +146,31 @@ public class IdeogramDialog extends ModernDialogHelpWindow
       group.add(button);
     }
 
+    midSectionHeader("Layout", box);
+
+    group = new ModernButtonGroup();
+
+    box.add(mSampleRowsButton);
+    box.add(UI.createVGap(5));
+    box.add(mPackedLanesButton);
+
+    group.add(mSampleRowsButton);
+    group.add(mPackedLanesButton);
+
+    midSectionHeader("Display", box);
+
+    group = new ModernButtonGroup();
+
+    box.add(mSegmentsButton);
+    box.add(UI.createVGap(5));
+    box.add(mFrequencyButton);
+
+    group.add(mSegmentsButton);
+    group.add(mFrequencyButton);
+
+    box.add(UI.createVGap(5));
+    box.add(mHeatmapCheck);
+
     midSectionHeader("Colors", box);
 
     mGainsButton = new ColorSwatchButton(getParentWindow(), gainColor);
@@ -161,6 +194,37 @@ public class IdeogramDialog extends ModernDialogHelpWindow
     return null;
   }
 
+  /**
+   * Returns whether each sample should have its own row or segments should
+   * be packed into shared lanes.
+   * 
+   * @return
+   */
+  public LaneMode getLaneMode() {
+    return mPackedLanesButton.isSelected() ? LaneMode.PACKED : LaneMode.SAMPLE;
+  }
+
+  /**
+   * Returns whether to draw individual segments or the frequency of gains
+   * and losses.
+   * 
+   * @return
+   */
+  public TrackMode getTrackMode() {
+    return mFrequencyButton.isSelected() ? TrackMode.FREQUENCY
+        : TrackMode.SEGMENTS;
+  }
+
+  /**
+   * Returns whether the cytobands should be colored by how often each band
+   * is gained or lost.
+   * 
+   * @return
+   */
+  public boolean getBandHeatmap() {
+    return mHeatmapCheck.isSelected();
+  }
+
   public Color getGainColor() {
     return mGainsButton.getSelectedColor();
   }
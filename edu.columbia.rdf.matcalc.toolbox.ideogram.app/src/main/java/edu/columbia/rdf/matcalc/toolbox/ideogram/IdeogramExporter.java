@@ -0,0 +1,449 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+
+/**
+ * Writes an ideogram straight to SVG or PDF from the computed layout and
+ * cytobands without creating a {@link CytobandsFigure}. Only the track being
+ * written is ever held in memory. Within each track the segments of every
+ * lane are coalesced to the pixel scale, as on screen, and written as a
+ * single path since they share a color; the bands of each stain are
+ * likewise written as one path per chromosome.
+ * 
+ * The page is laid out on the same grid as {@link CytobandsFigure}: each row
+ * of chromosomes has a gains, bands and losses row, columns are as wide as
+ * their widest plot and gains sit against the bands.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class IdeogramExporter {
+  private static final int LABEL_SIZE = 12;
+
+  private static final double SEGMENT_STROKE = 2;
+
+  private static final Color BAND_OUTLINE = Color.BLACK;
+
+  private final GenomeAnnotation mAnnotation;
+
+  private final Color mGainColor;
+
+  private final Color mLossColor;
+
+  /**
+   * Chromosomes of each row of the page.
+   */
+  private final Chromosome[][] mRows;
+
+  private final int mMaxLength;
+
+  public IdeogramExporter(GenomeAnnotation annotation, Color gainColor,
+      Color lossColor) {
+    mAnnotation = annotation;
+    mGainColor = gainColor;
+    mLossColor = lossColor;
+    mRows = CytobandsFigure.packRows(annotation);
+    mMaxLength = annotation.getMaxSize();
+  }
+
+  /**
+   * Write the segments of a layout to a file. The format is chosen from the
+   * file extension, pdf or svg.
+   * 
+   * @param layout
+   * @param file
+   * @throws IOException
+   */
+  public void write(final SegmentLayout layout, Path file)
+      throws IOException {
+    OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+
+    try {
+      export(layout, createCanvas(file, out));
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Write the frequency profiles of a layout to a file. The format is chosen
+   * from the file extension, pdf or svg.
+   * 
+   * @param frequencies
+   * @param file
+   * @throws IOException
+   */
+  public void write(final FrequencyLayout frequencies, Path file)
+      throws IOException {
+    OutputStream out = new BufferedOutputStream(Files.newOutputStream(file));
+
+    try {
+      export(frequencies, createCanvas(file, out));
+    } finally {
+      out.close();
+    }
+  }
+
+  /**
+   * Returns whether a file can be written directly, i.e. it is an SVG or
+   * PDF file.
+   * 
+   * @param file
+   * @return
+   */
+  public static boolean canWrite(Path file) {
+    String name = file.getFileName().toString().toLowerCase();
+
+    return name.endsWith(".svg") || name.endsWith(".pdf");
+  }
+
+  private static VectorCanvas createCanvas(Path file, OutputStream out)
+      throws IOException {
+    String name = file.getFileName().toString().toLowerCase();
+
+    if (name.endsWith(".pdf")) {
+      return new PdfCanvas(out);
+    }
+
+    if (name.endsWith(".svg")) {
+      return new SvgCanvas(out);
+    }
+
+    throw new IOException(file + " is not an SVG or PDF file.");
+  }
+
+  public void export(final SegmentLayout layout, VectorCanvas canvas)
+      throws IOException {
+    export(layout, null, canvas);
+  }
+
+  public void export(final FrequencyLayout frequencies, VectorCanvas canvas)
+      throws IOException {
+    export(null, frequencies, canvas);
+  }
+
+  private void export(final SegmentLayout layout,
+      final FrequencyLayout frequencies,
+      VectorCanvas canvas) throws IOException {
+    int columns = CytobandsFigure.COLUMNS;
+
+    //
+    // Measure the grid
+    //
+
+    int[] columnWidths = new int[columns];
+    int[] gainHeights = new int[mRows.length];
+    int[] lossHeights = new int[mRows.length];
+
+    for (int r = 0; r < mRows.length; ++r) {
+      for (int c = 0; c < mRows[r].length; ++c) {
+        Chromosome chr = mRows[r][c];
+
+        columnWidths[c] = Math.max(columnWidths[c],
+            CytobandsFigure.LEFT_MARGIN + getWidth(chr)
+                + CytobandsFigure.OFFSET);
+
+        gainHeights[r] = Math.max(gainHeights[r],
+            getHeight(layout, frequencies, chr, true));
+        lossHeights[r] = Math.max(lossHeights[r],
+            getHeight(layout, frequencies, chr, false));
+      }
+    }
+
+    int width = 0;
+
+    for (int w : columnWidths) {
+      width += w;
+    }
+
+    int height = 0;
+
+    for (int r = 0; r < mRows.length; ++r) {
+      height += gainHeights[r] + CytobandsFigure.BAND_HEIGHT + lossHeights[r]
+          + CytobandsFigure.OFFSET;
+    }
+
+    canvas.begin(width, height);
+
+    //
+    // Draw each row
+    //
+
+    int y = 0;
+
+    for (int r = 0; r < mRows.length; ++r) {
+      int x = 0;
+
+      for (int c = 0; c < mRows[r].length; ++c) {
+        Chromosome chr = mRows[r][c];
+
+        int left = x + CytobandsFigure.LEFT_MARGIN;
+        int w = getWidth(chr);
+
+        int bandTop = y + gainHeights[r];
+        int lossTop = bandTop + CytobandsFigure.BAND_HEIGHT;
+
+        // Gains are aligned to the bottom of their row and losses to the
+        // top so both sit against the bands
+        int gainHeight = getHeight(layout, frequencies, chr, true);
+        int lossHeight = getHeight(layout, frequencies, chr, false);
+
+        if (frequencies != null) {
+          double max = maxFrequency(frequencies);
+
+          writeProfile(canvas, frequencies.getGains().get(chr), chr, left,
+              bandTop - gainHeight, w, gainHeight, 0, max, mGainColor, 1);
+          writeProfile(canvas, frequencies.getLosses().get(chr), chr, left,
+              lossTop, w, lossHeight, -max, 0, mLossColor, -1);
+        } else {
+          SegmentView gains = layout.getGains().get(chr);
+          SegmentView losses = layout.getLosses().get(chr);
+
+          if (gains != null) {
+            writeSegments(canvas, gains, chr, left, bandTop - gainHeight, w,
+                gainHeight, 0, gains.getMaxY() + 1, mGainColor);
+          }
+
+          if (losses != null) {
+            writeSegments(canvas, losses, chr, left, lossTop, w, lossHeight,
+                losses.getMinY() - 1, 0, mLossColor);
+          }
+        }
+
+        writeBands(canvas, chr, left, bandTop, w);
+
+        x += columnWidths[c];
+      }
+
+      y += gainHeights[r] + CytobandsFigure.BAND_HEIGHT + lossHeights[r]
+          + CytobandsFigure.OFFSET;
+    }
+
+    canvas.end();
+  }
+
+  private int getWidth(Chromosome chr) {
+    return (int) (CytobandsFigure.PLOT_WIDTH * mAnnotation.getSize(chr)
+        / mMaxLength);
+  }
+
+  private static int getHeight(final SegmentLayout layout,
+      final FrequencyLayout frequencies,
+      Chromosome chr,
+      boolean gain) {
+    if (frequencies != null) {
+      return CytobandsFigure.FREQUENCY_HEIGHT;
+    }
+
+    SegmentView m = gain ? layout.getGains().get(chr)
+        : layout.getLosses().get(chr);
+
+    if (m == null) {
+      return CytobandsFigure.PLOT_ROW_HEIGHT;
+    }
+
+    return CytobandsFigure.PLOT_ROW_HEIGHT * m.getLaneCount();
+  }
+
+  private static double maxFrequency(final FrequencyLayout frequencies) {
+    double max = 0;
+
+    for (FrequencyProfile profile : frequencies.getGains().values()) {
+      max = Math.max(max, profile.getMaxFrequency());
+    }
+
+    for (FrequencyProfile profile : frequencies.getLosses().values()) {
+      max = Math.max(max, profile.getMaxFrequency());
+    }
+
+    return max > 0 ? max : 1;
+  }
+
+  /**
+   * Write the segments of a track as one path with a subpath per coalesced
+   * span.
+   */
+  private void writeSegments(VectorCanvas canvas,
+      final SegmentView m,
+      Chromosome chr,
+      int left,
+      int top,
+      int w,
+      int h,
+      double yMin,
+      double yMax,
+      Color color) throws IOException {
+    SegmentsLayer layer = new SegmentsLayer(m, color);
+
+    if (layer.getLaneCount() == 0) {
+      return;
+    }
+
+    int size = mAnnotation.getSize(chr);
+
+    int width = toX(layer.getMaxEnd(), left, w, size) - left;
+
+    if (width <= 0) {
+      return;
+    }
+
+    layer.coalesce(width);
+
+    canvas.beginPath(color, SEGMENT_STROKE);
+
+    for (int l = 0; l < layer.getLaneCount(); ++l) {
+      int y = toY(layer.getLaneY(l), top, h, yMin, yMax);
+
+      for (int i = layer.getSpanOffset(l); i < layer
+          .getSpanOffset(l + 1); ++i) {
+        canvas.moveTo(toX(layer.getSpanStart(i), left, w, size), y);
+        canvas.lineTo(toX(layer.getSpanEnd(i), left, w, size), y);
+      }
+    }
+
+    canvas.endPath();
+  }
+
+  /**
+   * Write a frequency profile as a filled step path.
+   */
+  private void writeProfile(VectorCanvas canvas,
+      final FrequencyProfile profile,
+      Chromosome chr,
+      int left,
+      int top,
+      int w,
+      int h,
+      double yMin,
+      double yMax,
+      Color color,
+      int sign) throws IOException {
+    if (profile == null || profile.getStepCount() == 0) {
+      return;
+    }
+
+    int size = mAnnotation.getSize(chr);
+    int steps = profile.getStepCount();
+    int y0 = toY(0, top, h, yMin, yMax);
+
+    canvas.beginPath(color, 0);
+
+    int px = toX(profile.getPosition(0), left, w, size);
+    int py = y0;
+
+    canvas.moveTo(px, py);
+
+    // Most steps are narrower than a pixel so only write the points that
+    // move the outline
+    for (int k = 0; k < steps - 1; ++k) {
+      int y = toY(sign * profile.getFrequency(k), top, h, yMin, yMax);
+      int x1 = toX(profile.getPosition(k), left, w, size);
+      int x2 = toX(profile.getPosition(k + 1), left, w, size);
+
+      if (x1 != px || y != py) {
+        canvas.lineTo(x1, y);
+      }
+
+      if (x2 != x1) {
+        canvas.lineTo(x2, y);
+      }
+
+      px = x2;
+      py = y;
+    }
+
+    canvas.lineTo(toX(profile.getPosition(steps - 1), left, w, size), y0);
+    canvas.closePath();
+    canvas.endPath();
+  }
+
+  /**
+   * Write the cytobands of a chromosome with one path per stain, then the
+   * chromosome outline and label.
+   */
+  private void writeBands(VectorCanvas canvas,
+      Chromosome chr,
+      int left,
+      int top,
+      int w) throws IOException {
+    int size = mAnnotation.getSize(chr);
+    int h = CytobandsFigure.BAND_HEIGHT;
+
+    String name = chr.toString();
+
+    for (String stain : BandsLayer.STAINS) {
+      Color color = BandsLayer.getStainColor(stain);
+
+      boolean started = false;
+
+      for (int i = 0; i < mAnnotation.getBandCount(); ++i) {
+        if (!mAnnotation.getBandChr(i).equals(name)
+            || !mAnnotation.getBandStain(i).equals(stain)) {
+          continue;
+        }
+
+        if (!started) {
+          canvas.beginPath(color, 0);
+          started = true;
+        }
+
+        int x1 = toX(mAnnotation.getBandStart(i), left, w, size);
+        int x2 = toX(mAnnotation.getBandEnd(i), left, w, size);
+
+        canvas.rect(x1, top, x2 - x1, h);
+      }
+
+      if (started) {
+        canvas.endPath();
+      }
+    }
+
+    canvas.beginPath(BAND_OUTLINE, 1);
+    canvas.rect(left, top, w, h);
+    canvas.endPath();
+
+    canvas.text(name, left - 60, top + h - 5, LABEL_SIZE, Color.BLACK);
+  }
+
+  private static int toX(double x, int left, int w, int size) {
+    return left + (int) (w * x / size);
+  }
+
+  private static int toY(double y, int top, int h, double yMin, double yMax) {
+    return top + h - (int) (h * (y - yMin) / (yMax - yMin));
+  }
+}
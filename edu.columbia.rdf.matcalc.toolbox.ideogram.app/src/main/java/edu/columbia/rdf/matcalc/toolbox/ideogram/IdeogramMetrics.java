@@ -0,0 +1,294 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import org.jebtk.core.settings.SettingsService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the wall time, rows processed and bytes allocated by each stage of
+ * an ideogram build. Allocations are measured per thread with the
+ * {@link com.sun.management.ThreadMXBean} where the JVM supports it, so
+ * stages that run on several threads report the sum over their threads.
+ * 
+ * Metrics are off unless the ideogram.metrics.enabled setting is set or
+ * they are enabled through JMX. When ideogram.metrics.log is set a summary of
+ * the stages since the previous summary is logged after each build.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class IdeogramMetrics implements IdeogramMetricsMBean {
+  private static class IdeogramMetricsLoader {
+    private static final IdeogramMetrics INSTANCE = new IdeogramMetrics();
+  }
+
+  public static IdeogramMetrics getInstance() {
+    return IdeogramMetricsLoader.INSTANCE;
+  }
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(IdeogramMetrics.class);
+
+  private static final String OBJECT_NAME = "edu.columbia.rdf.matcalc.toolbox.ideogram:type=IdeogramMetrics";
+
+  private static final com.sun.management.ThreadMXBean THREAD_BEAN =
+      threadBean();
+
+  /**
+   * Totals of one stage.
+   */
+  private static class Stats {
+    private final LongAdder mCalls = new LongAdder();
+    private final LongAdder mNanos = new LongAdder();
+    private final LongAdder mRows = new LongAdder();
+    private final LongAdder mBytes = new LongAdder();
+
+    /**
+     * Totals at the time of the last logged summary.
+     */
+    private final long[] mLogged = new long[4];
+
+    private long[] totals() {
+      return new long[] { mCalls.sum(), mNanos.sum(), mRows.sum(),
+          mBytes.sum() };
+    }
+
+    private void reset() {
+      mCalls.reset();
+      mNanos.reset();
+      mRows.reset();
+      mBytes.reset();
+    }
+  }
+
+  private final Stats[] mStats = new Stats[MetricStage.values().length];
+
+  private final AtomicLong mRuns = new AtomicLong(0);
+
+  private volatile boolean mEnabled;
+
+  private final boolean mLog;
+
+  private IdeogramMetrics() {
+    for (int i = 0; i < mStats.length; ++i) {
+      mStats[i] = new Stats();
+    }
+
+    mEnabled = SettingsService.getInstance()
+        .getBool("ideogram.metrics.enabled");
+    mLog = SettingsService.getInstance().getBool("ideogram.metrics.log");
+
+    try {
+      ManagementFactory.getPlatformMBeanServer()
+          .registerMBean(this, new ObjectName(OBJECT_NAME));
+    } catch (JMException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Start timing a stage on the current thread.
+   * 
+   * @param stage
+   * @return A timer to stop when the stage completes.
+   */
+  public StageTimer start(MetricStage stage) {
+    if (!mEnabled) {
+      return StageTimer.NONE;
+    }
+
+    return new StageTimer(this, stage);
+  }
+
+  void record(MetricStage stage, long nanos, long rows, long bytes) {
+    Stats stats = mStats[stage.ordinal()];
+
+    stats.mCalls.increment();
+    stats.mNanos.add(nanos);
+    stats.mRows.add(rows);
+    stats.mBytes.add(bytes);
+  }
+
+  /**
+   * Called when a build completes. Logs the stages recorded since the
+   * previous summary if logging is enabled.
+   */
+  public void endRun() {
+    if (!mEnabled) {
+      return;
+    }
+
+    mRuns.incrementAndGet();
+
+    if (mLog) {
+      LOG.info("Ideogram stages:\n{}", summary(true));
+    }
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return mEnabled;
+  }
+
+  @Override
+  public void setEnabled(boolean enabled) {
+    mEnabled = enabled;
+  }
+
+  @Override
+  public long getRuns() {
+    return mRuns.get();
+  }
+
+  @Override
+  public String getSummary() {
+    return summary(false);
+  }
+
+  @Override
+  public long getCalls(String stage) {
+    return stats(stage).mCalls.sum();
+  }
+
+  @Override
+  public double getMillis(String stage) {
+    return stats(stage).mNanos.sum() / 1e6;
+  }
+
+  @Override
+  public long getRows(String stage) {
+    return stats(stage).mRows.sum();
+  }
+
+  @Override
+  public long getAllocatedBytes(String stage) {
+    return stats(stage).mBytes.sum();
+  }
+
+  @Override
+  public synchronized void reset() {
+    for (Stats stats : mStats) {
+      stats.reset();
+
+      Arrays.fill(stats.mLogged, 0);
+    }
+
+    mRuns.set(0);
+  }
+
+  private Stats stats(String stage) {
+    return mStats[MetricStage.valueOf(stage.toUpperCase()).ordinal()];
+  }
+
+  /**
+   * Format a table of the stages.
+   * 
+   * @param sinceLogged Whether to report only what was recorded since the
+   *          last logged summary.
+   * @return
+   */
+  private synchronized String summary(boolean sinceLogged) {
+    StringBuilder buffer = new StringBuilder();
+
+    buffer.append(String.format("%-12s %8s %12s %12s %14s",
+        "stage",
+        "calls",
+        "ms",
+        "rows",
+        "alloc bytes"));
+
+    for (MetricStage stage : MetricStage.values()) {
+      Stats stats = mStats[stage.ordinal()];
+
+      long[] totals = stats.totals();
+      long[] values = totals.clone();
+
+      if (sinceLogged) {
+        for (int i = 0; i < values.length; ++i) {
+          values[i] -= stats.mLogged[i];
+        }
+
+        System.arraycopy(totals, 0, stats.mLogged, 0, totals.length);
+      }
+
+      buffer.append('\n');
+      buffer.append(String.format("%-12s %8d %12.1f %12d %14d",
+          stage.name().toLowerCase(),
+          values[0],
+          values[1] / 1e6,
+          values[2],
+          values[3]));
+    }
+
+    return buffer.toString();
+  }
+
+  /**
+   * Returns the bytes allocated so far by the current thread or 0 if the
+   * JVM cannot measure allocations.
+   * 
+   * @return
+   */
+  static long allocatedBytes() {
+    if (THREAD_BEAN == null) {
+      return 0;
+    }
+
+    return THREAD_BEAN.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private static com.sun.management.ThreadMXBean threadBean() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory
+        .getThreadMXBean();
+
+    if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+      return null;
+    }
+
+    com.sun.management.ThreadMXBean sunBean =
+        (com.sun.management.ThreadMXBean) bean;
+
+    if (!sunBean.isThreadAllocatedMemorySupported()) {
+      return null;
+    }
+
+    sunBean.setThreadAllocatedMemoryEnabled(true);
+
+    return sunBean;
+  }
+}
@@ -27,22 +27,30 @@
  */
 package edu.columbia.rdf.matcalc.toolbox.ideogram;
 
+import java.awt.Color;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.io.File;
-import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JFileChooser;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.Timer;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
-import org.jebtk.bioinformatics.ext.ucsc.CytobandsService;
 import org.jebtk.bioinformatics.genomic.Chromosome;
-import org.jebtk.bioinformatics.genomic.ChromosomeService;
 import org.jebtk.bioinformatics.genomic.Genome;
 import org.jebtk.bioinformatics.genomic.GenomeService;
-import org.jebtk.bioinformatics.genomic.Human;
-import org.jebtk.core.Resources;
-import org.jebtk.core.collections.CollectionUtils;
 import org.jebtk.core.settings.SettingsService;
 import org.jebtk.graphplot.figure.Figure;
 import org.jebtk.math.matrix.DataFrame;
@@ -78,6 +86,34 @@ public class IdeogramModule extends Module implements ModernClickListener {
   private RibbonLargeButton mButtonIdeogram = new RibbonLargeButton("Ideogram",
       AssetService.getInstance().loadIcon(IdeogramIcon.class, 24));
 
+  /**
+   * Creates an ideogram by streaming a segment file rather than from the
+   * current matrix.
+   */
+  private RibbonLargeButton mButtonFile = new RibbonLargeButton("From File",
+      AssetService.getInstance().loadIcon(IdeogramIcon.class, 24));
+
+  /**
+   * Compares several cohorts on one ideogram.
+   */
+  private RibbonLargeButton mButtonCompare = new RibbonLargeButton("Compare",
+      AssetService.getInstance().loadIcon(IdeogramIcon.class, 24));
+
+  /**
+   * Saves the current matrix as a binary segment file.
+   */
+  private RibbonLargeButton mButtonExport = new RibbonLargeButton(
+      "Export Segments",
+      AssetService.getInstance().loadIcon(IdeogramIcon.class, 24));
+
+  /**
+   * Counts the samples gaining and losing each cytoband.
+   */
+  private RibbonLargeButton mButtonBands = new RibbonLargeButton("Cytobands",
+      AssetService.getInstance().loadIcon(IdeogramIcon.class, 24));
+
+  private JFileChooser mFileChooser;
+
   /**
    * The member window.
    */
@@ -85,6 +121,20 @@ public class IdeogramModule extends Module implements ModernClickListener {
 
   private Graph2dWindow mGraphWindow;
 
+  /**
+   * Layouts of the last ideogram, kept so that creating the ideogram again
+   * after editing the matrix only recomputes the chromosomes that changed.
+   */
+  private final PartitionCache<SegmentView> mLayoutCache = new PartitionCache<SegmentView>();
+
+  private final PartitionCache<FrequencyProfile> mFrequencyCache = new PartitionCache<FrequencyProfile>();
+
+  /**
+   * The task running in the background, if any. Only one task runs at a
+   * time since tasks share the caches above.
+   */
+  private ProgressTask<?> mTask;
+
   /*
    * (non-Javadoc)
    * 
@@ -106,13 +156,40 @@ public class IdeogramModule extends Module implements ModernClickListener {
   public void init(MainMatCalcWindow window) {
     mWindow = window;
 
+    // Index the genomes and load the last one used before the user asks
+    // for an ideogram
+    GenomeCatalog.getInstance().start();
+
     // home
     mButtonIdeogram.setToolTip(
         new ModernToolTip(NAME, "Generate ideogram for losses and gains."));
     mWindow.getRibbon().getHomeToolbar().getSection("Tools")
         .add(mButtonIdeogram);
 
+    mButtonFile.setToolTip(new ModernToolTip("Ideogram from file",
+        "Generate ideogram directly from a SEG or BED file."));
+    mWindow.getRibbon().getHomeToolbar().getSection("Tools").add(mButtonFile);
+
+    mButtonCompare.setToolTip(new ModernToolTip("Compare cohorts",
+        "Generate one ideogram comparing several SEG or BED files."));
+    mWindow.getRibbon().getHomeToolbar().getSection("Tools")
+        .add(mButtonCompare);
+
+    mButtonExport.setToolTip(new ModernToolTip("Export segments",
+        "Save the segments as a binary file for fast reloading."));
+    mWindow.getRibbon().getHomeToolbar().getSection("Tools")
+        .add(mButtonExport);
+
+    mButtonBands.setToolTip(new ModernToolTip("Cytoband frequencies",
+        "Count the samples gaining and losing each cytoband."));
+    mWindow.getRibbon().getHomeToolbar().getSection("Tools")
+        .add(mButtonBands);
+
     mButtonIdeogram.addClickListener(this);
+    mButtonFile.addClickListener(this);
+    mButtonCompare.addClickListener(this);
+    mButtonExport.addClickListener(this);
+    mButtonBands.addClickListener(this);
   }
 
   /*
@@ -124,14 +201,87 @@ public class IdeogramModule extends Module implements ModernClickListener {
    */
   @Override
   public final void clicked(ModernClickEvent e) {
-    try {
+    if (e.getSource().equals(mButtonFile)) {
+      ideogramFromFile();
+    } else if (e.getSource().equals(mButtonCompare)) {
+      compare();
+    } else if (e.getSource().equals(mButtonExport)) {
+      export();
+    } else if (e.getSource().equals(mButtonBands)) {
+      bands();
+    } else {
       ideogram();
-    } catch (IOException e1) {
-      e1.printStackTrace();
     }
   }
 
-  private void ideogram() throws IOException {
+  private void ideogram() {
+    DataFrame m = mWindow.getCurrentMatrix();
+
+    if (m == null) {
+      showLoadMatrixError(mWindow);
+
+      return;
+    }
+
+    Map<String, Integer> idColumns = findColumns(mWindow,
+        m,
+        "id",
+        "chr",
+        "start",
+        "end",
+        "mean");
+
+    if (idColumns == null) {
+      return;
+    }
+
+    IdeogramDialog dialog = showDialog();
+
+    if (dialog == null) {
+      return;
+    }
+
+    Genome genome = GenomeService.getInstance().guessGenome(dialog.getGenome());
+
+    IdeogramTask task = new IdeogramTask(
+        Collections.singletonList(new Cohort(NAME, m, idColumns)), genome,
+        dialog.getLaneMode(), dialog.getTrackMode(), dialog.getBandHeatmap(),
+        dialog.getGainColor(), dialog.getLossColor());
+
+    start(task);
+  }
+
+  /**
+   * Streams a segment file straight into the layout so that large files
+   * never have to be held in memory as a matrix.
+   */
+  private void ideogramFromFile() {
+    List<Cohort> cohorts = chooseFiles(false);
+
+    if (cohorts.isEmpty()) {
+      return;
+    }
+
+    IdeogramDialog dialog = showDialog();
+
+    if (dialog == null) {
+      return;
+    }
+
+    Genome genome = GenomeService.getInstance().guessGenome(dialog.getGenome());
+
+    IdeogramTask task = new IdeogramTask(cohorts, genome,
+        dialog.getLaneMode(), dialog.getTrackMode(), dialog.getBandHeatmap(),
+        dialog.getGainColor(), dialog.getLossColor());
+
+    start(task);
+  }
+
+  /**
+   * Save the segments of the current matrix as a binary segment file. The
+   * file is written in the background.
+   */
+  private void export() {
     DataFrame m = mWindow.getCurrentMatrix();
 
     if (m == null) {
@@ -152,6 +302,136 @@ public class IdeogramModule extends Module implements ModernClickListener {
       return;
     }
 
+    // Only the genome is needed to know which chromosomes to keep
+    String genome = showGenomeDialog("Export segments");
+
+    if (genome == null) {
+      return;
+    }
+
+    JFileChooser chooser = new JFileChooser();
+    chooser.setFileFilter(new FileNameExtensionFilter(
+        "Binary segment files (*." + SegmentFile.EXTENSION + ")",
+        SegmentFile.EXTENSION));
+
+    if (chooser.showSaveDialog(mWindow) != JFileChooser.APPROVE_OPTION) {
+      return;
+    }
+
+    Path file = chooser.getSelectedFile().toPath();
+
+    if (!file.getFileName().toString()
+        .endsWith("." + SegmentFile.EXTENSION)) {
+      file = file.resolveSibling(
+          file.getFileName() + "." + SegmentFile.EXTENSION);
+    }
+
+    start(new ExportTask(m, idColumns,
+        GenomeService.getInstance().guessGenome(genome), file));
+  }
+
+  /**
+   * Add a table of how many samples gain and lose each cytoband of the
+   * chosen genome. The bands are counted in the background.
+   */
+  private void bands() {
+    DataFrame m = mWindow.getCurrentMatrix();
+
+    if (m == null) {
+      showLoadMatrixError(mWindow);
+
+      return;
+    }
+
+    Map<String, Integer> idColumns = findColumns(mWindow,
+        m,
+        "id",
+        "chr",
+        "start",
+        "end",
+        "mean");
+
+    if (idColumns == null) {
+      return;
+    }
+
+    String genome = showGenomeDialog("Cytoband frequencies");
+
+    if (genome == null) {
+      return;
+    }
+
+    start(new BandsTask(m, idColumns,
+        GenomeService.getInstance().guessGenome(genome)));
+  }
+
+  /**
+   * Draws several segment files as cohorts around shared band tracks. The
+   * cohorts are laid out concurrently.
+   */
+  private void compare() {
+    List<Cohort> cohorts = chooseFiles(true);
+
+    if (cohorts.isEmpty()) {
+      return;
+    }
+
+    IdeogramDialog dialog = showDialog();
+
+    if (dialog == null) {
+      return;
+    }
+
+    Genome genome = GenomeService.getInstance().guessGenome(dialog.getGenome());
+
+    IdeogramTask task = new IdeogramTask(cohorts, genome,
+        dialog.getLaneMode(), dialog.getTrackMode(), dialog.getBandHeatmap(),
+        dialog.getGainColor(), dialog.getLossColor());
+
+    start(task);
+  }
+
+  /**
+   * Ask the user for one or more segment files.
+   * 
+   * @param multiple Whether several files can be chosen.
+   * @return A cohort for each file, named after the file, or an empty list
+   *         if the user cancelled.
+   */
+  private List<Cohort> chooseFiles(boolean multiple) {
+    if (mFileChooser == null) {
+      mFileChooser = new JFileChooser();
+      mFileChooser.setFileFilter(new FileNameExtensionFilter(
+          "Segment files (*.seg, *.bed, *.txt, *.tsv, *.segb)", "seg", "bed",
+          "txt", "tsv", SegmentFile.EXTENSION));
+    }
+
+    mFileChooser.setMultiSelectionEnabled(multiple);
+
+    List<Cohort> cohorts = new ArrayList<Cohort>();
+
+    if (mFileChooser.showOpenDialog(mWindow) != JFileChooser.APPROVE_OPTION) {
+      return cohorts;
+    }
+
+    File[] files = multiple ? mFileChooser.getSelectedFiles()
+        : new File[] { mFileChooser.getSelectedFile() };
+
+    for (File file : files) {
+      Path path = file.toPath();
+
+      cohorts.add(new Cohort(path.getFileName().toString(), path));
+    }
+
+    return cohorts;
+  }
+
+  /**
+   * Show the ideogram options and save the chosen colors.
+   * 
+   * @return The dialog or null if it was cancelled.
+   */
+  private IdeogramDialog showDialog() {
     IdeogramDialog dialog = new IdeogramDialog(mWindow,
         SettingsService.getInstance().getColor("ideogram.gains.color"),
         SettingsService.getInstance().getColor("ideogram.losses.color"));
@@ -159,7 +439,7 @@ public class IdeogramModule extends Module implements ModernClickListener {
     dialog.setVisible(true);
 
     if (dialog.getStatus() == ModernDialogStatus.CANCEL) {
-      return;
+      return null;
     }
 
     // Save the colors as settings
@@ -169,216 +449,461 @@ public class IdeogramModule extends Module implements ModernClickListener {
     SettingsService.getInstance().update("ideogram.losses.color",
         dialog.getLossColor());
 
-    Genome genome = GenomeService.getInstance().guessGenome(dialog.getGenome());
+    GenomeCatalog.getInstance().setRecentGenome(dialog.getGenome());
 
-    loadGenomeData(genome);
+    return dialog;
+  }
 
-    Map<Chromosome, Integer> sampleYGain = new HashMap<Chromosome, Integer>();
+  /**
+   * Ask for the reference genome only.
+   * 
+   * @param title
+   * @return The genome or null if the dialog was cancelled.
+   */
+  private String showGenomeDialog(String title) {
+    GenomeDialog dialog = new GenomeDialog(mWindow, title);
+
+    dialog.setVisible(true);
+
+    if (dialog.getStatus() == ModernDialogStatus.CANCEL) {
+      return null;
+    }
 
-    Map<Chromosome, Integer> sampleYLoss = new HashMap<Chromosome, Integer>();
+    GenomeCatalog.getInstance().setRecentGenome(dialog.getGenome());
+
+    return dialog.getGenome();
+  }
 
-    Map<Chromosome, Map<String, Integer>> yMapGain = new HashMap<Chromosome, Map<String, Integer>>();
+  /**
+   * Run a task in the background unless one is already running. The
+   * ideogram buttons are disabled until it finishes.
+   * 
+   * @param task
+   */
+  private void start(ProgressTask<?> task) {
+    if (mTask != null && mTask.isRunning()) {
+      return;
+    }
 
-    Map<Chromosome, Integer> rowCountGain = new HashMap<Chromosome, Integer>();
+    mTask = task;
 
-    Map<Chromosome, Map<String, Integer>> yMapLoss = new HashMap<Chromosome, Map<String, Integer>>();
+    setBusy(true);
 
-    Map<Chromosome, Integer> rowCountLoss = new HashMap<Chromosome, Integer>();
+    task.start();
+  }
 
-    for (Chromosome chr : Human.CHROMOSOMES) {
-      sampleYGain.put(chr, 1);
-      sampleYLoss.put(chr, 1);
+  /**
+   * Called on the event dispatch thread once a task has stopped running.
+   * 
+   * @param task
+   */
+  private void stopped(ProgressTask<?> task) {
+    if (task == mTask) {
+      setBusy(false);
     }
+  }
 
-    for (int i = 0; i < m.getRows(); ++i) {
-      Chromosome chr = ChromosomeService.getInstance()
-          .chr(genome, m.getText(i, idColumns.get("chr")));
+  /**
+   * Describes how many segments a build coalesced, or returns an empty
+   * string if it coalesced none.
+   * 
+   * @param coalesced
+   * @return
+   */
+  private static String coalesced(long coalesced) {
+    if (coalesced == 0) {
+      return "";
+    }
 
-      double mean = m.getValue(i, idColumns.get("mean"));
+    return " (" + coalesced + " segments coalesced)";
+  }
 
-      if (mean >= 0) {
-        if (!rowCountGain.containsKey(chr)) {
-          rowCountGain.put(chr, 0);
+  private void setBusy(boolean busy) {
+    mButtonIdeogram.setEnabled(!busy);
+    mButtonFile.setEnabled(!busy);
+    mButtonCompare.setEnabled(!busy);
+    mButtonExport.setEnabled(!busy);
+    mButtonBands.setEnabled(!busy);
+  }
+
+  /**
+   * Runs part of the toolbox on a background thread behind a progress
+   * monitor. Cancelling the monitor cancels the task, which the stages of
+   * the build notice through {@link #isCancelled()} between partitions and
+   * chromosomes. The result is handled on the event dispatch thread.
+   * 
+   * A cancelled worker reports that it is done straight away, while the
+   * build may still be finishing its current stage, so the task tracks
+   * when {@link #compute()} actually returns and only then frees the
+   * buttons for another build.
+   */
+  private abstract class ProgressTask<T> extends SwingWorker<T, String>
+      implements IdeogramProgress {
+
+    /**
+     * How often the monitor is checked for cancellation.
+     */
+    private static final int CANCEL_POLL_MS = 200;
+
+    private final ProgressMonitor mMonitor;
+
+    private final Timer mCancelTimer;
+
+    /**
+     * Whether {@link #compute()} was called.
+     */
+    private boolean mStarted = false;
+
+    /**
+     * Whether the task has stopped running, either because
+     * {@link #compute()} returned or because it was cancelled before it was
+     * called.
+     */
+    private boolean mStopped = false;
+
+    public ProgressTask(String message) {
+      mMonitor = new ProgressMonitor(mWindow, message, "", 0, 100);
+      mMonitor.setMillisToDecideToPopup(250);
+
+      // The monitor is only updated when progress is published, which may
+      // not happen for a while, so poll it for cancellation
+      mCancelTimer = new Timer(CANCEL_POLL_MS, new ActionListener() {
+        @Override
+        public void actionPerformed(ActionEvent e) {
+          if (mMonitor.isCanceled()) {
+            cancel(false);
+          }
         }
+      });
+    }
 
-        rowCountGain.put(chr, rowCountGain.get(chr) + 1);
-      } else {
-        if (!rowCountLoss.containsKey(chr)) {
-          rowCountLoss.put(chr, 0);
+    public void start() {
+      mCancelTimer.start();
+
+      execute();
+    }
+
+    /**
+     * Returns true until the task has stopped running. Unlike
+     * {@link #isDone()} this stays true after the task is cancelled until
+     * {@link #compute()} has returned.
+     * 
+     * @return
+     */
+    public synchronized boolean isRunning() {
+      return !mStopped;
+    }
+
+    @Override
+    protected final T doInBackground() throws Exception {
+      synchronized (this) {
+        // Cancelled before the worker ran
+        if (isCancelled()) {
+          return null;
         }
 
-        rowCountLoss.put(chr, rowCountLoss.get(chr) + 1);
+        mStarted = true;
+      }
+
+      try {
+        return compute();
+      } finally {
+        stop();
       }
     }
 
-    // create some ms
+    /**
+     * Do the work of the task on a background thread.
+     * 
+     * @return
+     * @throws Exception
+     */
+    protected abstract T compute() throws Exception;
+
+    private void stop() {
+      synchronized (this) {
+        mStopped = true;
+      }
 
-    Map<Chromosome, DataFrame> matrixMapGain = new HashMap<Chromosome, DataFrame>();
+      SwingUtilities.invokeLater(new Runnable() {
+        @Override
+        public void run() {
+          stopped(ProgressTask.this);
+        }
+      });
+    }
 
-    for (Chromosome chr : Human.CHROMOSOMES) {
-      if (rowCountGain.containsKey(chr)) {
-        // The matrix must hold all gains.
-        DataFrame matrix = DataFrame
-            .createNumericalMatrix(rowCountGain.get(chr), 4);
+    /**
+     * Stop between stages if the task was cancelled.
+     */
+    protected void checkCancelled() {
+      if (isCancelled()) {
+        throw new CancellationException();
+      }
+    }
 
-        matrix.setColumnName(0, "Gains x1");
-        matrix.setColumnName(1, "Gains y1");
-        matrix.setColumnName(2, "Gains x2");
-        matrix.setColumnName(3, "Gains y2");
+    @Override
+    public void progress(IdeogramStage stage,
+        Chromosome chr,
+        int done,
+        int total) {
+      // Each stage accounts for half of the progress
+      int p = 50 * done / total;
 
-        matrixMapGain.put(chr, matrix);
+      if (stage == IdeogramStage.FIGURE) {
+        p += 50;
       }
+
+      setProgress(Math.min(p, 100));
+
+      publish((stage == IdeogramStage.LAYOUT ? "Laying out " : "Drawing ")
+          + chr);
     }
 
-    Map<Chromosome, DataFrame> matrixMapLoss = new HashMap<Chromosome, DataFrame>();
+    @Override
+    protected void process(List<String> notes) {
+      mMonitor.setNote(notes.get(notes.size() - 1));
+      mMonitor.setProgress(getProgress());
+    }
 
-    for (Chromosome chr : Human.CHROMOSOMES) {
-      if (rowCountLoss.containsKey(chr)) {
-        DataFrame matrix = DataFrame
-            .createNumericalMatrix(rowCountLoss.get(chr), 4);
+    @Override
+    protected void done() {
+      mCancelTimer.stop();
+      mMonitor.close();
+
+      if (isCancelled()) {
+        // If the build is still running it frees the buttons when it
+        // returns, otherwise it will never run so free them now
+        synchronized (this) {
+          if (mStarted) {
+            return;
+          }
+        }
+
+        stop();
 
-        matrix.setColumnName(0, "Losses x1");
-        matrix.setColumnName(1, "Losses y1");
-        matrix.setColumnName(2, "Losses x2");
-        matrix.setColumnName(3, "Losses y2");
+        return;
+      }
 
-        matrixMapLoss.put(chr, matrix);
+      try {
+        finished(get());
+      } catch (InterruptedException e) {
+        e.printStackTrace();
+      } catch (ExecutionException e) {
+        if (!(e.getCause() instanceof CancellationException)) {
+          e.printStackTrace();
+        }
       }
     }
 
-    // Reset the counters
+    /**
+     * Called on the event dispatch thread with the result of the task.
+     * 
+     * @param result
+     */
+    protected abstract void finished(T result);
+  }
 
-    for (Chromosome chr : rowCountGain.keySet()) {
-      rowCountGain.put(chr, 0);
+  /**
+   * Writes the segments of a matrix to a binary segment file.
+   */
+  private class ExportTask extends ProgressTask<Path> {
+    private final DataFrame mMatrix;
+    private final Map<String, Integer> mIdColumns;
+    private final Genome mGenome;
+    private final Path mFile;
+
+    public ExportTask(DataFrame m, Map<String, Integer> idColumns,
+        Genome genome, Path file) {
+      super("Exporting segments...");
+
+      mMatrix = m;
+      mIdColumns = idColumns;
+      mGenome = genome;
+      mFile = file;
     }
 
-    for (Chromosome chr : rowCountLoss.keySet()) {
-      rowCountLoss.put(chr, 0);
+    @Override
+    protected Path compute() throws Exception {
+      publish("Writing " + mFile.getFileName());
+
+      new IdeogramBuilder(mGenome).setProgress(this)
+          .write(mMatrix, mIdColumns, mFile);
+
+      return mFile;
     }
 
-    // sort by length
+    @Override
+    protected void finished(Path file) {
+      // Nothing to show, the file has been written
+    }
+  }
 
-    Map<Chromosome, Map<Integer, List<Integer>>> orderMapGain = new TreeMap<Chromosome, Map<Integer, List<Integer>>>();
+  /**
+   * Counts the samples gaining and losing each cytoband of a matrix.
+   */
+  private class BandsTask extends ProgressTask<BandFrequencies> {
+    private final DataFrame mMatrix;
+    private final Map<String, Integer> mIdColumns;
+    private final Genome mGenome;
 
-    Map<Chromosome, Map<Integer, List<Integer>>> orderMapLoss = new TreeMap<Chromosome, Map<Integer, List<Integer>>>();
+    private long mCoalesced = 0;
 
-    for (int i = 0; i < m.getRows(); ++i) {
-      Chromosome chr = ChromosomeService.getInstance()
-          .chr(genome, m.getText(i, idColumns.get("chr")));
-      int start = (int) m.getValue(i, idColumns.get("start"));
-      int end = (int) m.getValue(i, idColumns.get("end"));
-      double mean = m.getValue(i, idColumns.get("mean"));
-      int l = end - start + 1;
+    public BandsTask(DataFrame m, Map<String, Integer> idColumns,
+        Genome genome) {
+      super("Counting cytoband frequencies...");
 
-      if (mean >= 0) {
-        if (!orderMapGain.containsKey(chr)) {
-          orderMapGain.put(chr, new TreeMap<Integer, List<Integer>>());
-        }
+      mMatrix = m;
+      mIdColumns = idColumns;
+      mGenome = genome;
+    }
 
-        if (!orderMapGain.get(chr).containsKey(l)) {
-          orderMapGain.get(chr).put(l, new ArrayList<Integer>());
-        }
+    @Override
+    protected BandFrequencies compute() throws Exception {
+      IdeogramBuilder builder = new IdeogramBuilder(mGenome)
+          .setProgress(this);
 
-        orderMapGain.get(chr).get(l).add(i);
-      } else {
-        if (!orderMapLoss.containsKey(chr)) {
-          orderMapLoss.put(chr, new TreeMap<Integer, List<Integer>>());
-        }
+      BandFrequencies ret = builder.bandFrequencies(mMatrix, mIdColumns);
 
-        if (!orderMapLoss.get(chr).containsKey(l)) {
-          orderMapLoss.get(chr).put(l, new ArrayList<Integer>());
-        }
+      mCoalesced = builder.getCoalesced();
 
-        orderMapLoss.get(chr).get(l).add(i);
-      }
+      return ret;
+    }
+
+    @Override
+    protected void finished(BandFrequencies frequencies) {
+      mWindow.addToHistory("Cytoband frequencies" + coalesced(mCoalesced),
+          frequencies.toDataFrame());
     }
+  }
 
-    for (Chromosome chr : orderMapGain.keySet()) {
-      // order largest to smallest
-      List<Integer> lorder = CollectionUtils
-          .reverse(CollectionUtils.sort(orderMapGain.get(chr).keySet()));
+  /**
+   * Lays out the segments and creates the figure on a background thread so
+   * the window stays responsive. Only the final graph window is created on
+   * the event dispatch thread.
+   */
+  private class IdeogramTask extends ProgressTask<Figure> {
+    private final List<Cohort> mCohorts;
+    private final Genome mGenome;
+    private final LaneMode mLaneMode;
+    private final TrackMode mTrackMode;
+    private final boolean mBandHeatmap;
+    private final Color mGainColor;
+    private final Color mLossColor;
+
+    private long mCoalesced = 0;
+
+    /**
+     * Creates an ideogram of one cohort or, if several are given, a
+     * comparison of the cohorts.
+     */
+    public IdeogramTask(List<Cohort> cohorts, Genome genome,
+        LaneMode laneMode, TrackMode trackMode, boolean bandHeatmap,
+        Color gainColor, Color lossColor) {
+      super("Creating ideogram...");
+
+      mCohorts = cohorts;
+      mGenome = genome;
+      mLaneMode = laneMode;
+      mTrackMode = trackMode;
+      mBandHeatmap = bandHeatmap;
+      mGainColor = gainColor;
+      mLossColor = lossColor;
+    }
 
-      for (int l : lorder) {
-        for (int i : orderMapGain.get(chr).get(l)) {
-          String id = m.getText(i, idColumns.get("id"));
-          int start = (int) m.getValue(i, idColumns.get("start"));
-          int end = (int) m.getValue(i, idColumns.get("end"));
+    @Override
+    protected Figure compute() throws Exception {
+      if (mCohorts.size() > 1) {
+        IdeogramBuilder builder = new IdeogramBuilder(mGenome)
+            .setLaneMode(mLaneMode).setProgress(this);
 
-          if (!yMapGain.containsKey(chr)) {
-            yMapGain.put(chr, new HashMap<String, Integer>());
-          }
+        if (mTrackMode == TrackMode.FREQUENCY) {
+          FrequencyLayout[] frequencies = builder.frequencies(mCohorts);
 
-          if (!yMapGain.get(chr).containsKey(id)) {
-            // allocate the next available row to a sample
-            yMapGain.get(chr).put(id, sampleYGain.get(chr));
+          checkCancelled();
 
-            // Set the next available row one higher
-            sampleYGain.put(chr, sampleYGain.get(chr) + 1);
-          }
+          mCoalesced = builder.getCoalesced();
 
-          int y = yMapGain.get(chr).get(id);
+          return builder
+              .createFigure(mCohorts, frequencies, mGainColor, mLossColor);
+        }
 
-          int r = rowCountGain.get(chr);
+        SegmentLayout[] layouts = builder.layout(mCohorts);
 
-          matrixMapGain.get(chr).set(r, 0, start);
-          matrixMapGain.get(chr).set(r, 1, y);
-          matrixMapGain.get(chr).set(r, 2, end);
-          matrixMapGain.get(chr).set(r, 3, y);
+        checkCancelled();
 
-          rowCountGain.put(chr, rowCountGain.get(chr) + 1);
+        mCoalesced = builder.getCoalesced();
 
-        }
+        return builder.createFigure(mCohorts, layouts, mGainColor, mLossColor);
       }
-    }
 
-    for (Chromosome chr : orderMapLoss.keySet()) {
-      List<Integer> lorder = CollectionUtils
-          .reverse(CollectionUtils.sort(orderMapLoss.get(chr).keySet()));
+      IdeogramBuilder builder = new IdeogramBuilder(mGenome)
+          .setLaneMode(mLaneMode).setCaches(mLayoutCache, mFrequencyCache)
+          .setIndexed(true).setBanded(mBandHeatmap).setProgress(this);
 
-      for (int len : lorder) {
-        for (int i : orderMapLoss.get(chr).get(len)) {
-          String id = m.getText(i, idColumns.get("id"));
-          int start = (int) m.getValue(i, idColumns.get("start"));
-          int end = (int) m.getValue(i, idColumns.get("end"));
+      Cohort cohort = mCohorts.get(0);
 
-          if (!yMapLoss.containsKey(chr)) {
-            yMapLoss.put(chr, new HashMap<String, Integer>());
-          }
+      CytobandsFigure figure;
 
-          if (!yMapLoss.get(chr).containsKey(id)) {
-            yMapLoss.get(chr).put(id, sampleYLoss.get(chr));
+      if (mTrackMode == TrackMode.FREQUENCY) {
+        FrequencyLayout frequencies = builder.frequencies(cohort);
 
-            sampleYLoss.put(chr, sampleYLoss.get(chr) + 1);
-          }
+        checkCancelled();
+
+        figure = builder.createFigure(frequencies, mGainColor, mLossColor);
+      } else {
+        SegmentLayout layout = builder.layout(cohort);
 
-          int y = -yMapLoss.get(chr).get(id);
+        checkCancelled();
 
-          int r = rowCountLoss.get(chr);
+        figure = builder.createFigure(layout, mGainColor, mLossColor);
+      }
 
-          matrixMapLoss.get(chr).set(r, 0, start);
-          matrixMapLoss.get(chr).set(r, 1, y);
-          matrixMapLoss.get(chr).set(r, 2, end);
-          matrixMapLoss.get(chr).set(r, 3, y);
+      mCoalesced = builder.getCoalesced();
 
-          rowCountLoss.put(chr, rowCountLoss.get(chr) + 1);
-        }
+      // The bands were counted from the segments of the layout
+      if (mBandHeatmap) {
+        figure.setBandHeatmap(builder.getBandFrequencies(), mGainColor,
+            mLossColor);
       }
+
+      return figure;
     }
 
-    Figure figure = new CytobandsFigure(genome,
-        CytobandsService.getInstance().getCytobands(genome),
-        dialog.getGainColor(), matrixMapGain, dialog.getLossColor(),
-        matrixMapLoss);
+    @Override
+    protected void finished(Figure figure) {
+      Graph2dWindow window = new Graph2dWindow(mWindow, figure, false)
+          .removeFormatPane();
 
-    mGraphWindow = new Graph2dWindow(mWindow, figure, false).removeFormatPane();
-    mGraphWindow.setVisible(true);
-  }
+      // The figure shows fewer segments than the matrix when runs were
+      // merged so say how many
+      window.setTitle(window.getTitle() + coalesced(mCoalesced));
 
-  private static void loadGenomeData(Genome genome) throws IOException {
-    File dir = new File(RES_DIR, genome.getAssembly());
+      if (figure instanceof CytobandsFigure) {
+        final CytobandsFigure cytobands = (CytobandsFigure) figure;
 
-    CytobandsService.getInstance().load(genome,
-        Resources.getGzipReader(
-            new File(dir, "ucsc_cytobands_" + genome + ".txt.gz")));
+        IdeogramQueryListener.install(window, mWindow, cytobands);
+
+        // Free the track images of the figure once it is closed. Tracks
+        // shared with a replacement figure keep their images.
+        window.addWindowListener(new WindowAdapter() {
+          @Override
+          public void windowClosed(WindowEvent e) {
+            cytobands.dispose();
+          }
+        });
+      }
+
+      // Replace the previous ideogram in place. Unchanged chromosomes reuse
+      // their cached layouts and track images so only the edited ones are
+      // recomputed and redrawn.
+      if (mGraphWindow != null && mGraphWindow.isVisible()) {
+        window.setBounds(mGraphWindow.getBounds());
+        mGraphWindow.dispose();
+      }
+
+      mGraphWindow = window;
+      mGraphWindow.setVisible(true);
+    }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+
+/**
+ * Receives progress from the stages of an ideogram build and lets the caller
+ * cancel it. Stages throw a
+ * {@link java.util.concurrent.CancellationException} once
+ * {@link #isCancelled()} returns true.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public interface IdeogramProgress {
+
+  /**
+   * Progress listener that reports nothing and is never cancelled.
+   */
+  public static final IdeogramProgress NONE = new IdeogramProgress() {
+    @Override
+    public void progress(IdeogramStage stage,
+        Chromosome chr,
+        int done,
+        int total) {
+      // Do nothing
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return false;
+    }
+  };
+
+  /**
+   * Called each time a stage finishes a chromosome.
+   * 
+   * @param stage The stage reporting progress.
+   * @param chr The chromosome just completed.
+   * @param done How many chromosomes the stage has completed.
+   * @param total How many chromosomes the stage will process.
+   */
+  public void progress(IdeogramStage stage, Chromosome chr, int done, int total);
+
+  /**
+   * Returns true if the build should stop.
+   * 
+   * @return
+   */
+  public boolean isCancelled();
+}
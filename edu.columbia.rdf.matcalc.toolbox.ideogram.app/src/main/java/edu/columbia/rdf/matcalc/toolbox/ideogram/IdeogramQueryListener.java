@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Component;
+import java.awt.Container;
+import java.awt.Window;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.swing.JComponent;
+import javax.swing.JViewport;
+
+import edu.columbia.rdf.matcalc.MainMatCalcWindow;
+
+/**
+ * Shows which samples have a gain or loss under the mouse as a tooltip and,
+ * on click, adds the matching segment rows to the MatCalc history as a new
+ * matrix. Queries go through the {@link SegmentIndex} so they stay fast with
+ * millions of segments.
+ * 
+ * The listener is registered on the canvas showing the figure only, so the
+ * mouse positions it sees are always in the coordinates the query layers
+ * expect and events from toolbars and other panels are never mapped onto
+ * the tracks.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class IdeogramQueryListener extends MouseAdapter {
+  /**
+   * How many sample names to list in a tooltip.
+   */
+  private static final int MAX_TOOLTIP_SAMPLES = 10;
+
+  private final JComponent mCanvas;
+  private final MainMatCalcWindow mWindow;
+  private final CytobandsFigure mFigure;
+  private final SegmentIndex mIndex;
+
+  private IdeogramQueryListener(JComponent canvas, MainMatCalcWindow window,
+      CytobandsFigure figure) {
+    mCanvas = canvas;
+    mWindow = window;
+    mFigure = figure;
+    mIndex = figure.getIndex();
+  }
+
+  /**
+   * Enable queries on the window showing an indexed figure.
+   * 
+   * @param graphWindow
+   * @param window
+   * @param figure
+   */
+  public static void install(Window graphWindow,
+      MainMatCalcWindow window,
+      CytobandsFigure figure) {
+    if (figure.getIndex() == null) {
+      return;
+    }
+
+    JComponent canvas = findCanvas(graphWindow);
+
+    if (canvas == null) {
+      return;
+    }
+
+    IdeogramQueryListener l = new IdeogramQueryListener(canvas, window,
+        figure);
+
+    canvas.addMouseListener(l);
+    canvas.addMouseMotionListener(l);
+  }
+
+  /**
+   * Returns the canvas the figure is drawn on, which is the view of the
+   * largest scroll pane in the window, or null if there is none.
+   * 
+   * @param c
+   * @return
+   */
+  private static JComponent findCanvas(Component c) {
+    JComponent canvas = null;
+
+    if (c instanceof JViewport) {
+      Component view = ((JViewport) c).getView();
+
+      if (view instanceof JComponent) {
+        canvas = (JComponent) view;
+      }
+    }
+
+    if (c instanceof Container) {
+      for (Component child : ((Container) c).getComponents()) {
+        JComponent view = findCanvas(child);
+
+        if (view != null && (canvas == null || area(view) > area(canvas))) {
+          canvas = view;
+        }
+      }
+    }
+
+    return canvas;
+  }
+
+  private static long area(Component c) {
+    return (long) c.getPreferredSize().width
+        * c.getPreferredSize().height;
+  }
+
+  @Override
+  public void mouseMoved(MouseEvent e) {
+    mCanvas.setToolTipText(getToolTip(e));
+  }
+
+  @Override
+  public void mouseClicked(MouseEvent e) {
+    select(e);
+  }
+
+  private String getToolTip(MouseEvent e) {
+    for (SegmentQueryLayer layer : mFigure.getQueryLayers()) {
+      int p = layer.getPosition(e.getPoint());
+
+      if (p == -1) {
+        continue;
+      }
+
+      Set<String> samples = getSamples(query(layer, p));
+
+      StringBuilder buffer = new StringBuilder("<html><b>")
+          .append(layer.getChr()).append(':')
+          .append(String.format("%,d", p)).append("</b><br/>")
+          .append(layer.isGain() ? "Gains" : "Losses").append(" in ")
+          .append(samples.size())
+          .append(samples.size() == 1 ? " sample" : " samples");
+
+      int i = 0;
+
+      for (String sample : samples) {
+        buffer.append(i == 0 ? "<br/>" : ", ");
+
+        if (i == MAX_TOOLTIP_SAMPLES) {
+          buffer.append("+").append(samples.size() - i).append(" more");
+          break;
+        }
+
+        buffer.append(sample);
+
+        ++i;
+      }
+
+      return buffer.append("</html>").toString();
+    }
+
+    return null;
+  }
+
+  private void select(MouseEvent e) {
+    for (SegmentQueryLayer layer : mFigure.getQueryLayers()) {
+      int p = layer.getPosition(e.getPoint());
+
+      if (p == -1) {
+        continue;
+      }
+
+      int[] rows = query(layer, p);
+
+      if (rows.length > 0) {
+        mWindow.addToHistory(layer.getChr() + ":" + p + " "
+            + (layer.isGain() ? "gains" : "losses"), mIndex.toDataFrame(rows));
+      }
+
+      return;
+    }
+  }
+
+  /**
+   * Find the segments within a pixel of a position.
+   */
+  private int[] query(SegmentQueryLayer layer, int p) {
+    int d = layer.getBpPerPixel();
+
+    return mIndex.query(layer.getChr(), layer.isGain(), p - d, p + d);
+  }
+
+  private Set<String> getSamples(int[] rows) {
+    Segments segments = mIndex.getSegments();
+
+    Set<String> samples = new LinkedHashSet<String>();
+
+    for (int i : rows) {
+      samples.add(segments.getSample(segments.getSampleCode(i)));
+    }
+
+    return samples;
+  }
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.Arrays;
+
+/**
+ * Static interval index for point and range queries in O(log n + k). The
+ * intervals are sorted by start and viewed as an implicit balanced binary
+ * tree over the sorted array, where each node is augmented with the maximum
+ * end in its subtree. This needs no pointers and only one extra int per
+ * interval.
+ * 
+ * Intervals are closed, i.e. [start, end].
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class IntervalIndex {
+  /**
+   * Subtrees at or below this level are scanned linearly.
+   */
+  private static final int LINEAR_LEVEL = 3;
+
+  private final int[] mStarts;
+  private final int[] mEnds;
+  private final int[] mMaxEnds;
+
+  /**
+   * The id of each interval, e.g. a segment row.
+   */
+  private final int[] mIds;
+
+  private final int mMaxLevel;
+
+  /**
+   * Create an index from the first n intervals of the arrays, which are
+   * copied.
+   * 
+   * @param starts
+   * @param ends
+   * @param ids
+   * @param n The number of intervals.
+   */
+  public IntervalIndex(int[] starts, int[] ends, int[] ids, int n) {
+    // Sort by start, carrying the position so the ends and ids follow
+    long[] keys = new long[n];
+
+    for (int i = 0; i < n; ++i) {
+      keys[i] = ((long) starts[i] << 32) | i;
+    }
+
+    Arrays.sort(keys);
+
+    mStarts = new int[n];
+    mEnds = new int[n];
+    mIds = new int[n];
+
+    for (int i = 0; i < n; ++i) {
+      int j = (int) keys[i];
+
+      mStarts[i] = starts[j];
+      mEnds[i] = ends[j];
+      mIds[i] = ids[j];
+    }
+
+    mMaxEnds = new int[n];
+
+    mMaxLevel = index();
+  }
+
+  /**
+   * Compute the max end of each node. Leaves are the even positions and a
+   * node at level k sits at positions 2^k - 1 + i * 2^(k + 1). Nodes whose
+   * right subtree is cut off by the end of the array take the max end of the
+   * last complete subtree instead.
+   * 
+   * @return The level of the root.
+   */
+  private int index() {
+    int n = mStarts.length;
+
+    if (n == 0) {
+      return -1;
+    }
+
+    int lastI = 0;
+    int last = 0;
+
+    for (int i = 0; i < n; i += 2) {
+      lastI = i;
+      mMaxEnds[i] = last = mEnds[i];
+    }
+
+    int k = 1;
+
+    for (; 1L << k <= n; ++k) {
+      int x = 1 << (k - 1);
+      int i0 = (x << 1) - 1;
+      int step = x << 2;
+
+      for (int i = i0; i < n; i += step) {
+        int e = mEnds[i];
+
+        e = Math.max(e, mMaxEnds[i - x]);
+        e = Math.max(e, i + x < n ? mMaxEnds[i + x] : last);
+
+        mMaxEnds[i] = e;
+      }
+
+      lastI = ((lastI >> k) & 1) != 0 ? lastI - x : lastI + x;
+
+      if (lastI < n && mMaxEnds[lastI] > last) {
+        last = mMaxEnds[lastI];
+      }
+    }
+
+    return k - 1;
+  }
+
+  public int size() {
+    return mStarts.length;
+  }
+
+  /**
+   * Returns the ids of the intervals containing a position.
+   * 
+   * @param p
+   * @return
+   */
+  public int[] query(int p) {
+    return query(p, p);
+  }
+
+  /**
+   * Returns the ids of the intervals overlapping [start, end] in start order.
+   * 
+   * @param start
+   * @param end
+   * @return
+   */
+  public int[] query(int start, int end) {
+    int n = mStarts.length;
+
+    if (n == 0) {
+      return new int[0];
+    }
+
+    int[] hits = new int[16];
+    int h = 0;
+
+    // Each stack entry holds a level, a node and whether its left subtree
+    // has been visited
+    int[] stackK = new int[64];
+    int[] stackX = new int[64];
+    boolean[] stackW = new boolean[64];
+    int t = 0;
+
+    stackK[t] = mMaxLevel;
+    stackX[t] = (1 << mMaxLevel) - 1;
+    stackW[t++] = false;
+
+    while (t > 0) {
+      --t;
+
+      int k = stackK[t];
+      int x = stackX[t];
+
+      if (k <= LINEAR_LEVEL) {
+        int i0 = (x >> k) << k;
+        int i1 = Math.min(n, i0 + (1 << (k + 1)) - 1);
+
+        for (int i = i0; i < i1 && mStarts[i] <= end; ++i) {
+          if (mEnds[i] >= start) {
+            if (h == hits.length) {
+              hits = Arrays.copyOf(hits, h * 2);
+            }
+
+            hits[h++] = mIds[i];
+          }
+        }
+      } else if (!stackW[t]) {
+        int y = x - (1 << (k - 1));
+
+        // Revisit this node once the left subtree is done
+        stackW[t++] = true;
+
+        if (y >= n || mMaxEnds[y] >= start) {
+          stackK[t] = k - 1;
+          stackX[t] = y;
+          stackW[t++] = false;
+        }
+      } else if (x < n && mStarts[x] <= end) {
+        if (mEnds[x] >= start) {
+          if (h == hits.length) {
+            hits = Arrays.copyOf(hits, h * 2);
+          }
+
+          hits[h++] = mIds[x];
+        }
+
+        stackK[t] = k - 1;
+        stackX[t] = x + (1 << (k - 1));
+        stackW[t++] = false;
+      }
+    }
+
+    return Arrays.copyOf(hits, h);
+  }
+}
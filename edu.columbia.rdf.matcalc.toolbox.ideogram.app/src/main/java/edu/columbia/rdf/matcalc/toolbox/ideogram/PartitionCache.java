@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the per partition results of the last layout so that a later layout
+ * of an edited, filtered or appended matrix only recomputes the partitions
+ * whose rows changed. Partitions are matched by fingerprint and the whole
+ * cache is discarded if the layout settings change.
+ * 
+ * @author Antony Holmes
+ *
+ * @param <T> The result of a partition, e.g. a lane matrix.
+ */
+public class PartitionCache<T> {
+  /**
+   * The genome, mode and chromosomes the results were computed with.
+   */
+  private Object mConfig;
+
+  private long[] mFingerprints;
+
+  private Object[] mResults;
+
+  private int mReused = 0;
+
+  private int mComputed = 0;
+
+  /**
+   * Returns the cached results of the partitions whose fingerprints are
+   * unchanged, with null for partitions that must be recomputed.
+   * 
+   * @param config
+   * @param fingerprints
+   * @return
+   */
+  synchronized Object[] lookup(Object config, long[] fingerprints) {
+    Object[] results = new Object[fingerprints.length];
+
+    if (config.equals(mConfig)
+        && mFingerprints.length == fingerprints.length) {
+      for (int p = 0; p < fingerprints.length; ++p) {
+        if (fingerprints[p] == mFingerprints[p]) {
+          results[p] = mResults[p];
+        }
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Replace the cache with the results of a layout.
+   * 
+   * @param config
+   * @param fingerprints
+   * @param results
+   * @param reused How many non empty partitions were reused.
+   * @param computed How many non empty partitions were recomputed.
+   */
+  synchronized void update(Object config,
+      long[] fingerprints,
+      Object[] results,
+      int reused,
+      int computed) {
+    mConfig = config;
+    mFingerprints = fingerprints;
+    mResults = Arrays.copyOf(results, results.length);
+    mReused = reused;
+    mComputed = computed;
+  }
+
+  /**
+   * Returns how many partitions the last layout reused.
+   * 
+   * @return
+   */
+  public synchronized int getReused() {
+    return mReused;
+  }
+
+  /**
+   * Returns how many partitions the last layout had to recompute.
+   * 
+   * @return
+   */
+  public synchronized int getComputed() {
+    return mComputed;
+  }
+
+  public synchronized void clear() {
+    mConfig = null;
+    mFingerprints = null;
+    mResults = null;
+  }
+}
@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Groups the rows of a {@link Segments} store by partition, where partitions
+ * alternate between the gains and losses of each chromosome. Rows are
+ * grouped with a counting sort so rows within a partition stay in their
+ * original order.
+ * 
+ * @author Antony Holmes
+ *
+ */
+class PartitionIndex {
+  /**
+   * Where each partition starts in mOrder, with a final entry holding the
+   * total number of rows.
+   */
+  final int[] mOffsets;
+
+  /**
+   * Row indices grouped by partition.
+   */
+  final int[] mOrder;
+
+  /**
+   * The size of the largest partition.
+   */
+  final int mMaxCount;
+
+  private PartitionIndex(int[] offsets, int[] order, int maxCount) {
+    mOffsets = offsets;
+    mOrder = order;
+    mMaxCount = maxCount;
+  }
+
+  public int getPartitionCount() {
+    return mOffsets.length - 1;
+  }
+
+  public int getStart(int p) {
+    return mOffsets[p];
+  }
+
+  public int getCount(int p) {
+    return mOffsets[p + 1] - mOffsets[p];
+  }
+
+  /**
+   * Returns the chromosome ordinal of a partition.
+   * 
+   * @param p
+   * @return
+   */
+  public static int getChr(int p) {
+    return p / 2;
+  }
+
+  public static boolean isGain(int p) {
+    return p % 2 == 0;
+  }
+
+  public static PartitionIndex create(final Segments segments,
+      int chromosomes) {
+    int n = segments.size();
+    int partitions = chromosomes * 2;
+
+    int[] offsets = new int[partitions + 1];
+
+    for (int i = 0; i < n; ++i) {
+      int p = partition(segments, i);
+
+      if (p != -1) {
+        ++offsets[p + 1];
+      }
+    }
+
+    int maxCount = 0;
+
+    for (int p = 0; p < partitions; ++p) {
+      maxCount = Math.max(maxCount, offsets[p + 1]);
+
+      offsets[p + 1] += offsets[p];
+    }
+
+    int[] order = new int[offsets[partitions]];
+    int[] next = Arrays.copyOf(offsets, partitions);
+
+    for (int i = 0; i < n; ++i) {
+      int p = partition(segments, i);
+
+      if (p != -1) {
+        order[next[p]++] = i;
+      }
+    }
+
+    return new PartitionIndex(offsets, order, maxCount);
+  }
+
+  /**
+   * Returns a 64 bit fingerprint of the rows of each partition in order. Two
+   * partitions with the same fingerprint hold the same sample, start and end
+   * sequence and therefore have the same layout. Sample ids are hashed by
+   * name, using a 64 bit hash of its bytes, so fingerprints can be compared
+   * across inputs whose sample codes differ.
+   * 
+   * @param segments
+   * @return
+   */
+  public long[] fingerprints(final Segments segments) {
+    long[] sampleHashes = new long[segments.getSampleCount()];
+
+    for (int i = 0; i < sampleHashes.length; ++i) {
+      sampleHashes[i] = mix(hash(segments.getSample(i)));
+    }
+
+    int partitions = getPartitionCount();
+
+    long[] fingerprints = new long[partitions];
+
+    for (int p = 0; p < partitions; ++p) {
+      long h = mix(getCount(p));
+
+      for (int k = mOffsets[p]; k < mOffsets[p + 1]; ++k) {
+        int i = mOrder[k];
+
+        h = mix(h ^ sampleHashes[segments.mSample[i]]);
+        h = mix(h ^ (((long) segments.mStart[i] << 32)
+            | (segments.mEnd[i] & 0xffffffffL)));
+      }
+
+      fingerprints[p] = h;
+    }
+
+    return fingerprints;
+  }
+
+  /**
+   * 64 bit FNV-1a hash of the UTF-8 bytes of a string.
+   * 
+   * @param s
+   * @return
+   */
+  private static long hash(String s) {
+    long h = 0xcbf29ce484222325L;
+
+    for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+      h ^= b & 0xff;
+      h *= 0x100000001b3L;
+    }
+
+    return h;
+  }
+
+  /**
+   * 64 bit finalizer from MurmurHash3.
+   * 
+   * @param h
+   * @return
+   */
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+
+    return h;
+  }
+
+  /**
+   * Returns the partition of a segment or -1 if the segment is on a
+   * chromosome that is not part of the layout.
+   * 
+   * @param segments
+   * @param i
+   * @return
+   */
+  public static int partition(final Segments segments, int i) {
+    int chr = segments.mChr[i];
+
+    if (chr == -1) {
+      return -1;
+    }
+
+    return chr * 2 + (segments.mMean[i] >= 0 ? 0 : 1);
+  }
+}
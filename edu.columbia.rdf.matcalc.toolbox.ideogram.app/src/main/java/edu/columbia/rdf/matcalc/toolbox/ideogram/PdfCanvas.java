@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a single page PDF. The page content is streamed as it is drawn;
+ * its length is written as a separate object after the stream so nothing
+ * needs to be buffered.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class PdfCanvas implements VectorCanvas {
+  private static final int CATALOG = 1;
+  private static final int PAGES = 2;
+  private static final int PAGE = 3;
+  private static final int FONT = 4;
+  private static final int CONTENT = 5;
+  private static final int LENGTH = 6;
+
+  private final OutputStream mOut;
+
+  /**
+   * Bytes written so far, for the cross reference table.
+   */
+  private long mPosition = 0;
+
+  private final List<Long> mOffsets = new ArrayList<Long>();
+
+  private long mContentStart;
+
+  private boolean mStroke;
+
+  private boolean mEmpty;
+
+  public PdfCanvas(OutputStream out) {
+    mOut = out;
+  }
+
+  @Override
+  public void begin(int width, int height) throws IOException {
+    write("%PDF-1.4\n");
+
+    startObject(CATALOG);
+    write("<< /Type /Catalog /Pages " + PAGES + " 0 R >>\nendobj\n");
+
+    startObject(PAGES);
+    write("<< /Type /Pages /Kids [" + PAGE + " 0 R] /Count 1 >>\nendobj\n");
+
+    startObject(PAGE);
+    write("<< /Type /Page /Parent " + PAGES + " 0 R /MediaBox [0 0 " + width
+        + " " + height + "] /Resources << /Font << /F1 " + FONT
+        + " 0 R >> >> /Contents " + CONTENT + " 0 R >>\nendobj\n");
+
+    startObject(FONT);
+    write("<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>\n"
+        + "endobj\n");
+
+    startObject(CONTENT);
+    write("<< /Length " + LENGTH + " 0 R >>\nstream\n");
+
+    mContentStart = mPosition;
+
+    // Flip the y axis so the origin is at the top left like the screen
+    write("1 0 0 -1 0 " + height + " cm\n");
+  }
+
+  @Override
+  public void beginPath(Color color, double strokeWidth) throws IOException {
+    mStroke = strokeWidth > 0;
+    mEmpty = true;
+
+    if (mStroke) {
+      write(rgb(color) + " RG " + SvgCanvas.format(strokeWidth) + " w\n");
+    } else {
+      write(rgb(color) + " rg\n");
+    }
+  }
+
+  @Override
+  public void moveTo(double x, double y) throws IOException {
+    mEmpty = false;
+
+    write(SvgCanvas.format(x) + " " + SvgCanvas.format(y) + " m\n");
+  }
+
+  @Override
+  public void lineTo(double x, double y) throws IOException {
+    write(SvgCanvas.format(x) + " " + SvgCanvas.format(y) + " l\n");
+  }
+
+  @Override
+  public void rect(double x, double y, double w, double h)
+      throws IOException {
+    mEmpty = false;
+
+    write(SvgCanvas.format(x) + " " + SvgCanvas.format(y) + " "
+        + SvgCanvas.format(w) + " " + SvgCanvas.format(h) + " re\n");
+  }
+
+  @Override
+  public void closePath() throws IOException {
+    write("h\n");
+  }
+
+  @Override
+  public void endPath() throws IOException {
+    if (!mEmpty) {
+      write(mStroke ? "S\n" : "f\n");
+    }
+  }
+
+  @Override
+  public void text(String text, double x, double y, int size, Color color)
+      throws IOException {
+    // Text is flipped back so it is not drawn upside down
+    write(rgb(color) + " rg BT /F1 " + size + " Tf 1 0 0 -1 "
+        + SvgCanvas.format(x) + " " + SvgCanvas.format(y) + " Tm ("
+        + escape(text) + ") Tj ET\n");
+  }
+
+  @Override
+  public void end() throws IOException {
+    long length = mPosition - mContentStart;
+
+    write("endstream\nendobj\n");
+
+    startObject(LENGTH);
+    write(length + "\nendobj\n");
+
+    long xref = mPosition;
+
+    write("xref\n0 " + (mOffsets.size() + 1) + "\n");
+    write("0000000000 65535 f \n");
+
+    for (long offset : mOffsets) {
+      write(String.format("%010d 00000 n \n", offset));
+    }
+
+    write("trailer\n<< /Size " + (mOffsets.size() + 1) + " /Root " + CATALOG
+        + " 0 R >>\nstartxref\n" + xref + "\n%%EOF\n");
+
+    mOut.flush();
+  }
+
+  /**
+   * Objects are written in number order so the offset of object n is entry
+   * n - 1.
+   */
+  private void startObject(int n) throws IOException {
+    mOffsets.add(mPosition);
+
+    write(n + " 0 obj\n");
+  }
+
+  private void write(String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.ISO_8859_1);
+
+    mOut.write(bytes);
+
+    mPosition += bytes.length;
+  }
+
+  private static String rgb(Color color) {
+    return SvgCanvas.format(color.getRed() / 255.0) + " "
+        + SvgCanvas.format(color.getGreen() / 255.0) + " "
+        + SvgCanvas.format(color.getBlue() / 255.0);
+  }
+
+  private static String escape(String text) {
+    return text.replace("\\", "\\\\").replace("(", "\\(").replace(")",
+        "\\)");
+  }
+}
@@ -0,0 +1,309 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.Arrays;
+
+import org.jebtk.core.settings.SettingsService;
+
+/**
+ * Merges runs of segments that most likely belong to one event. Segmentation
+ * tools often split an event into many adjacent segments of the same sample
+ * and sign whose means differ only slightly. Two consecutive segments of a
+ * sample and chromosome are merged if they have the same sign, the gap
+ * between them is no more than the maximum gap and the mean of the second is
+ * within the tolerance of the length weighted mean of the run so far.
+ * 
+ * Segments are grouped by sample and chromosome with a counting sort and
+ * each group is swept once in start order, so the cost is linear apart from
+ * groups that are not already sorted by start.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentCoalescer {
+  private static final int MAX_GAP = SettingsService.getInstance()
+      .getInt("ideogram.coalesce.gap");
+
+  private static final double MEAN_TOLERANCE = SettingsService.getInstance()
+      .getDouble("ideogram.coalesce.mean");
+
+  /**
+   * A run of merged segments.
+   */
+  static class Run {
+    private int mSample;
+    private int mChr;
+    private int mStart;
+    private int mEnd;
+    private double mSum;
+    private double mLength;
+
+    public Run(int sample, int chr, int start, int end, double mean) {
+      mSample = sample;
+      mChr = chr;
+      mStart = start;
+      mEnd = end;
+      mLength = length(start, end);
+      mSum = mean * mLength;
+    }
+
+    public int getSample() {
+      return mSample;
+    }
+
+    public int getChr() {
+      return mChr;
+    }
+
+    public int getStart() {
+      return mStart;
+    }
+
+    public int getEnd() {
+      return mEnd;
+    }
+
+    /**
+     * Returns the length weighted mean of the segments in the run.
+     * 
+     * @return
+     */
+    public double getMean() {
+      return mSum / mLength;
+    }
+
+    /**
+     * Returns the length of a segment, counting both ends as the layout
+     * does.
+     */
+    private static double length(int start, int end) {
+      return Math.max(1, end - start + 1);
+    }
+  }
+
+  private final int mMaxGap;
+
+  private final double mMeanTolerance;
+
+  /**
+   * Create a coalescer using the gap and mean tolerance from the settings.
+   */
+  public SegmentCoalescer() {
+    this(MAX_GAP, MEAN_TOLERANCE);
+  }
+
+  /**
+   * Create a coalescer.
+   * 
+   * @param maxGap The largest gap in bases between two segments that can
+   *          be merged.
+   * @param meanTolerance How far the mean of a segment may differ from the
+   *          mean of the run it joins.
+   */
+  public SegmentCoalescer(int maxGap, double meanTolerance) {
+    mMaxGap = maxGap;
+    mMeanTolerance = meanTolerance;
+  }
+
+  public int getMaxGap() {
+    return mMaxGap;
+  }
+
+  public double getMeanTolerance() {
+    return mMeanTolerance;
+  }
+
+  /**
+   * Try to add a segment to the end of a run.
+   * 
+   * @param run
+   * @param sample
+   * @param chr
+   * @param start
+   * @param end
+   * @param mean
+   * @return true if the segment was merged into the run.
+   */
+  boolean extend(Run run, int sample, int chr, int start, int end,
+      double mean) {
+    if (sample != run.mSample || chr != run.mChr) {
+      return false;
+    }
+
+    double runMean = run.getMean();
+
+    if ((mean >= 0) != (runMean >= 0) || start - run.mEnd > mMaxGap
+        || start < run.mStart
+        || Math.abs(mean - runMean) > mMeanTolerance) {
+      return false;
+    }
+
+    double length = Run.length(start, end);
+
+    run.mEnd = Math.max(run.mEnd, end);
+    run.mSum += mean * length;
+    run.mLength += length;
+
+    return true;
+  }
+
+  /**
+   * Returns the segments with each mergeable run replaced by a single
+   * segment. Segments are returned grouped by sample and chromosome in
+   * start order. Segments on chromosomes that are not part of the layout
+   * are kept as they are.
+   * 
+   * @param segments
+   * @return
+   */
+  public Segments coalesce(final Segments segments) {
+    int n = segments.size();
+    int chromosomes = segments.getChromosomeCount();
+    int groups = segments.getSampleCount() * chromosomes;
+
+    //
+    // Group by sample and chromosome
+    //
+
+    int[] offsets = new int[groups + 1];
+    int unplaced = 0;
+
+    for (int i = 0; i < n; ++i) {
+      int chr = segments.mChr[i];
+
+      if (chr == -1) {
+        ++unplaced;
+      } else {
+        ++offsets[segments.mSample[i] * chromosomes + chr + 1];
+      }
+    }
+
+    for (int g = 0; g < groups; ++g) {
+      offsets[g + 1] += offsets[g];
+    }
+
+    int[] order = new int[n - unplaced];
+    int[] next = Arrays.copyOf(offsets, groups);
+
+    for (int i = 0; i < n; ++i) {
+      int chr = segments.mChr[i];
+
+      if (chr != -1) {
+        order[next[segments.mSample[i] * chromosomes + chr]++] = i;
+      }
+    }
+
+    //
+    // Sweep each group in start order
+    //
+
+    Segments ret = new Segments(segments.getChromosomes(),
+        segments.getSamples(), n);
+
+    long[] keys = null;
+
+    for (int g = 0; g < groups; ++g) {
+      int s = offsets[g];
+      int e = offsets[g + 1];
+
+      if (s == e) {
+        continue;
+      }
+
+      if (!isSorted(segments, order, s, e)) {
+        if (keys == null || keys.length < e - s) {
+          keys = new long[e - s];
+        }
+
+        for (int k = s; k < e; ++k) {
+          keys[k - s] = ((long) segments.mStart[order[k]] << 32) | order[k];
+        }
+
+        Arrays.sort(keys, 0, e - s);
+
+        for (int k = s; k < e; ++k) {
+          order[k] = (int) keys[k - s];
+        }
+      }
+
+      Run run = null;
+
+      for (int k = s; k < e; ++k) {
+        int i = order[k];
+
+        if (run != null && extend(run,
+            segments.mSample[i],
+            segments.mChr[i],
+            segments.mStart[i],
+            segments.mEnd[i],
+            segments.mMean[i])) {
+          continue;
+        }
+
+        if (run != null) {
+          add(ret, run);
+        }
+
+        run = new Run(segments.mSample[i], segments.mChr[i],
+            segments.mStart[i], segments.mEnd[i], segments.mMean[i]);
+      }
+
+      add(ret, run);
+    }
+
+    for (int i = 0; i < n; ++i) {
+      if (segments.mChr[i] == -1) {
+        ret.add(segments.mSample[i],
+            -1,
+            segments.mStart[i],
+            segments.mEnd[i],
+            segments.mMean[i]);
+      }
+    }
+
+    return ret;
+  }
+
+  private static boolean isSorted(final Segments segments,
+      int[] order,
+      int s,
+      int e) {
+    for (int k = s + 1; k < e; ++k) {
+      if (segments.mStart[order[k]] < segments.mStart[order[k - 1]]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static void add(Segments segments, Run run) {
+    segments.add(run.mSample, run.mChr, run.mStart, run.mEnd, run.getMean());
+  }
+}
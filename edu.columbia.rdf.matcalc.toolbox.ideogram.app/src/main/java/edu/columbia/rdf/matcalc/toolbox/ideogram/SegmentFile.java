@@ -0,0 +1,476 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+
+/**
+ * Compact columnar segment file for fast reloading of large cohorts.
+ * 
+ * The file starts with a header holding the chromosome and sample
+ * dictionaries and, for each chromosome, the offset and size of its block.
+ * Each block stores the segments of one chromosome, in their original order,
+ * as four fixed width columns: sample codes, start coordinates, lengths
+ * (end - start) and float means. Blocks are memory mapped individually so
+ * reading one chromosome only touches its own bytes.
+ * 
+ * <pre>
+ * int     magic
+ * int     version
+ * int     header size in bytes
+ * header  int chromosomes, then per chromosome: UTF name, long offset,
+ *         int count; int samples, then per sample: UTF name
+ * blocks  int[count] sample, int[count] start, int[count] length,
+ *         float[count] mean
+ * </pre>
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentFile implements Closeable {
+  /**
+   * "SEGB"
+   */
+  private static final int MAGIC = 0x53454742;
+
+  private static final int VERSION = 1;
+
+  /**
+   * Magic, version and header size.
+   */
+  private static final int PREAMBLE_BYTES = 12;
+
+  /**
+   * Bytes per segment in a block.
+   */
+  private static final int SEGMENT_BYTES = 16;
+
+  /**
+   * Bytes per value in each column of a block.
+   */
+  private static final int COLUMN_BYTES = 4;
+
+  /**
+   * Size of the buffer blocks are written through.
+   */
+  private static final int CHUNK_BYTES = 64 * 1024;
+
+  public static final String EXTENSION = "segb";
+
+  private final FileChannel mChannel;
+
+  private final String[] mChromosomes;
+
+  private final long[] mOffsets;
+
+  private final int[] mCounts;
+
+  private final String[] mSamples;
+
+  private SegmentFile(FileChannel channel, String[] chromosomes,
+      long[] offsets, int[] counts, String[] samples) {
+    mChannel = channel;
+    mChromosomes = chromosomes;
+    mOffsets = offsets;
+    mCounts = counts;
+    mSamples = samples;
+  }
+
+  /**
+   * Returns true if a file starts with the segment file magic number.
+   * 
+   * @param file
+   * @return
+   * @throws IOException
+   */
+  public static boolean isSegmentFile(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(4);
+
+      while (buffer.hasRemaining() && channel.read(buffer) != -1) {
+        // Keep reading until the magic number is complete
+      }
+
+      return !buffer.hasRemaining() && buffer.getInt(0) == MAGIC;
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Open a segment file. Only the header is read.
+   * 
+   * @param file
+   * @return
+   * @throws IOException If the file is not a segment file.
+   */
+  public static SegmentFile open(Path file) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+    try {
+      ByteBuffer preamble = read(channel, 0, PREAMBLE_BYTES);
+
+      if (preamble.getInt() != MAGIC) {
+        throw new IOException(file + " is not a segment file.");
+      }
+
+      int version = preamble.getInt();
+
+      if (version != VERSION) {
+        throw new IOException(
+            file + " has unsupported version " + version + ".");
+      }
+
+      ByteBuffer header = read(channel, PREAMBLE_BYTES, preamble.getInt());
+
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+          header.array(), 0, header.limit()));
+
+      // Blocks follow the header
+      long dataStart = PREAMBLE_BYTES + header.limit();
+
+      int n = in.readInt();
+
+      String[] chromosomes = new String[n];
+      long[] offsets = new long[n];
+      int[] counts = new int[n];
+
+      for (int i = 0; i < n; ++i) {
+        chromosomes[i] = in.readUTF();
+        offsets[i] = dataStart + in.readLong();
+        counts[i] = in.readInt();
+      }
+
+      String[] samples = new String[in.readInt()];
+
+      for (int i = 0; i < samples.length; ++i) {
+        samples[i] = in.readUTF();
+      }
+
+      return new SegmentFile(channel, chromosomes, offsets, counts, samples);
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the names of the chromosomes in the file.
+   * 
+   * @return
+   */
+  public String[] getChromosomes() {
+    return mChromosomes.clone();
+  }
+
+  public String[] getSamples() {
+    return mSamples.clone();
+  }
+
+  /**
+   * Returns the total number of segments.
+   * 
+   * @return
+   */
+  public long size() {
+    long n = 0;
+
+    for (int count : mCounts) {
+      n += count;
+    }
+
+    return n;
+  }
+
+  /**
+   * Read every chromosome into a builder.
+   * 
+   * @param builder
+   * @throws IOException
+   */
+  void read(SegmentsBuilder builder) throws IOException {
+    StageTimer timer = IdeogramMetrics.getInstance().start(MetricStage.READ);
+
+    int[] samples = samples(builder);
+
+    for (int i = 0; i < mChromosomes.length; ++i) {
+      read(i, samples, builder);
+    }
+
+    timer.stop(size());
+  }
+
+  /**
+   * Read the segments of one chromosome into a builder. Only the block of
+   * that chromosome is mapped.
+   * 
+   * @param chr
+   * @param builder
+   * @throws IOException
+   */
+  void read(Chromosome chr, SegmentsBuilder builder) throws IOException {
+    int i = Arrays.asList(mChromosomes).indexOf(chr.toString());
+
+    if (i != -1) {
+      read(i, samples(builder), builder);
+    }
+  }
+
+  /**
+   * Register the samples with a builder in file order so they keep the
+   * codes they were written with.
+   */
+  private int[] samples(SegmentsBuilder builder) {
+    int[] codes = new int[mSamples.length];
+
+    for (int i = 0; i < codes.length; ++i) {
+      codes[i] = builder.sample(mSamples[i]);
+    }
+
+    return codes;
+  }
+
+  private void read(int i, int[] samples, SegmentsBuilder builder)
+      throws IOException {
+    int n = mCounts[i];
+
+    int chr = builder.chr(mChromosomes[i]);
+
+    if (n == 0 || chr == -1) {
+      return;
+    }
+
+    IntBuffer sample = column(i, 0, n).asIntBuffer();
+    IntBuffer start = column(i, 1, n).asIntBuffer();
+    IntBuffer length = column(i, 2, n).asIntBuffer();
+    FloatBuffer mean = column(i, 3, n).asFloatBuffer();
+
+    for (int j = 0; j < n; ++j) {
+      int s = start.get(j);
+
+      builder.add(samples[sample.get(j)],
+          chr,
+          s,
+          s + length.get(j),
+          mean.get(j));
+    }
+  }
+
+  /**
+   * Map one column of the block of a chromosome. Columns are mapped
+   * separately so a block may be larger than a single mapping.
+   */
+  private ByteBuffer column(int i, int column, int n) throws IOException {
+    return mChannel.map(FileChannel.MapMode.READ_ONLY,
+        mOffsets[i] + (long) column * COLUMN_BYTES * n,
+        (long) COLUMN_BYTES * n);
+  }
+
+  @Override
+  public void close() throws IOException {
+    mChannel.close();
+  }
+
+  /**
+   * Write segments to a file. Segments on chromosomes that are not part of
+   * the layout are not written.
+   * 
+   * @param segments
+   * @param file
+   * @throws IOException
+   */
+  public static void write(final Segments segments, Path file)
+      throws IOException {
+    int chromosomes = segments.getChromosomeCount();
+    int n = segments.size();
+
+    // Group rows by chromosome, keeping their order
+    int[] counts = new int[chromosomes];
+
+    for (int i = 0; i < n; ++i) {
+      if (segments.mChr[i] != -1) {
+        ++counts[segments.mChr[i]];
+      }
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream header = new DataOutputStream(bytes);
+
+    header.writeInt(chromosomes);
+
+    long offset = 0;
+
+    for (int c = 0; c < chromosomes; ++c) {
+      header.writeUTF(segments.getChromosome(c).toString());
+      header.writeLong(offset);
+      header.writeInt(counts[c]);
+
+      offset += (long) counts[c] * SEGMENT_BYTES;
+    }
+
+    header.writeInt(segments.getSampleCount());
+
+    for (int i = 0; i < segments.getSampleCount(); ++i) {
+      header.writeUTF(segments.getSample(i));
+    }
+
+    header.close();
+
+    FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+
+    try {
+      ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_BYTES);
+
+      preamble.putInt(MAGIC).putInt(VERSION).putInt(bytes.size());
+      preamble.flip();
+
+      write(channel, preamble);
+      write(channel, ByteBuffer.wrap(bytes.toByteArray()));
+
+      int[] starts = new int[chromosomes + 1];
+
+      for (int c = 0; c < chromosomes; ++c) {
+        starts[c + 1] = starts[c] + counts[c];
+      }
+
+      int[] rows = new int[starts[chromosomes]];
+      int[] next = Arrays.copyOf(starts, chromosomes);
+
+      for (int i = 0; i < n; ++i) {
+        if (segments.mChr[i] != -1) {
+          rows[next[segments.mChr[i]]++] = i;
+        }
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+
+      for (int c = 0; c < chromosomes; ++c) {
+        writeBlock(channel, segments, rows, starts[c], counts[c], buffer);
+      }
+    } finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Write the block of one chromosome. Columns are written one at a time
+   * through a fixed size buffer so the block is never held in memory.
+   * 
+   * @param channel
+   * @param segments
+   * @param rows Row indices grouped by chromosome.
+   * @param offset Where the chromosome starts in rows.
+   * @param n The number of rows on the chromosome.
+   * @param buffer Buffer to write through.
+   * @throws IOException
+   */
+  private static void writeBlock(FileChannel channel,
+      final Segments segments,
+      int[] rows,
+      int offset,
+      int n,
+      ByteBuffer buffer) throws IOException {
+    for (int column = 0; column < 4; ++column) {
+      for (int j = 0; j < n; ++j) {
+        if (!buffer.hasRemaining()) {
+          flush(channel, buffer);
+        }
+
+        int i = rows[offset + j];
+
+        switch (column) {
+        case 0:
+          buffer.putInt(segments.mSample[i]);
+          break;
+        case 1:
+          buffer.putInt(segments.mStart[i]);
+          break;
+        case 2:
+          buffer.putInt(segments.mEnd[i] - segments.mStart[i]);
+          break;
+        default:
+          buffer.putFloat((float) segments.mMean[i]);
+          break;
+        }
+      }
+    }
+
+    flush(channel, buffer);
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer)
+      throws IOException {
+    buffer.flip();
+
+    write(channel, buffer);
+
+    buffer.clear();
+  }
+
+  private static void write(FileChannel channel, ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int n)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(n);
+
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) == -1) {
+        throw new IOException("Unexpected end of segment file.");
+      }
+    }
+
+    buffer.flip();
+
+    return buffer;
+  }
+}
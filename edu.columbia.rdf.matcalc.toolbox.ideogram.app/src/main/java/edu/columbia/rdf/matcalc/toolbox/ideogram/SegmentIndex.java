@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.math.matrix.DataFrame;
+
+/**
+ * Interval indices over the gains and losses of each chromosome so the
+ * segments covering a position can be found without rescanning the data.
+ * Query results are rows of the {@link Segments} the index was built from,
+ * which are also the rows of the source matrix or file.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentIndex {
+  private final Segments mSegments;
+
+  /**
+   * One index per partition.
+   */
+  private final IntervalIndex[] mIndices;
+
+  private SegmentIndex(Segments segments, IntervalIndex[] indices) {
+    mSegments = segments;
+    mIndices = indices;
+  }
+
+  public Segments getSegments() {
+    return mSegments;
+  }
+
+  /**
+   * Returns the rows of the gains or losses on a chromosome that overlap
+   * [start, end].
+   * 
+   * @param chr
+   * @param gain
+   * @param start
+   * @param end
+   * @return
+   */
+  public int[] query(Chromosome chr, boolean gain, int start, int end) {
+    int c = ordinal(chr);
+
+    if (c == -1) {
+      return new int[0];
+    }
+
+    return mIndices[c * 2 + (gain ? 0 : 1)].query(start, end);
+  }
+
+  /**
+   * Copy segment rows into a new matrix with id, chr, start, end and mean
+   * columns.
+   * 
+   * @param rows
+   * @return
+   */
+  public DataFrame toDataFrame(int[] rows) {
+    DataFrame ret = DataFrame.createDataFrame(rows.length,
+        SegmentTableReader.COLUMNS.length);
+
+    for (int c = 0; c < SegmentTableReader.COLUMNS.length; ++c) {
+      ret.setColumnName(c, SegmentTableReader.COLUMNS[c]);
+    }
+
+    for (int r = 0; r < rows.length; ++r) {
+      int i = rows[r];
+
+      ret.set(r, 0, mSegments.getSample(mSegments.getSampleCode(i)));
+      ret.set(r, 1, mSegments.getChromosome(mSegments.getChr(i)).toString());
+      ret.set(r, 2, mSegments.getStart(i));
+      ret.set(r, 3, mSegments.getEnd(i));
+      ret.set(r, 4, mSegments.getMean(i));
+    }
+
+    return ret;
+  }
+
+  private int ordinal(Chromosome chr) {
+    for (int i = 0; i < mSegments.getChromosomeCount(); ++i) {
+      if (mSegments.getChromosome(i).equals(chr)) {
+        return i;
+      }
+    }
+
+    return -1;
+  }
+
+  public static SegmentIndex create(final Segments segments) {
+    PartitionIndex index = PartitionIndex.create(segments,
+        segments.getChromosomeCount());
+
+    int partitions = index.getPartitionCount();
+
+    IntervalIndex[] indices = new IntervalIndex[partitions];
+
+    int[] starts = new int[index.mMaxCount];
+    int[] ends = new int[index.mMaxCount];
+    int[] rows = new int[index.mMaxCount];
+
+    for (int p = 0; p < partitions; ++p) {
+      int start = index.getStart(p);
+      int count = index.getCount(p);
+
+      for (int j = 0; j < count; ++j) {
+        int i = index.mOrder[start + j];
+
+        starts[j] = segments.mStart[i];
+        ends[j] = segments.mEnd[i];
+        rows[j] = i;
+      }
+
+      indices[p] = new IntervalIndex(starts, ends, rows, count);
+    }
+
+    return new SegmentIndex(segments, indices);
+  }
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.math.matrix.DataFrame;
+
+/**
+ * The per chromosome gain and loss segments produced by a
+ * {@link SegmentLayoutEngine}. Each is a {@link SegmentView} presenting the
+ * columns x1, y1, x2, y2 in the form expected by the segment plots of
+ * {@link CytobandsFigure}.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentLayout {
+  private final Map<Chromosome, SegmentView> mGains = new HashMap<Chromosome, SegmentView>();
+
+  private final Map<Chromosome, SegmentView> mLosses = new HashMap<Chromosome, SegmentView>();
+
+  void setGains(Chromosome chr, SegmentView v) {
+    mGains.put(chr, v);
+  }
+
+  void setLosses(Chromosome chr, SegmentView v) {
+    mLosses.put(chr, v);
+  }
+
+  public Map<Chromosome, SegmentView> getGains() {
+    return mGains;
+  }
+
+  public Map<Chromosome, SegmentView> getLosses() {
+    return mLosses;
+  }
+
+  /**
+   * Create a layout from existing gain and loss segment matrices with x1,
+   * y1, x2 and y2 columns.
+   * 
+   * @param gains
+   * @param losses
+   * @return
+   */
+  public static SegmentLayout of(final Map<Chromosome, DataFrame> gains,
+      final Map<Chromosome, DataFrame> losses) {
+    SegmentLayout layout = new SegmentLayout();
+
+    for (Map.Entry<Chromosome, DataFrame> e : gains.entrySet()) {
+      layout.setGains(e.getKey(), SegmentView.of("Gains", e.getValue()));
+    }
+
+    for (Map.Entry<Chromosome, DataFrame> e : losses.entrySet()) {
+      layout.setLosses(e.getKey(), SegmentView.of("Losses", e.getValue()));
+    }
+
+    return layout;
+  }
+}
@@ -0,0 +1,1167 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.math.matrix.DataFrame;
+
+/**
+ * Lays out copy number segments for an ideogram. Segments are split by
+ * chromosome and sign (gain or loss), ordered from longest to shortest and
+ * each sample is allocated its own row on each chromosome in the order it is
+ * first encountered. Alternatively segments can be packed into lanes shared
+ * by all samples (see {@link LaneMode}).
+ * 
+ * The engine works entirely on primitive arrays: the source matrix is read
+ * once, rows are grouped by partition with a counting sort and each partition
+ * is ordered with a primitive sort so there is no per row object allocation.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentLayoutEngine {
+
+  private final Genome mGenome;
+
+  private final Chromosome[] mChromosomes;
+
+  /**
+   * How many rows to read between checks for cancellation.
+   */
+  private static final int CANCEL_CHECK_ROWS = 65536;
+
+  /**
+   * Heap used per segment when a spilled partition is laid out in memory:
+   * the segment columns, its sort key, its position and a lane heap entry.
+   */
+  private static final int RESIDENT_BYTES = 44;
+
+  private IdeogramProgress mProgress = IdeogramProgress.NONE;
+
+  private int mParallelism = 1;
+
+  private LaneMode mLaneMode = LaneMode.SAMPLE;
+
+  private PartitionCache<SegmentView> mLayoutCache;
+
+  private PartitionCache<FrequencyProfile> mFrequencyCache;
+
+  /**
+   * Create an engine that lays out segments on a set of chromosomes. Segments
+   * on other chromosomes are ignored.
+   * 
+   * @param genome
+   * @param chromosomes
+   */
+  public SegmentLayoutEngine(Genome genome, Chromosome[] chromosomes) {
+    mGenome = genome;
+    mChromosomes = chromosomes;
+  }
+
+  /**
+   * Set the listener notified as each chromosome is laid out. The listener
+   * can also cancel reading and layout.
+   * 
+   * @param progress
+   * @return
+   */
+  public SegmentLayoutEngine setProgress(IdeogramProgress progress) {
+    mProgress = progress;
+
+    return this;
+  }
+
+  /**
+   * Set how many partitions (the gains or losses of a chromosome) are laid
+   * out concurrently. A value of 1 lays out partitions serially on the
+   * calling thread and a value less than 1 uses all available processors.
+   * The output is the same for every level.
+   * 
+   * @param parallelism
+   * @return
+   */
+  public SegmentLayoutEngine setParallelism(int parallelism) {
+    if (parallelism < 1) {
+      parallelism = Runtime.getRuntime().availableProcessors();
+    }
+
+    mParallelism = parallelism;
+
+    return this;
+  }
+
+  /**
+   * Keep partition layouts in a cache so that laying out an edited version
+   * of the same segments only recomputes the partitions that changed.
+   * 
+   * @param cache
+   * @return
+   */
+  public SegmentLayoutEngine setLayoutCache(PartitionCache<SegmentView> cache) {
+    mLayoutCache = cache;
+
+    return this;
+  }
+
+  /**
+   * Keep partition frequency profiles in a cache so that only changed
+   * partitions are swept again.
+   * 
+   * @param cache
+   * @return
+   */
+  public SegmentLayoutEngine setFrequencyCache(
+      PartitionCache<FrequencyProfile> cache) {
+    mFrequencyCache = cache;
+
+    return this;
+  }
+
+  /**
+   * Set how segments are allocated to rows.
+   * 
+   * @param mode
+   * @return
+   */
+  public SegmentLayoutEngine setLaneMode(LaneMode mode) {
+    mLaneMode = mode;
+
+    return this;
+  }
+
+  /**
+   * Read the segment columns of a matrix in a single pass.
+   * 
+   * @param m The segment matrix.
+   * @param idColumns Map of the id, chr, start, end and mean column indices.
+   * @return
+   */
+  public Segments read(final DataFrame m,
+      final Map<String, Integer> idColumns) {
+    return read(m,
+        idColumns.get("id"),
+        idColumns.get("chr"),
+        idColumns.get("start"),
+        idColumns.get("end"),
+        idColumns.get("mean"));
+  }
+
+
+  public Segments read(final DataFrame m,
+      int idCol,
+      int chrCol,
+      int startCol,
+      int endCol,
+      int meanCol) {
+    SegmentsBuilder builder = new SegmentsBuilder(mGenome,
+        mChromosomes,
+        m.getRows());
+
+    read(m, idCol, chrCol, startCol, endCol, meanCol, builder);
+
+    return builder.build();
+  }
+
+  /**
+   * Read the segment columns of a matrix into a builder, for example one
+   * that spills to disk.
+   */
+  void read(final DataFrame m,
+      final Map<String, Integer> idColumns,
+      SegmentsBuilder builder) {
+    read(m,
+        idColumns.get("id"),
+        idColumns.get("chr"),
+        idColumns.get("start"),
+        idColumns.get("end"),
+        idColumns.get("mean"),
+        builder);
+  }
+
+  void read(final DataFrame m,
+      int idCol,
+      int chrCol,
+      int startCol,
+      int endCol,
+      int meanCol,
+      SegmentsBuilder builder) {
+    StageTimer timer = IdeogramMetrics.getInstance().start(MetricStage.READ);
+
+    int n = m.getRows();
+
+    for (int i = 0; i < n; ++i) {
+      if (i % CANCEL_CHECK_ROWS == 0) {
+        checkCancelled();
+      }
+
+      builder.add(m.getText(i, idCol),
+          m.getText(i, chrCol),
+          (int) m.getValue(i, startCol),
+          (int) m.getValue(i, endCol),
+          m.getValue(i, meanCol));
+    }
+
+    timer.stop(n);
+  }
+
+  /**
+   * Create views of the gains and losses of each chromosome. The views
+   * refer to the start and end columns of the segments rather than copying
+   * them.
+   * 
+   * @param segments
+   * @return
+   */
+  public SegmentLayout layout(final Segments segments) {
+    PartitionIndex index = partition(segments);
+
+    int partitions = index.getPartitionCount();
+
+    SegmentView[] views = new SegmentView[partitions];
+
+    // Reuse the layouts of partitions that have not changed since the last
+    // layout
+    long[] fingerprints = null;
+    Object config = null;
+
+    if (mLayoutCache != null) {
+      fingerprints = index.fingerprints(segments);
+      config = Arrays.asList(mGenome.getAssembly(),
+          mLaneMode,
+          Arrays.asList(mChromosomes));
+
+      Object[] cached = mLayoutCache.lookup(config, fingerprints);
+
+      // Cached views refer to the columns of the segments they were laid
+      // out from so point them at the current columns instead
+      for (int p = 0; p < partitions; ++p) {
+        if (cached[p] != null) {
+          views[p] = ((SegmentView) cached[p]).remap(segments.mStart,
+              segments.mEnd,
+              index.mOrder,
+              index.getStart(p));
+        }
+      }
+    }
+
+    int reused = count(views);
+
+    //
+    // Order each partition from longest to shortest and allocate rows.
+    //
+
+    if (mParallelism > 1) {
+      layoutParallel(segments, index, views);
+    } else {
+      layoutSerial(segments, index, views);
+    }
+
+    if (mLayoutCache != null) {
+      mLayoutCache.update(config,
+          fingerprints,
+          views,
+          reused,
+          count(views) - reused);
+    }
+
+    // Merge in partition order so the result does not depend on which
+    // partitions finished first.
+
+    SegmentLayout layout = new SegmentLayout();
+
+    for (int p = 0; p < partitions; ++p) {
+      if (views[p] == null) {
+        continue;
+      }
+
+      if (PartitionIndex.isGain(p)) {
+        layout.setGains(mChromosomes[PartitionIndex.getChr(p)], views[p]);
+      } else {
+        layout.setLosses(mChromosomes[PartitionIndex.getChr(p)], views[p]);
+      }
+    }
+
+    return layout;
+  }
+
+  /**
+   * Create the gain and loss frequency profiles of each chromosome with a
+   * sweep over the sorted segment breakpoints. The segments of each sample
+   * are merged first so a sample is counted at most once at any position.
+   * Scratch arrays are sized by the largest partition.
+   * 
+   * @param segments
+   * @return
+   */
+  public FrequencyLayout frequencies(final Segments segments) {
+    PartitionIndex index = partition(segments);
+
+    int[] samples = new int[index.mMaxCount];
+    int[] starts = new int[index.mMaxCount];
+    int[] ends = new int[index.mMaxCount];
+
+    int partitions = index.getPartitionCount();
+
+    FrequencyProfile[] profiles = new FrequencyProfile[partitions];
+
+    long[] fingerprints = null;
+    Object config = null;
+
+    if (mFrequencyCache != null) {
+      fingerprints = index.fingerprints(segments);
+
+      // Frequencies are relative to the cohort size
+      config = Arrays.asList(mGenome.getAssembly(),
+          segments.getSampleCount(),
+          Arrays.asList(mChromosomes));
+
+      Object[] cached = mFrequencyCache.lookup(config, fingerprints);
+
+      for (int p = 0; p < partitions; ++p) {
+        profiles[p] = (FrequencyProfile) cached[p];
+      }
+    }
+
+    int reused = count(profiles);
+
+    FrequencyLayout layout = new FrequencyLayout();
+
+    for (int p = 0; p < partitions; ++p) {
+      checkCancelled();
+
+      int start = index.getStart(p);
+      int count = index.getCount(p);
+
+      if (count > 0 && profiles[p] == null) {
+        for (int j = 0; j < count; ++j) {
+          int i = index.mOrder[start + j];
+
+          samples[j] = segments.mSample[i];
+          starts[j] = segments.mStart[i];
+          ends[j] = segments.mEnd[i];
+        }
+
+        StageTimer timer = IdeogramMetrics.getInstance()
+            .start(MetricStage.FILL);
+
+        profiles[p] = FrequencyProfile.sweep(samples,
+            starts,
+            ends,
+            count,
+            segments.getSampleCount());
+
+        timer.stop(count);
+      }
+
+      FrequencyProfile profile = profiles[p];
+
+      if (profile != null) {
+        Chromosome chr = mChromosomes[PartitionIndex.getChr(p)];
+
+        if (PartitionIndex.isGain(p)) {
+          layout.setGains(chr, profile);
+        } else {
+          layout.setLosses(chr, profile);
+        }
+      }
+
+      if (!PartitionIndex.isGain(p)) {
+        mProgress.progress(IdeogramStage.LAYOUT,
+            mChromosomes[PartitionIndex.getChr(p)],
+            PartitionIndex.getChr(p) + 1,
+            mChromosomes.length);
+      }
+    }
+
+    if (mFrequencyCache != null) {
+      mFrequencyCache.update(config,
+          fingerprints,
+          profiles,
+          reused,
+          count(profiles) - reused);
+    }
+
+    return layout;
+  }
+
+  /**
+   * Lay out spilled segments one chromosome at a time. A partition that fits
+   * within the heap budget is loaded and laid out in memory, otherwise its
+   * sort keys are sorted in runs that fit the budget, written to disk and
+   * merged while the segment records are read back from the memory mapped
+   * spill. A partition laid out in memory is viewed in place, otherwise
+   * only its starts and ends in layout order stay resident.
+   * 
+   * Only the sort is external. The view of each partition, its starts, ends
+   * and lanes, is always built on the heap (12 bytes per segment), so the
+   * budget bounds the sort rather than the whole partition.
+   * 
+   * @param spill
+   * @param heapBytes The memory the sort of a partition may use.
+   * @return
+   * @throws IOException
+   */
+  public SegmentLayout layout(final SegmentSpill spill, long heapBytes)
+      throws IOException {
+    int partitions = spill.getPartitionCount();
+
+    int[] sampleRow = new int[spill.getSampleCount()];
+    int[] sampleStamp = new int[spill.getSampleCount()];
+
+    SegmentLayout layout = new SegmentLayout();
+
+    for (int p = 0; p < partitions; ++p) {
+      checkCancelled();
+
+      int count = spill.getCount(p);
+
+      if (count > 0) {
+        SegmentView view;
+
+        if ((long) count * RESIDENT_BYTES <= heapBytes) {
+          view = layoutPartition(spill.load(p),
+              identity(count),
+              0,
+              count,
+              PartitionIndex.isGain(p),
+              mLaneMode,
+              new long[count],
+              sampleRow,
+              sampleStamp,
+              p + 1);
+        } else {
+          view = layoutExternal(spill,
+              p,
+              heapBytes,
+              sampleRow,
+              sampleStamp);
+        }
+
+        Chromosome chr = mChromosomes[PartitionIndex.getChr(p)];
+
+        if (PartitionIndex.isGain(p)) {
+          layout.setGains(chr, view);
+        } else {
+          layout.setLosses(chr, view);
+        }
+      }
+
+      if (!PartitionIndex.isGain(p)) {
+        mProgress.progress(IdeogramStage.LAYOUT,
+            mChromosomes[PartitionIndex.getChr(p)],
+            PartitionIndex.getChr(p) + 1,
+            mChromosomes.length);
+      }
+    }
+
+    return layout;
+  }
+
+  /**
+   * Create the frequency profiles of spilled segments one partition at a
+   * time.
+   * 
+   * @param spill
+   * @return
+   * @throws IOException
+   */
+  public FrequencyLayout frequencies(final SegmentSpill spill)
+      throws IOException {
+    int partitions = spill.getPartitionCount();
+
+    int maxCount = 0;
+
+    for (int p = 0; p < partitions; ++p) {
+      maxCount = Math.max(maxCount, spill.getCount(p));
+    }
+
+    int[] samples = new int[maxCount];
+    int[] starts = new int[maxCount];
+    int[] ends = new int[maxCount];
+
+    FrequencyLayout layout = new FrequencyLayout();
+
+    for (int p = 0; p < partitions; ++p) {
+      checkCancelled();
+
+      int count = spill.getCount(p);
+
+      if (count > 0) {
+        SegmentSpill.Records records = spill.map(p);
+
+        for (int j = 0; j < count; ++j) {
+          samples[j] = records.getSample(j);
+          starts[j] = records.getStart(j);
+          ends[j] = records.getEnd(j);
+        }
+
+        StageTimer timer = IdeogramMetrics.getInstance()
+            .start(MetricStage.FILL);
+
+        FrequencyProfile profile = FrequencyProfile.sweep(samples,
+            starts,
+            ends,
+            count,
+            spill.getSampleCount());
+
+        timer.stop(count);
+
+        Chromosome chr = mChromosomes[PartitionIndex.getChr(p)];
+
+        if (PartitionIndex.isGain(p)) {
+          layout.setGains(chr, profile);
+        } else {
+          layout.setLosses(chr, profile);
+        }
+      }
+
+      if (!PartitionIndex.isGain(p)) {
+        mProgress.progress(IdeogramStage.LAYOUT,
+            mChromosomes[PartitionIndex.getChr(p)],
+            PartitionIndex.getChr(p) + 1,
+            mChromosomes.length);
+      }
+    }
+
+    return layout;
+  }
+
+  /**
+   * Lay out a spilled partition that is too large to sort in memory. Keys
+   * are sorted in runs of at most heapBytes / 8 and merged with a heap
+   * holding the head of each run. Since runs cover consecutive positions
+   * within the partition, the run a key came from is recovered from its
+   * position. Rows are allocated exactly as the in memory layout does so
+   * both produce the same view. The view itself is held on the heap.
+   */
+  private SegmentView layoutExternal(final SegmentSpill spill,
+      int p,
+      long heapBytes,
+      int[] sampleRow,
+      int[] sampleStamp) throws IOException {
+    int count = spill.getCount(p);
+    boolean gain = PartitionIndex.isGain(p);
+    boolean packed = mLaneMode == LaneMode.PACKED;
+
+    SegmentSpill.Records records = spill.map(p);
+
+    // Each run is mapped back as a single buffer so it must stay under 2 GB
+    int runSize = (int) Math.max(1,
+        Math.min(count, Math.min(heapBytes, Integer.MAX_VALUE) / 8));
+    int runs = (count - 1) / runSize + 1;
+
+    Path[] files = new Path[runs];
+    LongBuffer[] heads = new LongBuffer[runs];
+
+    try {
+      StageTimer timer = IdeogramMetrics.getInstance()
+          .start(MetricStage.ORDER);
+
+      long[] keys = new long[runSize];
+
+      for (int k = 0; k < runs; ++k) {
+        int start = k * runSize;
+        int n = Math.min(runSize, count - start);
+
+        for (int j = 0; j < n; ++j) {
+          if (packed) {
+            keys[j] = packKey(records.getStart(start + j), start + j);
+          } else {
+            keys[j] = lengthKey(records.getEnd(start + j)
+                - records.getStart(start + j) + 1, start + j);
+          }
+        }
+
+        Arrays.sort(keys, 0, n);
+
+        files[k] = spill.getDir().resolve("p" + p + "-run" + k + ".keys");
+        heads[k] = writeRun(files[k], keys, n);
+
+        checkCancelled();
+      }
+
+      keys = null;
+
+      timer.stop(count);
+
+      timer = IdeogramMetrics.getInstance().start(MetricStage.FILL);
+
+      long[] heap = new long[runs];
+      int heapSize = 0;
+
+      for (int k = 0; k < runs; ++k) {
+        heapSize = siftUp(heap, heapSize, heads[k].get());
+      }
+
+      int[] starts = new int[count];
+      int[] ends = new int[count];
+      int[] ys = new int[count];
+
+      // Lane end heap for packed layouts, grown as lanes are opened
+      long[] lanes = new long[16];
+      int laneSize = 0;
+      int nextLane = 0;
+
+      for (int r = 0; r < count; ++r) {
+        int j = (int) heap[0];
+
+        LongBuffer run = heads[j / runSize];
+
+        if (run.hasRemaining()) {
+          heapSize = siftDown(heap, heapSize, run.get());
+        } else if (--heapSize > 0) {
+          siftDown(heap, heapSize, heap[heapSize]);
+        }
+
+        int sample = records.getSample(j);
+        int start = records.getStart(j);
+        int end = records.getEnd(j);
+
+        int y;
+
+        if (packed) {
+          if (laneSize > 0 && (int) (lanes[0] >> 32) < start) {
+            y = (int) lanes[0];
+
+            laneSize = siftDown(lanes, laneSize, packKey(end, y));
+          } else {
+            y = nextLane++;
+
+            if (laneSize == lanes.length) {
+              lanes = Arrays.copyOf(lanes, laneSize * 2);
+            }
+
+            laneSize = siftUp(lanes, laneSize, packKey(end, y));
+          }
+
+          ++y;
+        } else {
+          if (sampleStamp[sample] != p + 1) {
+            sampleStamp[sample] = p + 1;
+            sampleRow[sample] = nextLane++ + 1;
+          }
+
+          y = sampleRow[sample];
+        }
+
+        starts[r] = start;
+        ends[r] = end;
+        ys[r] = gain ? y : -y;
+      }
+
+      timer.stop(count);
+
+      return new SegmentView(gain ? "Gains" : "Losses", starts, ends, null,
+          ys);
+    } finally {
+      // Drop the mappings before deleting the runs. Deleting is best effort
+      // since a mapped file cannot be deleted on Windows until it is
+      // collected, and failing here would lose the finished layout.
+      Arrays.fill(heads, null);
+
+      for (Path file : files) {
+        if (file != null) {
+          SegmentSpill.delete(file);
+        }
+      }
+    }
+  }
+
+  /**
+   * Write a sorted run of keys to a file and map it back for the merge.
+   */
+  private static LongBuffer writeRun(Path file, long[] keys, int n)
+      throws IOException {
+    FileChannel channel = FileChannel.open(file,
+        StandardOpenOption.CREATE,
+        StandardOpenOption.READ,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING);
+
+    try {
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+      for (int j = 0; j < n; ++j) {
+        if (!buffer.hasRemaining()) {
+          write(channel, buffer);
+        }
+
+        buffer.putLong(keys[j]);
+      }
+
+      write(channel, buffer);
+
+      return channel.map(FileChannel.MapMode.READ_ONLY, 0, n * 8L)
+          .asLongBuffer();
+    } finally {
+      channel.close();
+    }
+  }
+
+  private static void write(FileChannel channel, ByteBuffer buffer)
+      throws IOException {
+    buffer.flip();
+
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+
+    buffer.clear();
+  }
+
+  private static int[] identity(int n) {
+    int[] order = new int[n];
+
+    for (int i = 0; i < n; ++i) {
+      order[i] = i;
+    }
+
+    return order;
+  }
+
+  private PartitionIndex partition(final Segments segments) {
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.PARTITION);
+
+    PartitionIndex index = PartitionIndex.create(segments,
+        mChromosomes.length);
+
+    timer.stop(segments.size());
+
+    return index;
+  }
+
+  /**
+   * Lay out each partition that does not already have a view.
+   * 
+   * @param segments
+   * @param index
+   * @param views The view of each partition, null if it must be laid out.
+   */
+  private void layoutSerial(final Segments segments,
+      final PartitionIndex index,
+      final SegmentView[] views) {
+    int partitions = index.getPartitionCount();
+
+    long[] keys = new long[index.mMaxCount];
+
+    // The row each sample has been allocated in the current partition. A
+    // sample's row is only valid if its stamp matches the partition, which
+    // avoids clearing the arrays between partitions.
+    int[] sampleRow = new int[segments.getSampleCount()];
+    int[] sampleStamp = new int[segments.getSampleCount()];
+
+    for (int p = 0; p < partitions; ++p) {
+      checkCancelled();
+
+      int count = index.getCount(p);
+
+      if (count > 0 && views[p] == null) {
+        views[p] = layoutPartition(segments,
+            index.mOrder,
+            index.getStart(p),
+            count,
+            PartitionIndex.isGain(p),
+            mLaneMode,
+            keys,
+            sampleRow,
+            sampleStamp,
+            p + 1);
+      }
+
+      // A chromosome is complete once its losses have been laid out
+      if (!PartitionIndex.isGain(p)) {
+        mProgress.progress(IdeogramStage.LAYOUT,
+            mChromosomes[PartitionIndex.getChr(p)],
+            PartitionIndex.getChr(p) + 1,
+            mChromosomes.length);
+      }
+    }
+  }
+
+  /**
+   * Lay out each partition as a separate task on a fork/join pool. Each task
+   * has its own scratch arrays and writes only its own slot of the returned
+   * array so the output is identical to the serial layout.
+   * 
+   * @param segments
+   * @param index
+   * @param views The view of each partition, null if it must be laid out.
+   */
+  private void layoutParallel(final Segments segments,
+      final PartitionIndex index,
+      final SegmentView[] views) {
+    final int partitions = index.getPartitionCount();
+
+    // Count finished partitions per chromosome so progress is reported once
+    // both the gains and losses are done.
+    final AtomicIntegerArray finished = new AtomicIntegerArray(
+        mChromosomes.length);
+    final AtomicInteger done = new AtomicInteger(0);
+
+    List<Callable<Void>> tasks = new ArrayList<Callable<Void>>(partitions);
+
+    for (int i = 0; i < partitions; ++i) {
+      final int p = i;
+
+      tasks.add(new Callable<Void>() {
+        @Override
+        public Void call() {
+          checkCancelled();
+
+          int count = index.getCount(p);
+
+          if (count > 0 && views[p] == null) {
+            views[p] = layoutPartition(segments,
+                index.mOrder,
+                index.getStart(p),
+                count,
+                PartitionIndex.isGain(p),
+                mLaneMode,
+                new long[count],
+                new int[segments.getSampleCount()],
+                new int[segments.getSampleCount()],
+                1);
+          }
+
+          if (finished.incrementAndGet(PartitionIndex.getChr(p)) == 2) {
+            mProgress.progress(IdeogramStage.LAYOUT,
+                mChromosomes[PartitionIndex.getChr(p)],
+                done.incrementAndGet(),
+                mChromosomes.length);
+          }
+
+          return null;
+        }
+      });
+    }
+
+    ForkJoinPool pool = new ForkJoinPool(mParallelism);
+
+    try {
+      for (Future<Void> future : pool.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+      throw new CancellationException();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+
+      throw new RuntimeException(e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Returns how many partitions have a result.
+   * 
+   * @param results
+   * @return
+   */
+  private static int count(Object[] results) {
+    int n = 0;
+
+    for (Object result : results) {
+      if (result != null) {
+        ++n;
+      }
+    }
+
+    return n;
+  }
+
+  /**
+   * Lay out the segments of a partition and return a view of them.
+   * 
+   * @param segments
+   * @param order Row indices grouped by partition.
+   * @param start Where the partition starts in order.
+   * @param count The number of rows in the partition.
+   * @param gain Whether the partition holds gains or losses.
+   * @param mode How to allocate rows.
+   * @param keys Scratch sort keys with at least count elements.
+   * @param sampleRow Scratch row per sample.
+   * @param sampleStamp Scratch stamp per sample.
+   * @param stamp Stamp unique to this partition within sampleStamp.
+   * @return
+   */
+  private static SegmentView layoutPartition(final Segments segments,
+      final int[] order,
+      int start,
+      int count,
+      boolean gain,
+      LaneMode mode,
+      long[] keys,
+      int[] sampleRow,
+      int[] sampleStamp,
+      int stamp) {
+    int[] rows = new int[count];
+    int[] ys = new int[count];
+
+    switch (mode) {
+    case PACKED:
+      packLanes(segments, order, start, count, gain, keys, rows, ys);
+      break;
+    default:
+      sampleLanes(segments,
+          order,
+          start,
+          count,
+          gain,
+          keys,
+          sampleRow,
+          sampleStamp,
+          stamp,
+          rows,
+          ys);
+      break;
+    }
+
+    return new SegmentView(gain ? "Gains" : "Losses",
+        segments.mStart,
+        segments.mEnd,
+        rows,
+        ys);
+  }
+
+  /**
+   * Order the segments of a partition from longest to shortest and allocate
+   * each sample a row in the order it is first seen.
+   */
+  private static void sampleLanes(final Segments segments,
+      final int[] order,
+      int start,
+      int count,
+      boolean gain,
+      long[] keys,
+      int[] sampleRow,
+      int[] sampleStamp,
+      int stamp,
+      int[] rows,
+      int[] ys) {
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.ORDER);
+
+    for (int j = 0; j < count; ++j) {
+      int i = order[start + j];
+
+      keys[j] = lengthKey(segments.mEnd[i] - segments.mStart[i] + 1, j);
+    }
+
+    Arrays.sort(keys, 0, count);
+
+    timer.stop(count);
+
+    timer = IdeogramMetrics.getInstance().start(MetricStage.FILL);
+
+    int nextY = 1;
+
+    for (int r = 0; r < count; ++r) {
+      int i = order[start + (int) keys[r]];
+
+      int sample = segments.mSample[i];
+
+      if (sampleStamp[sample] != stamp) {
+        // allocate the next available row to a sample
+        sampleStamp[sample] = stamp;
+        sampleRow[sample] = nextY++;
+      }
+
+      rows[r] = i;
+      ys[r] = gain ? sampleRow[sample] : -sampleRow[sample];
+    }
+
+    timer.stop(count);
+  }
+
+  /**
+   * Greedy interval packing. Segments are visited in order of their start
+   * and each is placed in the lane that became free earliest, if that lane
+   * ends before the segment starts, otherwise a new lane is opened. Lanes
+   * are kept on a min heap keyed by their end coordinate so the number of
+   * lanes equals the maximum overlap depth of the partition.
+   */
+  private static void packLanes(final Segments segments,
+      final int[] order,
+      int start,
+      int count,
+      boolean gain,
+      long[] keys,
+      int[] rows,
+      int[] ys) {
+    StageTimer timer = IdeogramMetrics.getInstance()
+        .start(MetricStage.ORDER);
+
+    for (int j = 0; j < count; ++j) {
+      keys[j] = packKey(segments.mStart[order[start + j]], j);
+    }
+
+    Arrays.sort(keys, 0, count);
+
+    timer.stop(count);
+
+    timer = IdeogramMetrics.getInstance().start(MetricStage.FILL);
+
+    // Heap of lane end coordinates packed with their lane index
+    long[] heap = new long[count];
+    int heapSize = 0;
+    int lanes = 0;
+
+    for (int r = 0; r < count; ++r) {
+      int i = order[start + (int) keys[r]];
+
+      int lane;
+
+      if (heapSize > 0 && (int) (heap[0] >> 32) < segments.mStart[i]) {
+        lane = (int) heap[0];
+
+        heapSize = siftDown(heap, heapSize, packKey(segments.mEnd[i], lane));
+      } else {
+        lane = lanes++;
+
+        heapSize = siftUp(heap, heapSize, packKey(segments.mEnd[i], lane));
+      }
+
+      rows[r] = i;
+      ys[r] = gain ? lane + 1 : -(lane + 1);
+    }
+
+    timer.stop(count);
+  }
+
+  /**
+   * Replace the head of the heap with a new key.
+   * 
+   * @return The size of the heap.
+   */
+  private static int siftDown(long[] heap, int size, long key) {
+    int i = 0;
+
+    while (true) {
+      int c = 2 * i + 1;
+
+      if (c >= size) {
+        break;
+      }
+
+      if (c + 1 < size && heap[c + 1] < heap[c]) {
+        ++c;
+      }
+
+      if (heap[c] >= key) {
+        break;
+      }
+
+      heap[i] = heap[c];
+      i = c;
+    }
+
+    heap[i] = key;
+
+    return size;
+  }
+
+  /**
+   * Add a key to the heap.
+   * 
+   * @return The size of the heap.
+   */
+  private static int siftUp(long[] heap, int size, long key) {
+    int i = size;
+
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+
+      if (heap[parent] <= key) {
+        break;
+      }
+
+      heap[i] = heap[parent];
+      i = parent;
+    }
+
+    heap[i] = key;
+
+    return size + 1;
+  }
+
+  private void checkCancelled() {
+    if (mProgress.isCancelled()) {
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * Pack a segment length and its position within a partition into a key
+   * that sorts longest first and preserves the original order of segments
+   * with the same length.
+   * 
+   * @param length
+   * @param index
+   * @return
+   */
+  private static long lengthKey(int length, int index) {
+    return (-(long) length << 32) | index;
+  }
+
+  /**
+   * Pack a coordinate and a position within a partition into a key that
+   * sorts by coordinate and then by position.
+   * 
+   * @param x
+   * @param index
+   * @return
+   */
+  private static long packKey(int x, int index) {
+    return ((long) x << 32) | index;
+  }
+}
@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.NoninvertibleTransformException;
+import java.awt.geom.Point2D;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.graphplot.figure.Axes;
+import org.jebtk.graphplot.figure.AxesClippedLayer;
+import org.jebtk.graphplot.figure.Figure;
+import org.jebtk.graphplot.figure.SubFigure;
+import org.jebtk.modern.graphics.DrawingContext;
+
+/**
+ * Invisible layer on a gain or loss track that remembers where the track
+ * was last drawn on screen so that mouse positions can be mapped back to a
+ * genomic position for querying the {@link SegmentIndex}.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentQueryLayer extends AxesClippedLayer {
+  private final Chromosome mChr;
+  private final boolean mGain;
+  private final int mSize;
+  private final double mYMin;
+  private final double mYMax;
+
+  /**
+   * Maps component coordinates to plot coordinates, null until drawn.
+   */
+  private AffineTransform mInverse;
+
+  private int mX1;
+  private int mX2;
+  private int mY1;
+  private int mY2;
+
+  public SegmentQueryLayer(Chromosome chr, boolean gain, int size,
+      double yMin, double yMax) {
+    mChr = chr;
+    mGain = gain;
+    mSize = size;
+    mYMin = yMin;
+    mYMax = yMax;
+  }
+
+  public Chromosome getChr() {
+    return mChr;
+  }
+
+  public boolean isGain() {
+    return mGain;
+  }
+
+  @Override
+  public void plotClipped(Graphics2D g2,
+      DrawingContext context,
+      Figure figure,
+      SubFigure subFigure,
+      Axes axes) {
+    if (context != DrawingContext.SCREEN) {
+      return;
+    }
+
+    // The canvas draws the figure with graphics whose origin is the canvas
+    // itself, so the inverse maps mouse positions on the canvas to plot
+    // coordinates.
+    AffineTransform transform = g2.getTransform();
+
+    // The device scale (e.g. on HiDPI displays) is not part of the
+    // component's coordinates
+    AffineTransform scale = AffineTransform
+        .getScaleInstance(transform.getScaleX(), transform.getScaleY());
+
+    try {
+      AffineTransform inverse = transform.createInverse();
+      inverse.concatenate(scale);
+
+      synchronized (this) {
+        mInverse = inverse;
+        mX1 = axes.toPlotX1(0);
+        mX2 = axes.toPlotX1(mSize);
+        mY1 = Math.min(axes.toPlotY1(mYMin), axes.toPlotY1(mYMax));
+        mY2 = Math.max(axes.toPlotY1(mYMin), axes.toPlotY1(mYMax));
+      }
+    } catch (NoninvertibleTransformException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Returns the genomic position under a point in the coordinates of the
+   * canvas, or -1 if the point is not over this track.
+   * 
+   * @param p
+   * @return
+   */
+  public synchronized int getPosition(Point p) {
+    if (mInverse == null || mX2 <= mX1) {
+      return -1;
+    }
+
+    Point2D plot = mInverse.transform(p, null);
+
+    if (plot.getX() < mX1 || plot.getX() > mX2 || plot.getY() < mY1
+        || plot.getY() > mY2) {
+      return -1;
+    }
+
+    return (int) ((plot.getX() - mX1) * mSize / (mX2 - mX1));
+  }
+
+  /**
+   * Returns how many bp a pixel covers at the scale last drawn.
+   * 
+   * @return
+   */
+  public synchronized int getBpPerPixel() {
+    return mX2 > mX1 ? Math.max(1, mSize / (mX2 - mX1)) : 1;
+  }
+}
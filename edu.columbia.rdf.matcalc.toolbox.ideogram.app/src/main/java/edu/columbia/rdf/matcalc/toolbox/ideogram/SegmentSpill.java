@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Segments that have been partitioned by chromosome and gain/loss into
+ * temporary files so that a cohort larger than the heap can be laid out one
+ * chromosome at a time. Each record holds the sample code, start and end of
+ * a segment as three ints. Closing the spill deletes its files. Files that
+ * are still mapped cannot be deleted on some platforms, such as Windows, so
+ * those are left to be deleted when the JVM exits.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentSpill implements Closeable {
+  /**
+   * Bytes per segment record.
+   */
+  public static final int RECORD_BYTES = 12;
+
+  private static final Logger LOG = LoggerFactory
+      .getLogger(SegmentSpill.class);
+
+  /**
+   * Records per mapping. A single mapping cannot exceed 2 GB so larger
+   * partitions are mapped in windows of about 1 GB.
+   */
+  private static final int WINDOW_RECORDS = (1 << 30) / RECORD_BYTES;
+
+  /**
+   * Read only access to the records of a partition by position. Windows
+   * hold a whole number of records so no record spans two windows.
+   */
+  static class Records {
+    private final MappedByteBuffer[] mWindows;
+    private final int mWindow;
+
+    private Records(MappedByteBuffer[] windows, int window) {
+      mWindows = windows;
+      mWindow = window;
+    }
+
+    public int getSample(int j) {
+      return getInt(j, 0);
+    }
+
+    public int getStart(int j) {
+      return getInt(j, 4);
+    }
+
+    public int getEnd(int j) {
+      return getInt(j, 8);
+    }
+
+    private int getInt(int j, int field) {
+      return mWindows[j / mWindow]
+          .getInt((j % mWindow) * RECORD_BYTES + field);
+    }
+  }
+
+  private final Path mDir;
+
+  /**
+   * Holds the chromosomes and sample names but no segments.
+   */
+  private final Segments mHeader;
+
+  private final Path[] mFiles;
+
+  private final int[] mCounts;
+
+  SegmentSpill(Path dir, Segments header, Path[] files, int[] counts) {
+    mDir = dir;
+    mHeader = header;
+    mFiles = files;
+    mCounts = counts;
+  }
+
+  public Chromosome[] getChromosomes() {
+    return mHeader.getChromosomes();
+  }
+
+  public int getSampleCount() {
+    return mHeader.getSampleCount();
+  }
+
+  public int getPartitionCount() {
+    return mCounts.length;
+  }
+
+  /**
+   * Returns the number of segments in a partition.
+   * 
+   * @param p
+   * @return
+   */
+  public int getCount(int p) {
+    return mCounts[p];
+  }
+
+  /**
+   * Returns the total number of segments.
+   * 
+   * @return
+   */
+  public long size() {
+    long n = 0;
+
+    for (int c : mCounts) {
+      n += c;
+    }
+
+    return n;
+  }
+
+  /**
+   * Returns the directory the spill files are written to.
+   * 
+   * @return
+   */
+  Path getDir() {
+    return mDir;
+  }
+
+  /**
+   * Memory map the records of a partition. The mapping lives outside the
+   * heap.
+   * 
+   * @param p
+   * @return
+   * @throws IOException
+   */
+  Records map(int p) throws IOException {
+    return map(p, WINDOW_RECORDS);
+  }
+
+  /**
+   * Memory map the records of a partition in windows of a given number of
+   * records.
+   * 
+   * @param p
+   * @param window
+   * @return
+   * @throws IOException
+   */
+  Records map(int p, int window) throws IOException {
+    long count = mCounts[p];
+
+    int n = (int) ((count + window - 1) / window);
+
+    MappedByteBuffer[] windows = new MappedByteBuffer[n];
+
+    FileChannel channel = FileChannel.open(mFiles[p], StandardOpenOption.READ);
+
+    try {
+      for (int w = 0; w < n; ++w) {
+        long start = (long) w * window;
+
+        windows[w] = channel.map(FileChannel.MapMode.READ_ONLY,
+            start * RECORD_BYTES,
+            Math.min(window, count - start) * RECORD_BYTES);
+      }
+    } finally {
+      channel.close();
+    }
+
+    return new Records(windows, window);
+  }
+
+  /**
+   * Load a partition into memory.
+   * 
+   * @param p
+   * @return
+   * @throws IOException
+   */
+  Segments load(int p) throws IOException {
+    int n = mCounts[p];
+
+    Segments segments = new Segments(getChromosomes(), new String[0], n);
+
+    segments.setSamples(samples());
+
+    Records records = map(p);
+
+    int chr = PartitionIndex.getChr(p);
+    double mean = PartitionIndex.isGain(p) ? 1 : -1;
+
+    for (int i = 0; i < n; ++i) {
+      segments.add(records.getSample(i),
+          chr,
+          records.getStart(i),
+          records.getEnd(i),
+          mean);
+    }
+
+    return segments;
+  }
+
+  private String[] samples() {
+    String[] samples = new String[mHeader.getSampleCount()];
+
+    for (int i = 0; i < samples.length; ++i) {
+      samples[i] = mHeader.getSample(i);
+    }
+
+    return samples;
+  }
+
+  /**
+   * Delete the spill files. Cleanup never fails: files that cannot be
+   * deleted yet are logged and deleted on exit instead.
+   */
+  @Override
+  public void close() {
+    try {
+      DirectoryStream<Path> stream = Files.newDirectoryStream(mDir);
+
+      try {
+        for (Path file : stream) {
+          delete(file);
+        }
+      } finally {
+        stream.close();
+      }
+    } catch (IOException e) {
+      LOG.warn("Could not list spill files in {}", mDir, e);
+    }
+
+    delete(mDir);
+  }
+
+  /**
+   * Delete a temporary file if possible. A file that is still memory mapped
+   * cannot be deleted on Windows until the mapping is garbage collected, so
+   * rather than failing it is deleted when the JVM exits.
+   * 
+   * @param file
+   */
+  static void delete(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException e) {
+      LOG.warn("Could not delete {}, it will be deleted on exit", file);
+
+      file.toFile().deleteOnExit();
+    }
+  }
+}
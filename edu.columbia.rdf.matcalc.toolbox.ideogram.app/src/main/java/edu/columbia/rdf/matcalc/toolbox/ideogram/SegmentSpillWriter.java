@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Genome;
+
+/**
+ * Builder that writes segments straight to per partition temporary files
+ * instead of holding them in memory. Only a small write buffer per
+ * partition is resident.
+ * 
+ * If a coalescer is set, runs of consecutive segments that can be merged are
+ * merged before they are written. Only the run in progress is held, so runs
+ * are only found if the input is sorted by sample, chromosome and start, as
+ * segment tables usually are.
+ * 
+ * @author Antony Holmes
+ *
+ */
+class SegmentSpillWriter extends SegmentsBuilder {
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Path mDir;
+
+  private final Path[] mFiles;
+
+  private final FileChannel[] mChannels;
+
+  private final ByteBuffer[] mBuffers;
+
+  private final int[] mCounts;
+
+  private SegmentCoalescer mCoalescer = null;
+
+  private SegmentCoalescer.Run mRun = null;
+
+  private long mAdded = 0;
+
+  public SegmentSpillWriter(Genome genome, Chromosome[] chromosomes)
+      throws IOException {
+    super(genome, chromosomes, 1);
+
+    mDir = Files.createTempDirectory("ideogram");
+
+    int partitions = chromosomes.length * 2;
+
+    mFiles = new Path[partitions];
+    mChannels = new FileChannel[partitions];
+    mBuffers = new ByteBuffer[partitions];
+    mCounts = new int[partitions];
+
+    for (int p = 0; p < partitions; ++p) {
+      mFiles[p] = mDir.resolve("p" + p + ".seg");
+    }
+  }
+
+  /**
+   * Merge runs of segments before they are written.
+   * 
+   * @param coalescer The coalescer or null to write every segment.
+   * @return
+   */
+  public SegmentSpillWriter setCoalescer(SegmentCoalescer coalescer) {
+    mCoalescer = coalescer;
+
+    return this;
+  }
+
+  /**
+   * Returns how many segments were added, including those that were merged
+   * into others.
+   * 
+   * @return
+   */
+  public long getAdded() {
+    return mAdded;
+  }
+
+  /**
+   * Append a segment to its partition file.
+   * 
+   * @throws UncheckedIOException If the segment cannot be written.
+   */
+  @Override
+  public void add(int sample, int chr, int start, int end, double mean) {
+    if (chr == -1) {
+      return;
+    }
+
+    ++mAdded;
+
+    if (mCoalescer == null) {
+      write(sample, chr, start, end, mean);
+
+      return;
+    }
+
+    if (mRun != null
+        && mCoalescer.extend(mRun, sample, chr, start, end, mean)) {
+      return;
+    }
+
+    flushRun();
+
+    mRun = new SegmentCoalescer.Run(sample, chr, start, end, mean);
+  }
+
+  private void flushRun() {
+    if (mRun != null) {
+      write(mRun.getSample(),
+          mRun.getChr(),
+          mRun.getStart(),
+          mRun.getEnd(),
+          mRun.getMean());
+
+      mRun = null;
+    }
+  }
+
+  private void write(int sample, int chr, int start, int end, double mean) {
+    int p = chr * 2 + (mean >= 0 ? 0 : 1);
+
+    try {
+      ByteBuffer buffer = mBuffers[p];
+
+      if (buffer == null) {
+        mChannels[p] = FileChannel.open(mFiles[p],
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+
+        buffer = mBuffers[p] = ByteBuffer.allocate(BUFFER_SIZE);
+      } else if (buffer.remaining() < SegmentSpill.RECORD_BYTES) {
+        flush(p);
+      }
+
+      buffer.putInt(sample).putInt(start).putInt(end);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    ++mCounts[p];
+  }
+
+  /**
+   * Finish writing and return the spilled segments.
+   * 
+   * @return
+   * @throws IOException
+   */
+  public SegmentSpill spill() throws IOException {
+    flushRun();
+
+    for (int p = 0; p < mChannels.length; ++p) {
+      if (mChannels[p] != null) {
+        flush(p);
+
+        mChannels[p].close();
+      }
+    }
+
+    return new SegmentSpill(mDir, build(), mFiles, mCounts);
+  }
+
+  /**
+   * Delete the partition files, e.g. after a failed read.
+   */
+  public void discard() {
+    try {
+      for (FileChannel channel : mChannels) {
+        if (channel != null) {
+          channel.close();
+        }
+      }
+
+      new SegmentSpill(mDir, build(), mFiles, mCounts).close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private void flush(int p) throws IOException {
+    ByteBuffer buffer = mBuffers[p];
+
+    buffer.flip();
+
+    while (buffer.hasRemaining()) {
+      mChannels[p].write(buffer);
+    }
+
+    buffer.clear();
+  }
+}
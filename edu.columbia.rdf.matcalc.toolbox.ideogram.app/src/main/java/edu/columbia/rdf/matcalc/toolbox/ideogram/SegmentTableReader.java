@@ -0,0 +1,532 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Genome;
+
+/**
+ * Streams a tab delimited SEG or BED file directly into a {@link Segments}
+ * store without creating a matrix. The file is read in fixed size chunks and
+ * parsed at the byte level so only the id, chr, start, end and mean columns
+ * are ever decoded. Memory use is therefore proportional to the number of
+ * segments rather than the size of the file. Sample ids and chromosome names
+ * are dictionary encoded straight from the bytes so a String is only created
+ * the first time each distinct value is seen.
+ * 
+ * SEG files must have a header from which the columns are located. Files
+ * whose first line is data are read as BED (chr, start, end, name, score)
+ * with the name as the sample id and the score as the mean. BED starts are
+ * zero based and are converted to one based coordinates.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentTableReader {
+  public static final String[] COLUMNS = { "id", "chr", "start", "end",
+      "mean" };
+
+  /**
+   * Column indices of a BED file in id, chr, start, end, mean order.
+   */
+  private static final int[] BED_COLUMNS = { 3, 0, 1, 2, 4 };
+
+  private static final int BUFFER_SIZE = 1 << 20;
+
+  private static final int DEFAULT_CAPACITY = 4096;
+
+  private static final int CANCEL_CHECK_ROWS = 65536;
+
+  /**
+   * Exact powers of ten for parsing decimals.
+   */
+  private static final double[] POWERS = new double[19];
+
+  static {
+    POWERS[0] = 1;
+
+    for (int i = 1; i < POWERS.length; ++i) {
+      POWERS[i] = POWERS[i - 1] * 10;
+    }
+  }
+
+  private final Genome mGenome;
+
+  private final Chromosome[] mChromosomes;
+
+  private IdeogramProgress mProgress = IdeogramProgress.NONE;
+
+  public SegmentTableReader(Genome genome, Chromosome[] chromosomes) {
+    mGenome = genome;
+    mChromosomes = chromosomes;
+  }
+
+  public SegmentTableReader setProgress(IdeogramProgress progress) {
+    mProgress = progress;
+
+    return this;
+  }
+
+  /**
+   * Read a segment file.
+   * 
+   * @param file
+   * @return
+   * @throws IOException If the file cannot be read or is missing one of the
+   *           required columns.
+   */
+  public Segments read(Path file) throws IOException {
+    SegmentsBuilder builder = new SegmentsBuilder(mGenome, mChromosomes,
+        DEFAULT_CAPACITY);
+
+    read(file, builder);
+
+    return builder.build();
+  }
+
+  /**
+   * Read a segment file into a builder, for example one that spills to disk.
+   * 
+   * @param file
+   * @param builder
+   * @throws IOException
+   */
+  void read(Path file, SegmentsBuilder builder) throws IOException {
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+
+    try {
+      new Parser(file.getFileName().toString(), builder).parse(channel);
+    } finally {
+      channel.close();
+    }
+  }
+
+  public Segments read(String name, ReadableByteChannel channel)
+      throws IOException {
+    SegmentsBuilder builder = new SegmentsBuilder(mGenome, mChromosomes,
+        DEFAULT_CAPACITY);
+
+    new Parser(name, builder).parse(channel);
+
+    return builder.build();
+  }
+
+  /**
+   * Holds the state of one read.
+   */
+  private class Parser {
+    private final String mName;
+
+    private final SegmentsBuilder mBuilder;
+
+    /**
+     * Columns in id, chr, start, end, mean order or null until the header
+     * has been seen.
+     */
+    private int[] mColumns;
+
+    private boolean mBed;
+
+    /**
+     * Start and end offsets of the fields on the current line.
+     */
+    private int[] mStarts;
+    private int[] mEnds;
+
+    private int mLine = 0;
+
+    private final ByteDictionary mIds = new ByteDictionary();
+
+    private final ByteDictionary mChrs = new ByteDictionary();
+
+    /**
+     * Maps id and chromosome dictionary codes to sample codes and chromosome
+     * ordinals.
+     */
+    private int[] mSampleCodes = new int[256];
+
+    private int[] mChrOrdinals = new int[64];
+
+    public Parser(String name, SegmentsBuilder builder) {
+      mName = name;
+      mBuilder = builder;
+    }
+
+    public void parse(ReadableByteChannel channel) throws IOException {
+      StageTimer timer = IdeogramMetrics.getInstance()
+          .start(MetricStage.READ);
+
+      byte[] buffer = new byte[BUFFER_SIZE];
+
+      // Bytes carried over from the previous chunk
+      int n = 0;
+
+      while (true) {
+        int r = channel.read(ByteBuffer.wrap(buffer, n, buffer.length - n));
+
+        if (r == -1) {
+          break;
+        }
+
+        n += r;
+
+        int s = 0;
+
+        for (int i = 0; i < n; ++i) {
+          if (buffer[i] == '\n') {
+            line(buffer, s, i);
+            s = i + 1;
+          }
+        }
+
+        n -= s;
+
+        if (n == buffer.length) {
+          // A line longer than the buffer
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        } else {
+          System.arraycopy(buffer, s, buffer, 0, n);
+        }
+      }
+
+      if (n > 0) {
+        line(buffer, 0, n);
+      }
+
+      if (mColumns == null) {
+        throw new IOException(mName + " is empty.");
+      }
+
+      timer.stop(mLine);
+    }
+
+    private void line(byte[] b, int s, int e) throws IOException {
+      ++mLine;
+
+      if (e > s && b[e - 1] == '\r') {
+        --e;
+      }
+
+      if (e == s) {
+        return;
+      }
+
+      if (mColumns == null) {
+        if (b[s] == '#' || startsWith(b, s, e, "track")
+            || startsWith(b, s, e, "browser")) {
+          return;
+        }
+
+        header(b, s, e);
+
+        if (!mBed) {
+          return;
+        }
+      }
+
+      if (mLine % CANCEL_CHECK_ROWS == 0 && mProgress.isCancelled()) {
+        throw new CancellationException();
+      }
+
+      if (split(b, s, e) < mStarts.length) {
+        throw new IOException(mName + " line " + mLine
+            + " has too few columns.");
+      }
+
+      try {
+        int start = parseInt(b, mStarts[mColumns[2]], mEnds[mColumns[2]]);
+
+        if (mBed) {
+          ++start;
+        }
+
+        mBuilder.add(sample(b, mColumns[0]),
+            chr(b, mColumns[1]),
+            start,
+            parseInt(b, mStarts[mColumns[3]], mEnds[mColumns[3]]),
+            parseDouble(b, mStarts[mColumns[4]], mEnds[mColumns[4]]));
+      } catch (NumberFormatException ex) {
+        throw new IOException(
+            mName + " line " + mLine + " is not a valid segment.", ex);
+      }
+    }
+
+    /**
+     * Locate the columns from the first line or, if it is data, switch to
+     * BED columns.
+     */
+    private void header(byte[] b, int s, int e) throws IOException {
+      String[] header = new String(b, s, e - s, StandardCharsets.UTF_8)
+          .split("\t");
+
+      if (header.length >= BED_COLUMNS.length && isInt(header[1])
+          && isInt(header[2])) {
+        mBed = true;
+        setColumns(BED_COLUMNS);
+      } else {
+        setColumns(findColumns(mName, header));
+      }
+    }
+
+    private void setColumns(int[] columns) {
+      mColumns = columns;
+
+      int maxCol = 0;
+
+      for (int c : columns) {
+        maxCol = Math.max(maxCol, c);
+      }
+
+      mStarts = new int[maxCol + 1];
+      mEnds = new int[maxCol + 1];
+    }
+
+    /**
+     * Find the fields of a line, stopping once all the required columns
+     * have been found.
+     * 
+     * @return The number of fields found.
+     */
+    private int split(byte[] b, int s, int e) {
+      int n = 0;
+
+      mStarts[0] = s;
+
+      for (int i = s; i < e; ++i) {
+        if (b[i] == '\t') {
+          mEnds[n++] = i;
+
+          if (n == mStarts.length) {
+            return n;
+          }
+
+          mStarts[n] = i + 1;
+        }
+      }
+
+      mEnds[n++] = e;
+
+      return n;
+    }
+
+    private int sample(byte[] b, int c) {
+      int n = mIds.size();
+
+      int code = mIds.encode(b, mStarts[c], mEnds[c]);
+
+      if (code == n) {
+        if (code == mSampleCodes.length) {
+          mSampleCodes = Arrays.copyOf(mSampleCodes, code * 2);
+        }
+
+        mSampleCodes[code] = mBuilder.sample(mIds.get(code));
+      }
+
+      return mSampleCodes[code];
+    }
+
+    private int chr(byte[] b, int c) {
+      int n = mChrs.size();
+
+      int code = mChrs.encode(b, mStarts[c], mEnds[c]);
+
+      if (code == n) {
+        if (code == mChrOrdinals.length) {
+          mChrOrdinals = Arrays.copyOf(mChrOrdinals, code * 2);
+        }
+
+        mChrOrdinals[code] = mBuilder.chr(mChrs.get(code));
+      }
+
+      return mChrOrdinals[code];
+    }
+  }
+
+  /**
+   * Find the indices of the id, chr, start, end and mean columns. An exact
+   * (case insensitive) header match is preferred, otherwise the first header
+   * containing the name is used so that, for example, loc.start and seg.mean
+   * are recognized.
+   * 
+   * @param name
+   * @param header
+   * @return
+   * @throws IOException
+   */
+  private static int[] findColumns(String name, String[] header)
+      throws IOException {
+    int[] columns = new int[COLUMNS.length];
+
+    for (int i = 0; i < COLUMNS.length; ++i) {
+      columns[i] = -1;
+
+      for (int c = 0; c < header.length; ++c) {
+        if (header[c].trim().equalsIgnoreCase(COLUMNS[i])) {
+          columns[i] = c;
+          break;
+        }
+      }
+
+      if (columns[i] == -1) {
+        for (int c = 0; c < header.length; ++c) {
+          if (header[c].toLowerCase().contains(COLUMNS[i])) {
+            columns[i] = c;
+            break;
+          }
+        }
+      }
+
+      if (columns[i] == -1) {
+        throw new IOException(
+            name + " does not have a " + COLUMNS[i] + " column.");
+      }
+    }
+
+    return columns;
+  }
+
+  private static boolean startsWith(byte[] b, int s, int e, String prefix) {
+    if (e - s < prefix.length()) {
+      return false;
+    }
+
+    for (int i = 0; i < prefix.length(); ++i) {
+      if (b[s + i] != prefix.charAt(i)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  private static boolean isInt(String s) {
+    if (s.isEmpty()) {
+      return false;
+    }
+
+    for (int i = 0; i < s.length(); ++i) {
+      if (!Character.isDigit(s.charAt(i))) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Parse a coordinate. Plain integers are parsed in place; anything else,
+   * such as scientific notation, falls back to the JDK parser.
+   */
+  private static int parseInt(byte[] b, int s, int e) {
+    if (s == e) {
+      throw new NumberFormatException();
+    }
+
+    boolean negative = b[s] == '-';
+
+    int i = negative ? s + 1 : s;
+
+    if (e - i > 9) {
+      return (int) Double.parseDouble(decode(b, s, e));
+    }
+
+    int v = 0;
+
+    for (; i < e; ++i) {
+      int d = b[i] - '0';
+
+      if (d < 0 || d > 9) {
+        return (int) Double.parseDouble(decode(b, s, e));
+      }
+
+      v = v * 10 + d;
+    }
+
+    return negative ? -v : v;
+  }
+
+  /**
+   * Parse a mean. Simple decimals with up to 15 digits are converted exactly
+   * using a long mantissa and a power of ten; anything else falls back to
+   * the JDK parser.
+   */
+  private static double parseDouble(byte[] b, int s, int e) {
+    if (s == e) {
+      throw new NumberFormatException();
+    }
+
+    boolean negative = b[s] == '-';
+
+    int i = negative || b[s] == '+' ? s + 1 : s;
+
+    long mantissa = 0;
+    int digits = 0;
+    int scale = 0;
+    boolean point = false;
+
+    for (; i < e; ++i) {
+      byte c = b[i];
+
+      if (c == '.' && !point) {
+        point = true;
+      } else if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        ++digits;
+
+        if (point) {
+          ++scale;
+        }
+      } else {
+        return Double.parseDouble(decode(b, s, e));
+      }
+    }
+
+    // Beyond 2^53 the mantissa is not exactly representable
+    if (digits == 0 || digits > 15) {
+      return Double.parseDouble(decode(b, s, e));
+    }
+
+    double v = mantissa / POWERS[scale];
+
+    return negative ? -v : v;
+  }
+
+  private static String decode(byte[] b, int s, int e) {
+    return new String(b, s, e - s, StandardCharsets.US_ASCII);
+  }
+}
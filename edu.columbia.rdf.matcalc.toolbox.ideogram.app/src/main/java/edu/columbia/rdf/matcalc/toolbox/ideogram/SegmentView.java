@@ -0,0 +1,298 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.jebtk.math.matrix.DataFrame;
+
+/**
+ * Read only view of the gains or losses of one chromosome as laid out by a
+ * {@link SegmentLayoutEngine}. Rather than copying each segment into a
+ * matrix, the view refers to the start and end columns of the segment store
+ * through an index array giving the layout order, and holds only the lane
+ * computed for each segment. Row i presents the columns x1, y1, x2 and y2
+ * of a segment matrix where x1 and x2 are the start and end of the segment
+ * and y1 and y2 are both its lane, positive for gains and negative for
+ * losses.
+ * 
+ * The columns are shared with the store and with the views of the other
+ * partitions so they must not be modified while a view refers to them.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentView {
+  private final String mName;
+
+  private final int[] mStarts;
+  private final int[] mEnds;
+
+  /**
+   * The index of each row in the columns, or null if the rows are the
+   * columns in order.
+   */
+  private final int[] mRows;
+
+  private final int[] mY;
+
+  private final int mMinY;
+  private final int mMaxY;
+  private final int mLanes;
+
+  /**
+   * Identifies the track drawn from the view. Views remapped from it share
+   * the same track so their cached images survive a rebuild.
+   */
+  private final Object mTrack;
+
+  /**
+   * Create a view.
+   * 
+   * @param name The name of the view, usually Gains or Losses.
+   * @param starts The start column.
+   * @param ends The end column.
+   * @param rows The index of each row in the columns, or null if the rows
+   *          are the columns in order.
+   * @param y The lane of each row.
+   */
+  SegmentView(String name, int[] starts, int[] ends, int[] rows, int[] y) {
+    this(name, starts, ends, rows, y, new Object());
+  }
+
+  private SegmentView(String name, int[] starts, int[] ends, int[] rows,
+      int[] y, Object track) {
+    mName = name;
+    mStarts = starts;
+    mEnds = ends;
+    mRows = rows;
+    mY = y;
+
+    int min = Integer.MAX_VALUE;
+    int max = Integer.MIN_VALUE;
+
+    for (int v : y) {
+      min = Math.min(min, v);
+      max = Math.max(max, v);
+    }
+
+    // Lanes are allocated consecutively so the range is no larger than the
+    // number of lanes
+    BitSet lanes = new BitSet();
+
+    for (int v : y) {
+      lanes.set(v - min);
+    }
+
+    mMinY = y.length > 0 ? min : 0;
+    mMaxY = y.length > 0 ? max : 0;
+    mLanes = lanes.cardinality();
+    mTrack = track;
+  }
+
+  public String getName() {
+    return mName;
+  }
+
+  public int getRows() {
+    return mY.length;
+  }
+
+  public int getX1(int i) {
+    return mStarts[row(i)];
+  }
+
+  public int getX2(int i) {
+    return mEnds[row(i)];
+  }
+
+  /**
+   * Returns the lane of a row, which is both its y1 and y2.
+   * 
+   * @param i
+   * @return
+   */
+  public int getY(int i) {
+    return mY[i];
+  }
+
+  /**
+   * Returns a value by column in the order x1, y1, x2, y2 of a segment
+   * matrix.
+   * 
+   * @param i
+   * @param c
+   * @return
+   */
+  public double getValue(int i, int c) {
+    switch (c) {
+    case 0:
+      return getX1(i);
+    case 2:
+      return getX2(i);
+    default:
+      return getY(i);
+    }
+  }
+
+  public String getColumnName(int c) {
+    switch (c) {
+    case 0:
+      return mName + " x1";
+    case 1:
+      return mName + " y1";
+    case 2:
+      return mName + " x2";
+    default:
+      return mName + " y2";
+    }
+  }
+
+  public int getMinY() {
+    return mMinY;
+  }
+
+  public int getMaxY() {
+    return mMaxY;
+  }
+
+  /**
+   * Returns how many distinct lanes the view occupies and therefore how
+   * many rows are needed to plot it.
+   * 
+   * @return
+   */
+  public int getLaneCount() {
+    return mLanes;
+  }
+
+  /**
+   * Returns the key of the track drawn from the view in
+   * {@link TrackImageCache}. It is the same for every view remapped from
+   * this one.
+   * 
+   * @return
+   */
+  Object getTrack() {
+    return mTrack;
+  }
+
+  /**
+   * Returns a view of the same layout over the columns of another store
+   * whose partition holds the same segments in the same order, for example
+   * an edited copy of the matrix the view was laid out from. The lanes and
+   * the track are shared with this view.
+   * 
+   * @param starts The start column of the other store.
+   * @param ends The end column of the other store.
+   * @param order Row indices of the other store grouped by partition.
+   * @param start Where the partition of the view starts in order.
+   * @return
+   */
+  SegmentView remap(int[] starts, int[] ends, int[] order, int start) {
+    if (mRows == null) {
+      // The view owns its columns
+      return this;
+    }
+
+    int n = mRows.length;
+
+    // The rows of a partition are in increasing order so the rank of each
+    // row is its position within the partition
+    long[] keys = new long[n];
+
+    for (int i = 0; i < n; ++i) {
+      keys[i] = ((long) mRows[i] << 32) | i;
+    }
+
+    Arrays.sort(keys);
+
+    int[] rows = new int[n];
+
+    for (int k = 0; k < n; ++k) {
+      rows[(int) keys[k]] = order[start + k];
+    }
+
+    return new SegmentView(mName, starts, ends, rows, mY, mTrack);
+  }
+
+  private int row(int i) {
+    return mRows != null ? mRows[i] : i;
+  }
+
+  /**
+   * Copy the view into a segment matrix with x1, y1, x2 and y2 columns.
+   * 
+   * @return
+   */
+  public DataFrame toDataFrame() {
+    int n = getRows();
+
+    DataFrame m = DataFrame.createNumericalMatrix(n, 4);
+
+    for (int c = 0; c < 4; ++c) {
+      m.setColumnName(c, getColumnName(c));
+    }
+
+    for (int i = 0; i < n; ++i) {
+      int y = getY(i);
+
+      m.set(i, 0, getX1(i));
+      m.set(i, 1, y);
+      m.set(i, 2, getX2(i));
+      m.set(i, 3, y);
+    }
+
+    return m;
+  }
+
+  /**
+   * Create a view of an existing segment matrix with x1, y1, x2 and y2
+   * columns. The columns are copied since a matrix does not expose them.
+   * 
+   * @param name
+   * @param m
+   * @return
+   */
+  public static SegmentView of(String name, final DataFrame m) {
+    int n = m.getRows();
+
+    int[] starts = new int[n];
+    int[] ends = new int[n];
+    int[] y = new int[n];
+
+    for (int i = 0; i < n; ++i) {
+      starts[i] = (int) m.getValue(i, 0);
+      y[i] = (int) m.getValue(i, 1);
+      ends[i] = (int) m.getValue(i, 2);
+    }
+
+    return new SegmentView(name, starts, ends, null, y);
+  }
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.Arrays;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+
+/**
+ * Columnar store of copy number segments. Samples and chromosomes are held as
+ * dense int codes indexing {@link #getSample(int)} and
+ * {@link #getChromosome(int)} so that layout code never needs to look at
+ * strings or boxed values.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class Segments {
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private final Chromosome[] mChromosomes;
+
+  private String[] mSamples;
+
+  int[] mSample;
+  int[] mChr;
+  int[] mStart;
+  int[] mEnd;
+  double[] mMean;
+
+  private int mSize = 0;
+
+  public Segments(Chromosome[] chromosomes, String[] samples) {
+    this(chromosomes, samples, DEFAULT_CAPACITY);
+  }
+
+  public Segments(Chromosome[] chromosomes, String[] samples, int capacity) {
+    mChromosomes = chromosomes;
+    mSamples = samples;
+
+    capacity = Math.max(1, capacity);
+
+    mSample = new int[capacity];
+    mChr = new int[capacity];
+    mStart = new int[capacity];
+    mEnd = new int[capacity];
+    mMean = new double[capacity];
+  }
+
+  /**
+   * Append a segment.
+   * 
+   * @param sample The sample code.
+   * @param chr The chromosome ordinal.
+   * @param start The start coordinate.
+   * @param end The end coordinate.
+   * @param mean The mean copy number change.
+   */
+  public void add(int sample, int chr, int start, int end, double mean) {
+    if (mSize == mSample.length) {
+      int capacity = mSize * 2;
+
+      mSample = Arrays.copyOf(mSample, capacity);
+      mChr = Arrays.copyOf(mChr, capacity);
+      mStart = Arrays.copyOf(mStart, capacity);
+      mEnd = Arrays.copyOf(mEnd, capacity);
+      mMean = Arrays.copyOf(mMean, capacity);
+    }
+
+    mSample[mSize] = sample;
+    mChr[mSize] = chr;
+    mStart[mSize] = start;
+    mEnd[mSize] = end;
+    mMean[mSize] = mean;
+
+    ++mSize;
+  }
+
+  public int size() {
+    return mSize;
+  }
+
+  public int getSampleCount() {
+    return mSamples.length;
+  }
+
+  public String getSample(int code) {
+    return mSamples[code];
+  }
+
+  void setSamples(String[] samples) {
+    mSamples = samples;
+  }
+
+  String[] getSamples() {
+    return mSamples;
+  }
+
+  public int getChromosomeCount() {
+    return mChromosomes.length;
+  }
+
+  public Chromosome getChromosome(int ordinal) {
+    return mChromosomes[ordinal];
+  }
+
+  public Chromosome[] getChromosomes() {
+    return mChromosomes;
+  }
+
+  /**
+   * Returns the sample code of segment i.
+   * 
+   * @param i
+   * @return
+   */
+  public int getSampleCode(int i) {
+    return mSample[i];
+  }
+
+  /**
+   * Returns the chromosome ordinal of segment i or -1 if the chromosome is
+   * not part of the layout.
+   * 
+   * @param i
+   * @return
+   */
+  public int getChr(int i) {
+    return mChr[i];
+  }
+
+  public int getStart(int i) {
+    return mStart[i];
+  }
+
+  public int getEnd(int i) {
+    return mEnd[i];
+  }
+
+  public double getMean(int i) {
+    return mMean[i];
+  }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.ChromosomeService;
+import org.jebtk.bioinformatics.genomic.Genome;
+
+/**
+ * Builds a {@link Segments} store row by row. This is the dictionary encoding
+ * stage of the pipeline: sample ids and chromosome names are mapped to dense
+ * int codes here, each distinct chromosome name is resolved against the
+ * genome only once, and everything downstream works on the codes alone.
+ * Segment tables are usually sorted by sample and chromosome so the last
+ * code of each is remembered to skip the lookup for runs of equal values.
+ * 
+ * @author Antony Holmes
+ *
+ */
+class SegmentsBuilder {
+  private final Genome mGenome;
+
+  private final Segments mSegments;
+
+  /**
+   * Map each chromosome to its ordinal in the layout.
+   */
+  private final Map<Chromosome, Integer> mOrdinalMap = new HashMap<Chromosome, Integer>();
+
+  private final Map<String, Integer> mChrCodes = new HashMap<String, Integer>();
+
+  private final Map<String, Integer> mSampleCodes = new HashMap<String, Integer>();
+
+  private final List<String> mSamples = new ArrayList<String>();
+
+  private String mLastChrName;
+  private int mLastChr;
+
+  private String mLastSample;
+  private int mLastSampleCode;
+
+  public SegmentsBuilder(Genome genome, Chromosome[] chromosomes,
+      int capacity) {
+    mGenome = genome;
+    mSegments = new Segments(chromosomes, new String[0], capacity);
+
+    for (int i = 0; i < chromosomes.length; ++i) {
+      mOrdinalMap.put(chromosomes[i], i);
+    }
+  }
+
+  /**
+   * Returns the ordinal of a chromosome or -1 if it is not part of the
+   * layout.
+   * 
+   * @param name
+   * @return
+   */
+  public int chr(String name) {
+    if (name.equals(mLastChrName)) {
+      return mLastChr;
+    }
+
+    Integer chr = mChrCodes.get(name);
+
+    if (chr == null) {
+      Integer ordinal = mOrdinalMap
+          .get(ChromosomeService.getInstance().chr(mGenome, name));
+
+      chr = ordinal != null ? ordinal : -1;
+
+      mChrCodes.put(name, chr);
+    }
+
+    mLastChrName = name;
+    mLastChr = chr;
+
+    return chr;
+  }
+
+  /**
+   * Returns the code of a sample, allocating the next code if the sample has
+   * not been seen before.
+   * 
+   * @param id
+   * @return
+   */
+  public int sample(String id) {
+    if (id.equals(mLastSample)) {
+      return mLastSampleCode;
+    }
+
+    Integer sample = mSampleCodes.get(id);
+
+    if (sample == null) {
+      sample = mSamples.size();
+
+      mSampleCodes.put(id, sample);
+      mSamples.add(id);
+    }
+
+    mLastSample = id;
+    mLastSampleCode = sample;
+
+    return sample;
+  }
+
+  public void add(String id, String chr, int start, int end, double mean) {
+    add(sample(id), chr(chr), start, end, mean);
+  }
+
+  /**
+   * Add a segment that has already been encoded.
+   * 
+   * @param sample Sample code from {@link #sample(String)}.
+   * @param chr Chromosome ordinal from {@link #chr(String)}.
+   * @param start
+   * @param end
+   * @param mean
+   */
+  public void add(int sample, int chr, int start, int end, double mean) {
+    mSegments.add(sample, chr, start, end, mean);
+  }
+
+  public Segments build() {
+    mSegments.setSamples(mSamples.toArray(new String[mSamples.size()]));
+
+    return mSegments;
+  }
+}
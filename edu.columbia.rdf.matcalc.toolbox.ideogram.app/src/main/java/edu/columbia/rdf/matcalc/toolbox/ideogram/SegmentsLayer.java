@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Stroke;
+import java.util.Arrays;
+
+import org.jebtk.graphplot.figure.Axes;
+import org.jebtk.graphplot.figure.AxesClippedLayer;
+import org.jebtk.graphplot.figure.Figure;
+import org.jebtk.graphplot.figure.SubFigure;
+import org.jebtk.modern.graphics.DrawingContext;
+
+/**
+ * Draws the segments of a gain or loss track with level of detail. Within
+ * each lane, segments separated by less than a pixel at the current scale
+ * are coalesced into a single span so the number of lines drawn is bounded
+ * by the pixel width of the track rather than the number of segments. The
+ * spans are re-derived whenever the plot is drawn at a different scale, for
+ * example after zooming.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentsLayer extends AxesClippedLayer {
+
+  private static final Stroke STROKE = new BasicStroke(2);
+
+  private final Color mColor;
+
+  /**
+   * The y of each lane.
+   */
+  private final double[] mLaneY;
+
+  /**
+   * Segments of lane l, sorted by start, are at mOffsets[l] until
+   * mOffsets[l + 1].
+   */
+  private final int[] mOffsets;
+  private final int[] mStarts;
+  private final int[] mEnds;
+
+  private final int mMaxEnd;
+
+  /**
+   * Coalesced spans for the pixel width they were derived at.
+   */
+  private int mSpanWidth = -1;
+  private int[] mSpanOffsets;
+  private int[] mSpanStarts;
+  private int[] mSpanEnds;
+
+  /**
+   * Create a layer from the view of a laid out partition.
+   * 
+   * @param m
+   * @param color
+   */
+  public SegmentsLayer(SegmentView m, Color color) {
+    mColor = color;
+
+    int n = m.getRows();
+
+    // Lanes in y order
+    double[] ys = new double[n];
+
+    for (int i = 0; i < n; ++i) {
+      ys[i] = m.getY(i);
+    }
+
+    Arrays.sort(ys);
+
+    int lanes = 0;
+
+    for (int i = 0; i < n; ++i) {
+      if (i == 0 || ys[i] != ys[i - 1]) {
+        ys[lanes++] = ys[i];
+      }
+    }
+
+    mLaneY = Arrays.copyOf(ys, lanes);
+
+    // Counting sort segments into lanes
+    int[] lane = new int[n];
+    mOffsets = new int[lanes + 1];
+
+    for (int i = 0; i < n; ++i) {
+      lane[i] = Arrays.binarySearch(mLaneY, m.getY(i));
+      ++mOffsets[lane[i] + 1];
+    }
+
+    for (int l = 0; l < lanes; ++l) {
+      mOffsets[l + 1] += mOffsets[l];
+    }
+
+    // Start and end packed so that sorting orders by start
+    long[] keys = new long[n];
+    int[] next = Arrays.copyOf(mOffsets, lanes);
+
+    int maxEnd = 0;
+
+    for (int i = 0; i < n; ++i) {
+      int end = m.getX2(i);
+
+      keys[next[lane[i]]++] = ((long) m.getX1(i) << 32)
+          | (end & 0xffffffffL);
+
+      maxEnd = Math.max(maxEnd, end);
+    }
+
+    mMaxEnd = maxEnd;
+
+    mStarts = new int[n];
+    mEnds = new int[n];
+
+    for (int l = 0; l < lanes; ++l) {
+      Arrays.sort(keys, mOffsets[l], mOffsets[l + 1]);
+    }
+
+    for (int i = 0; i < n; ++i) {
+      mStarts[i] = (int) (keys[i] >>> 32);
+      mEnds[i] = (int) keys[i];
+    }
+  }
+
+  @Override
+  public void plotClipped(Graphics2D g2,
+      DrawingContext context,
+      Figure figure,
+      SubFigure subFigure,
+      Axes axes) {
+    if (mLaneY.length == 0) {
+      return;
+    }
+
+    int width = axes.toPlotX1(mMaxEnd) - axes.toPlotX1(0);
+
+    if (width <= 0) {
+      return;
+    }
+
+    if (width != mSpanWidth) {
+      coalesce(width);
+    }
+
+    Stroke stroke = g2.getStroke();
+
+    g2.setColor(mColor);
+    g2.setStroke(STROKE);
+
+    for (int l = 0; l < mLaneY.length; ++l) {
+      int y = axes.toPlotY1(mLaneY[l]);
+
+      for (int i = mSpanOffsets[l]; i < mSpanOffsets[l + 1]; ++i) {
+        g2.drawLine(axes.toPlotX1(mSpanStarts[i]),
+            y,
+            axes.toPlotX1(mSpanEnds[i]),
+            y);
+      }
+    }
+
+    g2.setStroke(stroke);
+  }
+
+  /**
+   * Merge segments in each lane whose gap is less than a pixel.
+   * 
+   * @param width The pixel width of the x range 0 to mMaxEnd.
+   */
+  void coalesce(int width) {
+    double bpPerPixel = (double) mMaxEnd / width;
+
+    int lanes = mLaneY.length;
+
+    int[] offsets = new int[lanes + 1];
+    int[] starts = new int[mStarts.length];
+    int[] ends = new int[mEnds.length];
+
+    int k = 0;
+
+    for (int l = 0; l < lanes; ++l) {
+      int s = mOffsets[l];
+      int e = mOffsets[l + 1];
+
+      if (s < e) {
+        int start = mStarts[s];
+        int end = mEnds[s];
+
+        for (int i = s + 1; i < e; ++i) {
+          if (mStarts[i] - end < bpPerPixel) {
+            end = Math.max(end, mEnds[i]);
+          } else {
+            starts[k] = start;
+            ends[k++] = end;
+
+            start = mStarts[i];
+            end = mEnds[i];
+          }
+        }
+
+        starts[k] = start;
+        ends[k++] = end;
+      }
+
+      offsets[l + 1] = k;
+    }
+
+    mSpanOffsets = offsets;
+    mSpanStarts = Arrays.copyOf(starts, k);
+    mSpanEnds = Arrays.copyOf(ends, k);
+    mSpanWidth = width;
+  }
+
+  int getLaneCount() {
+    return mLaneY.length;
+  }
+
+  double getLaneY(int l) {
+    return mLaneY[l];
+  }
+
+  int getMaxEnd() {
+    return mMaxEnd;
+  }
+
+  /**
+   * Returns where the spans of a lane start after {@link #coalesce(int)}.
+   * The spans of lane l end where those of lane l + 1 start.
+   * 
+   * @param l
+   * @return
+   */
+  int getSpanOffset(int l) {
+    return mSpanOffsets[l];
+  }
+
+  int getSpanStart(int i) {
+    return mSpanStarts[i];
+  }
+
+  int getSpanEnd(int i) {
+    return mSpanEnds[i];
+  }
+
+  /**
+   * Returns the number of spans drawn at the last scale.
+   * 
+   * @return
+   */
+  public int getSpanCount() {
+    return mSpanStarts != null ? mSpanStarts.length : 0;
+  }
+}
@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+/**
+ * Measures one execution of a stage on the current thread. Timers are
+ * obtained from {@link IdeogramMetrics#start(MetricStage)}, which returns
+ * {@link #NONE} when metrics are disabled so that an uninstrumented build
+ * allocates nothing and reads no clocks.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class StageTimer {
+  /**
+   * Timer that records nothing.
+   */
+  public static final StageTimer NONE = new StageTimer() {
+    @Override
+    public void stop(long rows) {
+      // Do nothing
+    }
+  };
+
+  private final IdeogramMetrics mMetrics;
+
+  private final MetricStage mStage;
+
+  private final long mStart;
+
+  private final long mBytes;
+
+  private StageTimer() {
+    mMetrics = null;
+    mStage = null;
+    mStart = 0;
+    mBytes = 0;
+  }
+
+  StageTimer(IdeogramMetrics metrics, MetricStage stage) {
+    mMetrics = metrics;
+    mStage = stage;
+    mBytes = IdeogramMetrics.allocatedBytes();
+    mStart = System.nanoTime();
+  }
+
+  /**
+   * Record the stage.
+   * 
+   * @param rows The number of rows or segments the stage processed.
+   */
+  public void stop(long rows) {
+    long nanos = System.nanoTime() - mStart;
+
+    mMetrics.record(mStage,
+        nanos,
+        rows,
+        IdeogramMetrics.allocatedBytes() - mBytes);
+  }
+}
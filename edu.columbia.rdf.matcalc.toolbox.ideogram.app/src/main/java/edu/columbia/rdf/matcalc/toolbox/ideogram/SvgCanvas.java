@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes SVG. Path data is streamed as it is added rather than collected.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SvgCanvas implements VectorCanvas {
+  private final Writer mWriter;
+
+  public SvgCanvas(OutputStream out) {
+    mWriter = new BufferedWriter(
+        new OutputStreamWriter(out, StandardCharsets.UTF_8));
+  }
+
+  @Override
+  public void begin(int width, int height) throws IOException {
+    mWriter.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    mWriter.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\""
+        + width + "\" height=\"" + height + "\" viewBox=\"0 0 " + width
+        + " " + height + "\">\n");
+  }
+
+  @Override
+  public void beginPath(Color color, double strokeWidth) throws IOException {
+    if (strokeWidth > 0) {
+      mWriter.write("<path fill=\"none\" stroke=\"" + hex(color)
+          + "\" stroke-width=\"" + format(strokeWidth) + "\" d=\"");
+    } else {
+      mWriter.write("<path fill=\"" + hex(color) + "\" d=\"");
+    }
+  }
+
+  @Override
+  public void moveTo(double x, double y) throws IOException {
+    mWriter.write("M" + format(x) + " " + format(y));
+  }
+
+  @Override
+  public void lineTo(double x, double y) throws IOException {
+    mWriter.write("L" + format(x) + " " + format(y));
+  }
+
+  @Override
+  public void rect(double x, double y, double w, double h)
+      throws IOException {
+    mWriter.write("M" + format(x) + " " + format(y) + "h" + format(w) + "v"
+        + format(h) + "h" + format(-w) + "z");
+  }
+
+  @Override
+  public void closePath() throws IOException {
+    mWriter.write("z");
+  }
+
+  @Override
+  public void endPath() throws IOException {
+    mWriter.write("\"/>\n");
+  }
+
+  @Override
+  public void text(String text, double x, double y, int size, Color color)
+      throws IOException {
+    mWriter.write("<text x=\"" + format(x) + "\" y=\"" + format(y)
+        + "\" font-family=\"sans-serif\" font-size=\"" + size + "\" fill=\""
+        + hex(color) + "\">" + escape(text) + "</text>\n");
+  }
+
+  @Override
+  public void end() throws IOException {
+    mWriter.write("</svg>\n");
+    mWriter.flush();
+  }
+
+  private static String hex(Color color) {
+    return String.format("#%02x%02x%02x",
+        color.getRed(),
+        color.getGreen(),
+        color.getBlue());
+  }
+
+  private static String escape(String text) {
+    return text.replace("&", "&amp;").replace("<", "&lt;").replace(">",
+        "&gt;");
+  }
+
+  /**
+   * Format a coordinate without a trailing .0 for whole numbers, which is
+   * the common case since coordinates are pixels.
+   * 
+   * @param v
+   * @return
+   */
+  static String format(double v) {
+    if (v == Math.rint(v) && Math.abs(v) < 1e9) {
+      return Long.toString((long) v);
+    }
+
+    return String.format(Locale.ROOT, "%.2f", v);
+  }
+}
@@ -0,0 +1,295 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jebtk.core.settings.SettingsService;
+
+/**
+ * Least recently used cache of rasterized ideogram tracks. Images are keyed
+ * by the track, its color and its size on screen so a track only needs to be
+ * redrawn when its data, color or scale changes. The total size of the
+ * cached images is bounded by the ideogram.render.cache.mb setting.
+ * 
+ * Tracks are identified by a numeric id rather than by the track data so
+ * images never keep segment columns alive. Layers {@link #acquire(Object)} an
+ * id while they are shown and {@link #release(long)} it when their window
+ * closes; the id and the images of a track are dropped once nothing uses
+ * it.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class TrackImageCache {
+  private static class TrackImageCacheLoader {
+    private static final TrackImageCache INSTANCE = new TrackImageCache();
+  }
+
+  public static TrackImageCache getInstance() {
+    return TrackImageCacheLoader.INSTANCE;
+  }
+
+  /**
+   * Identifies one rendering of a track.
+   */
+  static class Key {
+    private final long mTrack;
+    private final int mColor;
+    private final int mX;
+    private final int mY;
+    private final int mW;
+    private final int mH;
+    private final double mScale;
+
+    public Key(long track, Color color, int x, int y, int w, int h,
+        double scale) {
+      mTrack = track;
+      mColor = color != null ? color.getRGB() : 0;
+      mX = x;
+      mY = y;
+      mW = w;
+      mH = h;
+      mScale = scale;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+
+      Key k = (Key) o;
+
+      return mTrack == k.mTrack && mColor == k.mColor && mX == k.mX
+          && mY == k.mY && mW == k.mW && mH == k.mH && mScale == k.mScale;
+    }
+
+    @Override
+    public int hashCode() {
+      int h = Long.hashCode(mTrack);
+
+      h = 31 * h + mColor;
+      h = 31 * h + mX;
+      h = 31 * h + mY;
+      h = 31 * h + mW;
+      h = 31 * h + mH;
+      h = 31 * h + Double.hashCode(mScale);
+
+      return h;
+    }
+  }
+
+  private final Map<Key, BufferedImage> mImages = new LinkedHashMap<Key, BufferedImage>(
+      16, 0.75f, true);
+
+  private final long mBudget;
+
+  private long mBytes = 0;
+
+  /**
+   * The id of each track in use.
+   */
+  private final Map<Object, Long> mIds = new HashMap<Object, Long>();
+
+  /**
+   * The track of each shared id so the id can be forgotten once it is no
+   * longer used.
+   */
+  private final Map<Long, Object> mTracks = new HashMap<Long, Object>();
+
+  /**
+   * How many layers use each id.
+   */
+  private final Map<Long, Integer> mUsers = new HashMap<Long, Integer>();
+
+  private long mNextId = 0;
+
+  private final AtomicLong mHits = new AtomicLong(0);
+  private final AtomicLong mMisses = new AtomicLong(0);
+
+  private TrackImageCache() {
+    mBudget = Math.max(0,
+        SettingsService.getInstance().getInt("ideogram.render.cache.mb"))
+        * 1024L * 1024L;
+  }
+
+  /**
+   * Returns a cached image or null if the track must be rendered.
+   * 
+   * @param key
+   * @return
+   */
+  public synchronized BufferedImage get(Key key) {
+    BufferedImage image = mImages.get(key);
+
+    if (image != null) {
+      mHits.incrementAndGet();
+    } else {
+      mMisses.incrementAndGet();
+    }
+
+    return image;
+  }
+
+  /**
+   * Cache an image, evicting the least recently used images to stay within
+   * the memory budget. Images larger than the budget are not cached.
+   * 
+   * @param key
+   * @param image
+   */
+  public synchronized void put(Key key, BufferedImage image) {
+    long bytes = bytes(image);
+
+    if (bytes > mBudget) {
+      return;
+    }
+
+    BufferedImage old = mImages.put(key, image);
+
+    if (old != null) {
+      mBytes -= bytes(old);
+    }
+
+    mBytes += bytes;
+
+    Iterator<BufferedImage> iter = mImages.values().iterator();
+
+    while (mBytes > mBudget && iter.hasNext()) {
+      mBytes -= bytes(iter.next());
+      iter.remove();
+    }
+  }
+
+  /**
+   * Returns the id of a track for use in a {@link Key}. Equal tracks share an
+   * id, and so their images, while any layer uses it. Each call must be
+   * matched by a call to {@link #release(long)}.
+   * 
+   * @param track The track data or null for a track that shares nothing.
+   * @return
+   */
+  public synchronized long acquire(Object track) {
+    Long id = track != null ? mIds.get(track) : null;
+
+    if (id == null) {
+      id = mNextId++;
+
+      if (track != null) {
+        mIds.put(track, id);
+        mTracks.put(id, track);
+      }
+    }
+
+    Integer n = mUsers.get(id);
+
+    mUsers.put(id, n != null ? n + 1 : 1);
+
+    return id;
+  }
+
+  /**
+   * Stop using a track id. The images of the track are removed once it has
+   * no other users.
+   * 
+   * @param id
+   */
+  public synchronized void release(long id) {
+    Integer n = mUsers.get(id);
+
+    if (n == null) {
+      return;
+    }
+
+    if (n > 1) {
+      mUsers.put(id, n - 1);
+    } else {
+      mUsers.remove(id);
+
+      Object track = mTracks.remove(id);
+
+      if (track != null) {
+        mIds.remove(track);
+      }
+
+      invalidate(id);
+    }
+  }
+
+  /**
+   * Remove every image of a track, for example because its data changed.
+   * 
+   * @param id
+   */
+  public synchronized void invalidate(long id) {
+    Iterator<Map.Entry<Key, BufferedImage>> iter = mImages.entrySet()
+        .iterator();
+
+    while (iter.hasNext()) {
+      Map.Entry<Key, BufferedImage> e = iter.next();
+
+      if (e.getKey().mTrack == id) {
+        mBytes -= bytes(e.getValue());
+        iter.remove();
+      }
+    }
+  }
+
+  public synchronized void clear() {
+    mImages.clear();
+    mBytes = 0;
+  }
+
+  /**
+   * Returns the number of bytes used by cached images.
+   * 
+   * @return
+   */
+  public synchronized long getBytes() {
+    return mBytes;
+  }
+
+  public long getHits() {
+    return mHits.get();
+  }
+
+  public long getMisses() {
+    return mMisses.get();
+  }
+
+  private static long bytes(BufferedImage image) {
+    return 4L * image.getWidth() * image.getHeight();
+  }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.awt.Color;
+import java.io.IOException;
+
+/**
+ * Minimal vector drawing surface that writes straight to an output format
+ * as shapes are drawn, so nothing but the current shape is held in memory.
+ * Coordinates are in pixels with the origin at the top left.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public interface VectorCanvas {
+  /**
+   * Start the document.
+   * 
+   * @param width
+   * @param height
+   * @throws IOException
+   */
+  public void begin(int width, int height) throws IOException;
+
+  /**
+   * Start a path that is filled or, if strokeWidth is greater than zero,
+   * stroked when it is ended. Every shape added before
+   * {@link #endPath()} is written as part of the same path.
+   * 
+   * @param color
+   * @param strokeWidth
+   * @throws IOException
+   */
+  public void beginPath(Color color, double strokeWidth) throws IOException;
+
+  public void moveTo(double x, double y) throws IOException;
+
+  public void lineTo(double x, double y) throws IOException;
+
+  public void rect(double x, double y, double w, double h)
+      throws IOException;
+
+  public void closePath() throws IOException;
+
+  public void endPath() throws IOException;
+
+  /**
+   * Draw text with its baseline starting at x, y.
+   * 
+   * @param text
+   * @param x
+   * @param y
+   * @param size Font size in pixels.
+   * @param color
+   * @throws IOException
+   */
+  public void text(String text, double x, double y, int size, Color color)
+      throws IOException;
+
+  /**
+   * Finish the document and flush it. The underlying stream is not closed.
+   * 
+   * @throws IOException
+   */
+  public void end() throws IOException;
+}
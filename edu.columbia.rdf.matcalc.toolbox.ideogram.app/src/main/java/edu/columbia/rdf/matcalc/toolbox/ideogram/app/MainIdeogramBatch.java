@@ -0,0 +1,457 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram.app;
+
+import java.awt.Color;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomeService;
+import org.jebtk.core.AppService;
+import org.jebtk.core.settings.SettingsService;
+import org.jebtk.graphplot.Image;
+import org.jebtk.graphplot.figure.Figure;
+
+import edu.columbia.rdf.matcalc.toolbox.ideogram.FrequencyLayout;
+import edu.columbia.rdf.matcalc.toolbox.ideogram.IdeogramBuilder;
+import edu.columbia.rdf.matcalc.toolbox.ideogram.IdeogramExporter;
+import edu.columbia.rdf.matcalc.toolbox.ideogram.IdeogramMetrics;
+import edu.columbia.rdf.matcalc.toolbox.ideogram.LaneMode;
+import edu.columbia.rdf.matcalc.toolbox.ideogram.SegmentCoalescer;
+import edu.columbia.rdf.matcalc.toolbox.ideogram.SegmentFile;
+import edu.columbia.rdf.matcalc.toolbox.ideogram.SegmentLayout;
+import edu.columbia.rdf.matcalc.toolbox.ideogram.Segments;
+import edu.columbia.rdf.matcalc.toolbox.ideogram.TrackMode;
+
+/**
+ * Headless entry point that renders an ideogram for each segment table in a
+ * set of files, directories or globs. Files are processed on a bounded worker
+ * pool and share the cached genome annotation. No window is ever created.
+ * 
+ * <pre>
+ * MainIdeogramBatch --genome hg19 --format svg --out figures cohorts/*.seg
+ * </pre>
+ * 
+ * With --format segb each table is converted to a binary segment file
+ * instead so later runs can skip parsing text.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class MainIdeogramBatch {
+
+  /**
+   * Extensions picked up when a directory is given as input.
+   */
+  private static final String DIR_GLOB = "*.{seg,txt,tsv,segb}";
+
+  private static final String USAGE = "Usage: MainIdeogramBatch [options] <file|dir|glob>...\n"
+      + "  --genome <name>         Genome, e.g. hg19 (default hg19)\n"
+      + "  --gains-color <#rrggbb> Gain color\n"
+      + "  --losses-color <#rrggbb> Loss color\n"
+      + "  --format <svg|png|pdf|segb> Output format (default svg)\n"
+      + "  --out <dir>             Output directory (default .)\n"
+      + "  --threads <n>           Worker threads (default processors)\n"
+      + "  --lanes <sample|packed> Lane layout (default sample)\n"
+      + "  --display <segments|frequency> Track display (default segments)\n"
+      + "  --coalesce              Merge runs of adjacent segments\n"
+      + "  --metrics               Print time and allocations per stage";
+
+  /**
+   * Timings of one file in milliseconds.
+   */
+  private static class Result {
+    private final Path mFile;
+    private int mSegments;
+    private long mCoalesced;
+    private long mRead;
+    private long mLayout;
+    private long mFigure;
+    private long mWrite;
+    private String mStatus = "ok";
+
+    public Result(Path file) {
+      mFile = file;
+    }
+  }
+
+  public static final void main(String[] args) throws IOException {
+    System.setProperty("java.awt.headless", "true");
+
+    AppService.getInstance().setAppInfo("ideogram");
+
+    String genomeName = "hg19";
+    Color gainColor = SettingsService.getInstance()
+        .getColor("ideogram.gains.color");
+    Color lossColor = SettingsService.getInstance()
+        .getColor("ideogram.losses.color");
+    String format = "svg";
+    Path outDir = Paths.get(".");
+    int threads = Runtime.getRuntime().availableProcessors();
+    LaneMode laneMode = LaneMode.SAMPLE;
+    TrackMode trackMode = TrackMode.SEGMENTS;
+    boolean metrics = false;
+    SegmentCoalescer coalescer = null;
+
+    List<String> inputs = new ArrayList<String>();
+
+    try {
+      for (int i = 0; i < args.length; ++i) {
+        String arg = args[i];
+
+        if (arg.equals("--genome")) {
+          genomeName = args[++i];
+        } else if (arg.equals("--gains-color")) {
+          gainColor = Color.decode(args[++i]);
+        } else if (arg.equals("--losses-color")) {
+          lossColor = Color.decode(args[++i]);
+        } else if (arg.equals("--format")) {
+          format = args[++i].toLowerCase();
+        } else if (arg.equals("--out")) {
+          outDir = Paths.get(args[++i]);
+        } else if (arg.equals("--threads")) {
+          threads = Math.max(1, Integer.parseInt(args[++i]));
+        } else if (arg.equals("--lanes")) {
+          laneMode = LaneMode.valueOf(args[++i].toUpperCase());
+        } else if (arg.equals("--display")) {
+          trackMode = TrackMode.valueOf(args[++i].toUpperCase());
+        } else if (arg.equals("--coalesce")) {
+          coalescer = new SegmentCoalescer();
+        } else if (arg.equals("--metrics")) {
+          metrics = true;
+        } else if (arg.startsWith("--")) {
+          throw new IllegalArgumentException("Unknown option " + arg);
+        } else {
+          inputs.add(arg);
+        }
+      }
+    } catch (RuntimeException e) {
+      // Covers missing option values as well as bad numbers, colors and
+      // modes
+      System.err.println(e.getMessage());
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+
+    if (!format.equals("svg") && !format.equals("png")
+        && !format.equals("pdf") && !format.equals(SegmentFile.EXTENSION)) {
+      System.err.println("Unsupported format " + format);
+      System.exit(1);
+    }
+
+    List<Path> files = findFiles(inputs);
+
+    if (files.isEmpty()) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+
+    Files.createDirectories(outDir);
+
+    Genome genome = GenomeService.getInstance().guessGenome(genomeName);
+
+    // Load the annotation once up front so that workers only ever hit the
+    // cache.
+    IdeogramBuilder.loadGenomeData(genome);
+
+    if (metrics) {
+      IdeogramMetrics.getInstance().setEnabled(true);
+    }
+
+    List<Result> results = run(files, genome, gainColor, lossColor, format,
+        outDir, threads, laneMode, trackMode, coalescer);
+
+    printSummary(results);
+
+    if (metrics) {
+      System.out.println();
+      System.out.println(IdeogramMetrics.getInstance().getSummary());
+    }
+
+    for (Result result : results) {
+      if (!result.mStatus.equals("ok")) {
+        System.exit(2);
+      }
+    }
+  }
+
+  private static List<Result> run(List<Path> files,
+      final Genome genome,
+      final Color gainColor,
+      final Color lossColor,
+      final String format,
+      final Path outDir,
+      int threads,
+      final LaneMode laneMode,
+      final TrackMode trackMode,
+      final SegmentCoalescer coalescer) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+    List<Future<Result>> futures = new ArrayList<Future<Result>>(
+        files.size());
+
+    for (final Path file : files) {
+      futures.add(pool.submit(new Callable<Result>() {
+        @Override
+        public Result call() {
+          return render(file, genome, gainColor, lossColor, format, outDir,
+              laneMode, trackMode, coalescer);
+        }
+      }));
+    }
+
+    pool.shutdown();
+
+    List<Result> results = new ArrayList<Result>(files.size());
+
+    for (int i = 0; i < futures.size(); ++i) {
+      try {
+        results.add(futures.get(i).get());
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        Result result = new Result(files.get(i));
+        result.mStatus = String.valueOf(e.getCause());
+        results.add(result);
+      }
+    }
+
+    return results;
+  }
+
+  /**
+   * Render the ideogram of one file. Each worker already runs on its own
+   * thread so layout within a file is serial.
+   */
+  private static Result render(Path file,
+      Genome genome,
+      Color gainColor,
+      Color lossColor,
+      String format,
+      Path outDir,
+      LaneMode laneMode,
+      TrackMode trackMode,
+      SegmentCoalescer coalescer) {
+    Result result = new Result(file);
+
+    IdeogramBuilder builder = new IdeogramBuilder(genome).setParallelism(1)
+        .setLaneMode(laneMode).setCoalescer(coalescer);
+
+    try {
+      long t = System.nanoTime();
+
+      if (format.equals(SegmentFile.EXTENSION)) {
+        Segments segments = builder.read(file);
+
+        result.mSegments = segments.size();
+        result.mRead = elapsed(t);
+
+        t = System.nanoTime();
+
+        SegmentFile.write(segments, outDir.resolve(
+            stripExtension(file.getFileName().toString()) + "." + format));
+
+        result.mWrite = elapsed(t);
+
+        return result;
+      }
+
+      // Cohorts larger than the heap limit are read and laid out in one
+      // pass through a spill so the read is timed as part of the layout
+      Segments segments = null;
+
+      if (!builder.spills(file)) {
+        segments = builder.read(file);
+
+        result.mSegments = segments.size();
+        result.mRead = elapsed(t);
+
+        t = System.nanoTime();
+      }
+
+      Path out = outDir.resolve(
+          stripExtension(file.getFileName().toString()) + "." + format);
+
+      // Vector formats are written straight from the layout so only png
+      // needs the figure
+      boolean direct = IdeogramExporter.canWrite(out);
+
+      Figure figure = null;
+
+      if (trackMode == TrackMode.FREQUENCY) {
+        FrequencyLayout frequencies = segments != null
+            ? builder.frequencies(segments) : builder.frequencies(file);
+
+        result.mLayout = elapsed(t);
+        result.mCoalesced = builder.getCoalesced();
+
+        t = System.nanoTime();
+
+        if (direct) {
+          builder.export(frequencies, gainColor, lossColor, out);
+        } else {
+          figure = builder.createFigure(frequencies, gainColor, lossColor);
+        }
+      } else {
+        SegmentLayout layout = segments != null ? builder.layout(segments)
+            : builder.layout(file);
+
+        result.mLayout = elapsed(t);
+        result.mCoalesced = builder.getCoalesced();
+
+        t = System.nanoTime();
+
+        if (direct) {
+          builder.export(layout, gainColor, lossColor, out);
+        } else {
+          figure = builder.createFigure(layout, gainColor, lossColor);
+        }
+      }
+
+      result.mFigure = elapsed(t);
+
+      t = System.nanoTime();
+
+      if (figure != null) {
+        Image.write(figure, out);
+      }
+
+      result.mWrite = elapsed(t);
+    } catch (Exception e) {
+      result.mStatus = e.getMessage() != null ? e.getMessage()
+          : e.toString();
+    }
+
+    return result;
+  }
+
+  /**
+   * Expand the inputs into a sorted list of files. Directories contribute
+   * their segment tables and anything else is treated as a glob relative to
+   * its parent directory.
+   * 
+   * @param inputs
+   * @return
+   * @throws IOException
+   */
+  private static List<Path> findFiles(List<String> inputs)
+      throws IOException {
+    List<Path> files = new ArrayList<Path>();
+
+    for (String input : inputs) {
+      Path path = Paths.get(input);
+
+      if (Files.isRegularFile(path)) {
+        files.add(path);
+      } else if (Files.isDirectory(path)) {
+        addFiles(path, DIR_GLOB, files);
+      } else {
+        Path dir = path.getParent() != null ? path.getParent() : Paths.get(".");
+
+        addFiles(dir, path.getFileName().toString(), files);
+      }
+    }
+
+    Collections.sort(files);
+
+    return files;
+  }
+
+  private static void addFiles(Path dir, String glob, List<Path> files)
+      throws IOException {
+    if (!Files.isDirectory(dir)) {
+      return;
+    }
+
+    DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob);
+
+    try {
+      for (Path file : stream) {
+        if (Files.isRegularFile(file)) {
+          files.add(file);
+        }
+      }
+    } finally {
+      stream.close();
+    }
+  }
+
+  private static void printSummary(List<Result> results) {
+    System.out.println(String.format("%-40s %10s %10s %8s %8s %8s %8s  %s",
+        "file",
+        "segments",
+        "merged",
+        "read",
+        "layout",
+        "figure",
+        "write",
+        "status"));
+
+    long total = 0;
+
+    for (Result result : results) {
+      System.out.println(String.format("%-40s %10d %10d %8d %8d %8d %8d  %s",
+          result.mFile.getFileName(),
+          result.mSegments,
+          result.mCoalesced,
+          result.mRead,
+          result.mLayout,
+          result.mFigure,
+          result.mWrite,
+          result.mStatus));
+
+      total += result.mRead + result.mLayout + result.mFigure + result.mWrite;
+    }
+
+    System.out.println(results.size() + " files, " + total
+        + " ms total (ms per stage)");
+  }
+
+  private static String stripExtension(String name) {
+    int i = name.lastIndexOf('.');
+
+    return i > 0 ? name.substring(0, i) : name;
+  }
+
+  private static long elapsed(long start) {
+    return (System.nanoTime() - start) / 1000000;
+  }
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks that frequency profiles count samples rather than segments.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class FrequencyProfileTest {
+  private static final int LENGTH = 6000;
+
+  @Test
+  public void duplicateSegmentsCountOnce() {
+    int[] samples = { 0, 0, 1 };
+    int[] starts = { 100, 100, 150 };
+    int[] ends = { 200, 200, 300 };
+
+    FrequencyProfile profile = FrequencyProfile
+        .sweep(samples, starts, ends, 3, 2);
+
+    assertEquals(1, profile.getMaxFrequency(), 0);
+    assertEquals(2, countAt(profile, 175));
+    assertEquals(1, countAt(profile, 250));
+    assertEquals(0, countAt(profile, 301));
+  }
+
+  @Test
+  public void countsDistinctSamples() {
+    Random random = new Random(3);
+
+    for (int trial = 0; trial < 200; ++trial) {
+      int n = 1 + random.nextInt(400);
+      int sampleCount = 1 + random.nextInt(20);
+
+      int[] samples = new int[n];
+      int[] starts = new int[n];
+      int[] ends = new int[n];
+
+      boolean[][] covered = new boolean[sampleCount][LENGTH];
+
+      for (int i = 0; i < n; ++i) {
+        samples[i] = random.nextInt(sampleCount);
+        starts[i] = random.nextInt(LENGTH - 400);
+        ends[i] = starts[i] + random.nextInt(300);
+
+        for (int x = starts[i]; x <= ends[i]; ++x) {
+          covered[samples[i]][x] = true;
+        }
+      }
+
+      FrequencyProfile profile = FrequencyProfile
+          .sweep(samples, starts, ends, n, sampleCount);
+
+      assertTrue(profile.getMaxFrequency() <= 1);
+
+      for (int x = 0; x < LENGTH; ++x) {
+        int expected = 0;
+
+        for (int s = 0; s < sampleCount; ++s) {
+          if (covered[s][x]) {
+            ++expected;
+          }
+        }
+
+        assertEquals("position " + x, expected, countAt(profile, x));
+      }
+    }
+  }
+
+  private static int countAt(FrequencyProfile profile, int x) {
+    int count = 0;
+
+    for (int k = 0; k < profile.getStepCount()
+        && profile.getPosition(k) <= x; ++k) {
+      count = profile.getCount(k);
+    }
+
+    return count;
+  }
+}
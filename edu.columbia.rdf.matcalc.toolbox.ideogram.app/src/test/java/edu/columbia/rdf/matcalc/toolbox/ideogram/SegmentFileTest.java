@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomeService;
+import org.jebtk.bioinformatics.genomic.Human;
+import org.junit.Test;
+
+/**
+ * Checks that a binary segment file reloads the same segments as the SEG
+ * file it was created from.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentFileTest {
+  private static final Genome GENOME = GenomeService.getInstance()
+      .guessGenome("hg19");
+
+  @Test
+  public void roundTripMatchesTextFile() throws IOException {
+    Path dir = Files.createTempDirectory("segment-file-test");
+
+    try {
+      Path text = createSegFile(new Random(5), dir.resolve("test.seg"));
+      Path binary = dir.resolve("test." + SegmentFile.EXTENSION);
+
+      Segments expected = new IdeogramBuilder(GENOME).read(text);
+
+      SegmentFile.write(expected, binary);
+
+      Segments actual = new IdeogramBuilder(GENOME).read(binary);
+
+      assertEquals(expected.size(), actual.size());
+      assertEquals(expected.getSampleCount(), actual.getSampleCount());
+
+      for (int i = 0; i < expected.getSampleCount(); ++i) {
+        assertEquals(expected.getSample(i), actual.getSample(i));
+      }
+
+      // Rows are grouped by chromosome in the binary file but keep their
+      // order within a chromosome
+      for (int c = 0; c < expected.getChromosomeCount(); ++c) {
+        assertEquals(rows(expected, c), rows(actual, c));
+      }
+    } finally {
+      delete(dir);
+    }
+  }
+
+  @Test
+  public void readsOneChromosome() throws IOException {
+    Path dir = Files.createTempDirectory("segment-file-test");
+
+    try {
+      Path text = createSegFile(new Random(9), dir.resolve("test.seg"));
+      Path binary = dir.resolve("test." + SegmentFile.EXTENSION);
+
+      Segments expected = new IdeogramBuilder(GENOME).read(text);
+
+      SegmentFile.write(expected, binary);
+
+      int c = 4;
+
+      Chromosome chr = expected.getChromosome(c);
+
+      SegmentsBuilder builder = new SegmentsBuilder(GENOME,
+          expected.getChromosomes(), 16);
+
+      SegmentFile file = SegmentFile.open(binary);
+
+      try {
+        file.read(chr, builder);
+      } finally {
+        file.close();
+      }
+
+      assertEquals(rows(expected, c), rows(builder.build(), c));
+    } finally {
+      delete(dir);
+    }
+  }
+
+  /**
+   * Returns the sample, start, end and mean of the rows on a chromosome in
+   * order. Means are compared at the float precision the file stores.
+   */
+  private static List<String> rows(final Segments segments, int c) {
+    List<String> rows = new ArrayList<String>();
+
+    for (int i = 0; i < segments.size(); ++i) {
+      if (segments.mChr[i] == c) {
+        rows.add(segments.getSample(segments.mSample[i]) + " "
+            + segments.mStart[i] + " " + segments.mEnd[i] + " "
+            + (float) segments.mMean[i]);
+      }
+    }
+
+    return rows;
+  }
+
+  /**
+   * Write random segments in SEG format. Starts are not sorted so
+   * consecutive segments can move backwards along a chromosome.
+   */
+  private static Path createSegFile(Random random, Path file)
+      throws IOException {
+    List<String> lines = new ArrayList<String>();
+
+    lines.add("ID\tchrom\tloc.start\tloc.end\tnum.mark\tseg.mean");
+
+    for (int i = 0; i < 5000; ++i) {
+      int start = random.nextInt(100000000);
+
+      lines.add("s" + random.nextInt(50) + "\t"
+          + Human.CHROMOSOMES[random.nextInt(Human.CHROMOSOMES.length)]
+          + "\t" + start + "\t" + (start + random.nextInt(1000000)) + "\t"
+          + random.nextInt(100) + "\t" + random.nextGaussian());
+    }
+
+    return Files.write(file, lines, StandardCharsets.UTF_8);
+  }
+
+  private static void delete(Path dir) throws IOException {
+    for (Path file : Files.newDirectoryStream(dir)) {
+      Files.delete(file);
+    }
+
+    Files.delete(dir);
+  }
+}
@@ -0,0 +1,440 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+import org.jebtk.bioinformatics.genomic.ChromosomeService;
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomeService;
+import org.jebtk.bioinformatics.genomic.Human;
+import org.jebtk.core.collections.CollectionUtils;
+import org.jebtk.math.matrix.DataFrame;
+import org.junit.Test;
+
+/**
+ * Checks that the layout engine produces the same gain and loss matrices as
+ * the map based layout IdeogramModule used before it.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SegmentLayoutEngineTest {
+  private static final int TRIALS = 40;
+
+  private static final Genome GENOME = GenomeService.getInstance()
+      .guessGenome("hg19");
+
+  @Test
+  public void sampleLanesMatchLegacyLayout() {
+    Random random = new Random(42);
+
+    for (int trial = 0; trial < TRIALS; ++trial) {
+      DataFrame m = createSegments(random, trial);
+
+      List<Map<Chromosome, DataFrame>> expected = legacyLayout(m);
+
+      SegmentLayoutEngine engine = new SegmentLayoutEngine(GENOME,
+          Human.CHROMOSOMES);
+
+      SegmentLayout layout = engine.layout(engine.read(m, 0, 1, 2, 3, 4));
+
+      assertSame(expected.get(0), layout.getGains());
+      assertSame(expected.get(1), layout.getLosses());
+    }
+  }
+
+  @Test
+  public void parallelLayoutMatchesLegacyLayout() {
+    Random random = new Random(7);
+
+    for (int trial = 0; trial < TRIALS; ++trial) {
+      DataFrame m = createSegments(random, trial);
+
+      List<Map<Chromosome, DataFrame>> expected = legacyLayout(m);
+
+      SegmentLayoutEngine engine = new SegmentLayoutEngine(GENOME,
+          Human.CHROMOSOMES).setParallelism(4);
+
+      SegmentLayout layout = engine.layout(engine.read(m, 0, 1, 2, 3, 4));
+
+      assertSame(expected.get(0), layout.getGains());
+      assertSame(expected.get(1), layout.getLosses());
+    }
+  }
+
+  @Test
+  public void packedLanesDoNotOverlap() {
+    Random random = new Random(11);
+
+    for (int trial = 0; trial < TRIALS; ++trial) {
+      DataFrame m = createSegments(random, trial);
+
+      SegmentLayoutEngine engine = new SegmentLayoutEngine(GENOME,
+          Human.CHROMOSOMES).setLaneMode(LaneMode.PACKED);
+
+      SegmentLayout layout = engine.layout(engine.read(m, 0, 1, 2, 3, 4));
+
+      for (SegmentView v : layout.getGains().values()) {
+        assertPacked(v);
+      }
+
+      for (SegmentView v : layout.getLosses().values()) {
+        assertPacked(v);
+      }
+    }
+  }
+
+  @Test
+  public void cachedLayoutMatchesLegacyLayout() {
+    Random random = new Random(3);
+
+    for (int trial = 0; trial < TRIALS; ++trial) {
+      DataFrame m = createSegments(random, trial);
+
+      PartitionCache<SegmentView> cache = new PartitionCache<SegmentView>();
+
+      SegmentLayoutEngine engine = new SegmentLayoutEngine(GENOME,
+          Human.CHROMOSOMES).setLayoutCache(cache);
+
+      engine.layout(engine.read(m, 0, 1, 2, 3, 4));
+
+      // Edit one chromosome and shift every row so reused partitions must
+      // refer to the rows of the edited matrix
+      DataFrame edited = prependSegments(random, m, "chr1");
+
+      SegmentLayout layout = engine
+          .layout(engine.read(edited, 0, 1, 2, 3, 4));
+
+      List<Map<Chromosome, DataFrame>> expected = legacyLayout(edited);
+
+      assertTrue(cache.getReused() > 0);
+      assertSame(expected.get(0), layout.getGains());
+      assertSame(expected.get(1), layout.getLosses());
+    }
+  }
+
+  @Test
+  public void cachedLayoutRendersOnlyEditedPartitions() {
+    Random random = new Random(5);
+
+    TrackImageCache images = TrackImageCache.getInstance();
+
+    for (int trial = 0; trial < TRIALS; ++trial) {
+      DataFrame m = createSegments(random, trial);
+
+      PartitionCache<SegmentView> cache = new PartitionCache<SegmentView>();
+
+      SegmentLayoutEngine engine = new SegmentLayoutEngine(GENOME,
+          Human.CHROMOSOMES).setLayoutCache(cache);
+
+      SegmentLayout before = engine.layout(engine.read(m, 0, 1, 2, 3, 4));
+
+      DataFrame edited = prependSegments(random, m, "chr1");
+
+      SegmentLayout after = engine
+          .layout(engine.read(edited, 0, 1, 2, 3, 4));
+
+      // Acquire the tracks of both windows as the figure does. Tracks of
+      // unedited partitions must share an id, and so their images.
+      List<Long> ids = new ArrayList<Long>();
+
+      int rendered = assertTracks(images,
+          before.getGains(),
+          after.getGains(),
+          ids);
+
+      rendered += assertTracks(images,
+          before.getLosses(),
+          after.getLosses(),
+          ids);
+
+      assertTrue(rendered > 0);
+      assertEquals(cache.getComputed(), rendered);
+
+      for (long id : ids) {
+        images.release(id);
+      }
+    }
+  }
+
+  /**
+   * Lanes must not hold overlapping segments and there should be no more
+   * lanes than the maximum overlap depth.
+   */
+  private static void assertPacked(SegmentView v) {
+    int n = v.getRows();
+
+    int depth = 0;
+
+    for (int i = 0; i < n; ++i) {
+      // Segments covering the start of segment i
+      int d = 0;
+
+      for (int j = 0; j < n; ++j) {
+        if (i != j && v.getY(i) == v.getY(j)) {
+          assertTrue("overlap in lane " + v.getY(i),
+              v.getX2(i) < v.getX1(j) || v.getX2(j) < v.getX1(i));
+        }
+
+        if (v.getX1(j) <= v.getX1(i) && v.getX1(i) <= v.getX2(j)) {
+          ++d;
+        }
+      }
+
+      depth = Math.max(depth, d);
+    }
+
+    assertEquals(depth, v.getLaneCount());
+  }
+
+  /**
+   * Checks that only the views of edited partitions are given a new track
+   * id and returns how many were.
+   */
+  private static int assertTracks(TrackImageCache images,
+      Map<Chromosome, SegmentView> before,
+      Map<Chromosome, SegmentView> after,
+      List<Long> ids) {
+    int rendered = 0;
+
+    for (Chromosome chr : after.keySet()) {
+      long id = images.acquire(after.get(chr).getTrack());
+
+      ids.add(id);
+
+      if (before.containsKey(chr)) {
+        long old = images.acquire(before.get(chr).getTrack());
+
+        ids.add(old);
+
+        if (id != old) {
+          assertEquals("chr1", chr.toString());
+
+          ++rendered;
+        }
+      } else {
+        ++rendered;
+      }
+    }
+
+    return rendered;
+  }
+
+  private static void assertSame(Map<Chromosome, DataFrame> expected,
+      Map<Chromosome, SegmentView> actual) {
+    assertEquals(expected.keySet(), actual.keySet());
+
+    for (Chromosome chr : expected.keySet()) {
+      DataFrame e = expected.get(chr);
+      SegmentView a = actual.get(chr);
+
+      assertEquals(chr.toString(), e.getRows(), a.getRows());
+
+      for (int c = 0; c < 4; ++c) {
+        assertEquals(e.getColumnName(c), a.getColumnName(c));
+      }
+
+      for (int i = 0; i < e.getRows(); ++i) {
+        for (int c = 0; c < 4; ++c) {
+          assertEquals(chr + " row " + i + " col " + c,
+              e.getValue(i, c),
+              a.getValue(i, c),
+              0);
+        }
+      }
+    }
+  }
+
+  /**
+   * Create random segments with id, chr, start, end and mean columns. Later
+   * trials have more samples.
+   */
+  private static DataFrame createSegments(Random random, int trial) {
+    int n = random.nextInt(3000) + 1;
+
+    DataFrame m = DataFrame.createDataFrame(n, 5);
+
+    for (int i = 0; i < n; ++i) {
+      int start = random.nextInt(100000);
+
+      m.set(i, 0, "s" + random.nextInt(1 + trial * 7));
+      m.set(i, 1, Human.CHROMOSOMES[random
+          .nextInt(Human.CHROMOSOMES.length)].toString());
+      m.set(i, 2, start);
+      m.set(i, 3, start + random.nextInt(5000));
+      m.set(i, 4, random.nextGaussian());
+    }
+
+    return m;
+  }
+
+  /**
+   * Returns a copy of a segment matrix with a few random segments on one
+   * chromosome added before its rows.
+   */
+  private static DataFrame prependSegments(Random random,
+      final DataFrame m,
+      String chr) {
+    int k = random.nextInt(10) + 1;
+
+    DataFrame ret = DataFrame.createDataFrame(m.getRows() + k, 5);
+
+    for (int i = 0; i < k; ++i) {
+      int start = random.nextInt(100000);
+
+      ret.set(i, 0, m.getText(random.nextInt(m.getRows()), 0));
+      ret.set(i, 1, chr);
+      ret.set(i, 2, start);
+      ret.set(i, 3, start + random.nextInt(5000));
+      ret.set(i, 4, random.nextGaussian());
+    }
+
+    for (int i = 0; i < m.getRows(); ++i) {
+      ret.set(k + i, 0, m.getText(i, 0));
+      ret.set(k + i, 1, m.getText(i, 1));
+
+      for (int c = 2; c < 5; ++c) {
+        ret.set(k + i, c, m.getValue(i, c));
+      }
+    }
+
+    return ret;
+  }
+
+  /**
+   * The layout IdeogramModule used before the engine, kept as the reference
+   * the engine must reproduce.
+   * 
+   * @param m
+   * @return The gain and loss matrices.
+   */
+  private static List<Map<Chromosome, DataFrame>> legacyLayout(
+      final DataFrame m) {
+    Map<Chromosome, Integer> sampleY = new HashMap<Chromosome, Integer>();
+    Map<Chromosome, Map<String, Integer>> yMap = new HashMap<Chromosome, Map<String, Integer>>();
+    Map<Chromosome, Integer> rowCount = new HashMap<Chromosome, Integer>();
+
+    List<Map<Chromosome, DataFrame>> ret = new ArrayList<Map<Chromosome, DataFrame>>();
+
+    for (int gain = 0; gain < 2; ++gain) {
+      String name = gain == 0 ? "Gains" : "Losses";
+
+      sampleY.clear();
+      yMap.clear();
+      rowCount.clear();
+
+      Map<Chromosome, Map<Integer, List<Integer>>> orderMap = new TreeMap<Chromosome, Map<Integer, List<Integer>>>();
+
+      for (int i = 0; i < m.getRows(); ++i) {
+        if ((m.getValue(i, 4) >= 0) != (gain == 0)) {
+          continue;
+        }
+
+        Chromosome chr = ChromosomeService.getInstance()
+            .chr(GENOME, m.getText(i, 1));
+
+        int l = (int) m.getValue(i, 3) - (int) m.getValue(i, 2) + 1;
+
+        if (!orderMap.containsKey(chr)) {
+          orderMap.put(chr, new TreeMap<Integer, List<Integer>>());
+          sampleY.put(chr, 1);
+          yMap.put(chr, new HashMap<String, Integer>());
+          rowCount.put(chr, 0);
+        }
+
+        if (!orderMap.get(chr).containsKey(l)) {
+          orderMap.get(chr).put(l, new ArrayList<Integer>());
+        }
+
+        orderMap.get(chr).get(l).add(i);
+
+        rowCount.put(chr, rowCount.get(chr) + 1);
+      }
+
+      Map<Chromosome, DataFrame> matrixMap = new HashMap<Chromosome, DataFrame>();
+
+      for (Chromosome chr : orderMap.keySet()) {
+        DataFrame matrix = DataFrame
+            .createNumericalMatrix(rowCount.get(chr), 4);
+
+        matrix.setColumnName(0, name + " x1");
+        matrix.setColumnName(1, name + " y1");
+        matrix.setColumnName(2, name + " x2");
+        matrix.setColumnName(3, name + " y2");
+
+        matrixMap.put(chr, matrix);
+
+        int r = 0;
+
+        // order largest to smallest
+        List<Integer> lorder = CollectionUtils
+            .reverse(CollectionUtils.sort(orderMap.get(chr).keySet()));
+
+        for (int l : lorder) {
+          for (int i : orderMap.get(chr).get(l)) {
+            String id = m.getText(i, 0);
+
+            if (!yMap.get(chr).containsKey(id)) {
+              // allocate the next available row to a sample
+              yMap.get(chr).put(id, sampleY.get(chr));
+
+              sampleY.put(chr, sampleY.get(chr) + 1);
+            }
+
+            int y = yMap.get(chr).get(id);
+
+            if (gain != 0) {
+              y = -y;
+            }
+
+            matrix.set(r, 0, m.getValue(i, 2));
+            matrix.set(r, 1, y);
+            matrix.set(r, 2, m.getValue(i, 3));
+            matrix.set(r, 3, y);
+
+            ++r;
+          }
+        }
+      }
+
+      ret.add(matrixMap);
+    }
+
+    return ret;
+  }
+}
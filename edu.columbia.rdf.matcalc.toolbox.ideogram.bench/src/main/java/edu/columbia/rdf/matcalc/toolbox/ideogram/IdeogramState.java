@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.io.IOException;
+
+import org.jebtk.bioinformatics.genomic.Genome;
+import org.jebtk.bioinformatics.genomic.GenomeService;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark input shared by the ideogram benchmarks: a synthetic cohort on a
+ * genome together with its layout.
+ * 
+ * @author Antony Holmes
+ *
+ */
+@State(Scope.Benchmark)
+public class IdeogramState {
+  private static final long SEED = 42;
+
+  @Param({ "hg19", "mm10" })
+  public String mGenomeName;
+
+  @Param({ "100", "1000" })
+  public int mSamples;
+
+  @Param({ "50", "500" })
+  public int mSegmentsPerSample;
+
+  @Param({ "0.5" })
+  public double mGainRatio;
+
+  @Param({ "SAMPLE", "PACKED" })
+  public LaneMode mLaneMode;
+
+  public Genome mGenome;
+
+  public GenomeAnnotation mAnnotation;
+
+  public Segments mSegments;
+
+  public SegmentLayout mLayout;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    mGenome = GenomeService.getInstance().guessGenome(mGenomeName);
+
+    mAnnotation = IdeogramBuilder.loadGenomeData(mGenome);
+
+    mSegments = SyntheticSegments.create(mAnnotation,
+        mSamples,
+        mSegmentsPerSample,
+        mGainRatio,
+        SEED);
+
+    mLayout = createEngine().layout(mSegments);
+  }
+
+  /**
+   * Returns a serial engine so that benchmarks measure the work done rather
+   * than how well it spreads across cores.
+   * 
+   * @return
+   */
+  public SegmentLayoutEngine createEngine() {
+    return new SegmentLayoutEngine(mGenome, mAnnotation.getChromosomes())
+        .setParallelism(1).setLaneMode(mLaneMode);
+  }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks the data preparation stage: bucketing segments into chromosome
+ * partitions, assigning them to rows and counting the rows of each track.
+ * 
+ * @author Antony Holmes
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SegmentLayoutBenchmark {
+
+  /**
+   * Group segments by chromosome and gain/loss.
+   */
+  @Benchmark
+  public PartitionIndex bucketing(IdeogramState state) {
+    return PartitionIndex.create(state.mSegments,
+        state.mSegments.getChromosomeCount());
+  }
+
+  /**
+   * Bucketing plus row assignment for every partition.
+   */
+  @Benchmark
+  public SegmentLayout rowAssignment(IdeogramState state) {
+    return state.createEngine().layout(state.mSegments);
+  }
+
+  @Benchmark
+  public FrequencyLayout frequencies(IdeogramState state) {
+    return state.createEngine().frequencies(state.mSegments);
+  }
+
+  /**
+   * Count the rows needed by each gain and loss track.
+   */
+  @Benchmark
+  public int uniqueY(IdeogramState state) {
+    int rows = 0;
+
+    for (SegmentView m : state.mLayout.getGains().values()) {
+      rows += m.getLaneCount();
+    }
+
+    for (SegmentView m : state.mLayout.getLosses().values()) {
+      rows += m.getLaneCount();
+    }
+
+    return rows;
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2016, Antony Holmes
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. Neither the name of copyright holder nor the names of its contributors 
+ *     may be used to endorse or promote products derived from this software 
+ *     without specific prior written permission. 
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" 
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE 
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE 
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE 
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR 
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF 
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS 
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN 
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) 
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE 
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package edu.columbia.rdf.matcalc.toolbox.ideogram;
+
+import java.util.Random;
+
+import org.jebtk.bioinformatics.genomic.Chromosome;
+
+/**
+ * Generates reproducible random copy number segments for benchmarking.
+ * Chromosomes are picked in proportion to their size and segment lengths
+ * follow an exponential distribution so that most segments are focal with a
+ * long tail of arm level events.
+ * 
+ * @author Antony Holmes
+ *
+ */
+public class SyntheticSegments {
+  /**
+   * Mean segment length in bp.
+   */
+  public static final int MEAN_LENGTH = 2000000;
+
+  private SyntheticSegments() {
+    // Do nothing
+  }
+
+  /**
+   * Create a cohort of segments.
+   * 
+   * @param annotation Genome the segments are placed on.
+   * @param samples Number of samples.
+   * @param segmentsPerSample Number of segments in each sample.
+   * @param gainRatio Fraction of segments that are gains.
+   * @param seed Random seed.
+   * @return
+   */
+  public static Segments create(final GenomeAnnotation annotation,
+      int samples,
+      int segmentsPerSample,
+      double gainRatio,
+      long seed) {
+    Chromosome[] chromosomes = annotation.getChromosomes();
+
+    // Cumulative sizes for picking chromosomes by size
+    long[] cumulative = new long[chromosomes.length];
+    long total = 0;
+
+    for (int i = 0; i < chromosomes.length; ++i) {
+      total += annotation.getSize(chromosomes[i]);
+      cumulative[i] = total;
+    }
+
+    String[] ids = new String[samples];
+
+    for (int i = 0; i < samples; ++i) {
+      ids[i] = "sample" + (i + 1);
+    }
+
+    Segments segments = new Segments(chromosomes, ids,
+        samples * segmentsPerSample);
+
+    Random random = new Random(seed);
+
+    for (int s = 0; s < samples; ++s) {
+      for (int i = 0; i < segmentsPerSample; ++i) {
+        int chr = pick(cumulative, (long) (random.nextDouble() * total));
+
+        int size = annotation.getSize(chromosomes[chr]);
+
+        int length = Math.min(size,
+            1 + (int) (-Math.log(1 - random.nextDouble()) * MEAN_LENGTH));
+
+        int start = 1 + random.nextInt(Math.max(1, size - length));
+
+        double mean = 0.1 + random.nextDouble();
+
+        if (random.nextDouble() >= gainRatio) {
+          mean = -mean;
+        }
+
+        segments.add(s, chr, start, start + length - 1, mean);
+      }
+    }
+
+    return segments;
+  }
+
+  private static int pick(long[] cumulative, long x) {
+    int lo = 0;
+    int hi = cumulative.length - 1;
+
+    while (lo < hi) {
+      int mid = (lo + hi) >>> 1;
+
+      if (cumulative[mid] > x) {
+        hi = mid;
+      } else {
+        lo = mid + 1;
+      }
+    }
+
+    return lo;
+  }
+}